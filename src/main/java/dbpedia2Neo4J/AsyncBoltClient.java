@@ -0,0 +1,309 @@
+package dbpedia2Neo4J;
+import static org.neo4j.driver.v1.Values.parameters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.neo4j.driver.v1.exceptions.TransientException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous reads & writes over Bolt, with a bounded number of transactions in flight.
+ * The calling thread only waits when the window is full, so one thread can keep the server busy.
+ * The completions are handled on one thread, in the order they finish, so the callbacks don't need to be thread-safe.
+ * The writes are confirmed to the commit listener in the order they were submitted, e.g. to save a checkpoint.
+ * @author rparundekar
+ */
+public class AsyncBoltClient implements AutoCloseable{
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(AsyncBoltClient.class);
+
+	// Transient errors (e.g. deadlocks) are retried, waiting a little longer each time
+	private static final int MAX_RETRIES=5;
+	private static final long RETRY_DELAY=100;
+
+	private final Driver driver;
+	private final int window;
+	private final Semaphore inFlight;
+	private final ScheduledExecutorService completions;
+	private final LatencyHistogram writeLatency=new LatencyHistogram("write");
+	private final LatencyHistogram readLatency=new LatencyHistogram("read");
+	private volatile int peakInFlight=0;
+
+	// The writes confirmed in order: the next sequence number to submit & to confirm, and the finished ones waiting
+	private long nextSequence=0;
+	private long nextConfirmed=0;
+	private final Map<Long,Long> finished=new TreeMap<>();
+	private LongConsumer commitListener;
+	// A failure that stops the writes
+	private volatile Throwable failure;
+	// Skip the rows of a wrong statement instead of stopping, if the writes aren't checkpointed
+	private volatile boolean skipFailedWrites=false;
+	private final AtomicLong failedCount=new AtomicLong();
+
+	/**
+	 * Create the client
+	 * @param driver The driver
+	 * @param window The maximum number of transactions in flight
+	 */
+	public AsyncBoltClient(Driver driver, int window){
+		this.driver=driver;
+		this.window=window;
+		this.inFlight=new Semaphore(window);
+		this.completions=Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread=new Thread(r, "bolt-completions");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Set the listener for the committed writes
+	 * @param commitListener Called with the tag of the last write, once it & all the writes before it are committed
+	 */
+	public void setCommitListener(LongConsumer commitListener){
+		this.commitListener=commitListener;
+	}
+
+	/**
+	 * Set if a statement that is wrong stops the writes, or is logged & skipped. 
+	 * Only skip them when there's no checkpoint, since the commits after them are confirmed.
+	 * @param skipFailedWrites True to skip the rows of the wrong statements
+	 */
+	public void setSkipFailedWrites(boolean skipFailedWrites){
+		this.skipFailedWrites=skipFailedWrites;
+	}
+
+	/**
+	 * @return The number of rows that failed to be written & were skipped
+	 */
+	public long getFailedCount(){
+		return failedCount.get();
+	}
+
+	/**
+	 * Write the batch in a transaction, waiting if the window is full
+	 * @param batch The batch
+	 * @param tag The tag for the commit listener, e.g. the position in the file
+	 */
+	void write(WriteBatch batch, long tag){
+		acquire();
+		long sequence=nextSequence++;
+		execute(batch, 1, System.nanoTime(), committed -> {
+			if(committed)
+				finished(sequence, tag);
+			inFlight.release();
+		});
+	}
+
+	/**
+	 * Run a read & get the first record, waiting if the window is full
+	 * @param statement The statement
+	 * @param parameters The parameters
+	 * @param callback Called on the completion thread with the first record, or null if there are none
+	 */
+	public void readFirst(String statement, Value parameters, Consumer<Record> callback){
+		acquire();
+		long start=System.nanoTime();
+		Session session=driver.session();
+		session.runAsync(statement, parameters)
+		.thenCompose(cursor -> cursor.nextAsync())
+		.whenCompleteAsync((record, error) -> {
+			session.closeAsync();
+			try{
+				if(error!=null){
+					logger.error("Error in reading from database: {}", cause(error).getMessage());
+				}else{
+					readLatency.record(System.nanoTime()-start);
+					callback.accept(record);
+				}
+			}finally{
+				inFlight.release();
+			}
+		}, completions);
+	}
+
+	/**
+	 * Run the statements of the batch in a transaction. Transient errors are retried & if a statement is wrong,
+	 * each statement is retried in its own transaction.
+	 * @param done Called on the completion thread once the batch is written or its wrong statements skipped (true), or if it failed (false).
+	 * A batch that failed stops the writes, so the commits after it aren't confirmed.
+	 */
+	private void execute(WriteBatch batch, int attempt, long start, Consumer<Boolean> done){
+		List<String> ids=new ArrayList<>();
+		List<Long> merged=new ArrayList<>();
+		Session session=driver.session();
+		session.beginTransactionAsync().thenCompose(tx -> {
+			CompletionStage<Void> runs=CompletableFuture.completedFuture(null);
+			for(Map.Entry<String, List<Map<String, Object>>> statement:batch.getStatements().entrySet()){
+				runs=runs.thenCompose(previous -> tx.runAsync(statement.getKey(), parameters("rows", statement.getValue())))
+						.thenCompose(cursor -> cursor.forEachAsync(record -> batch.collect(statement.getKey(), record, ids, merged)))
+						.thenApply(summary -> null);
+			}
+			return runs.handle((previous, error) -> error)
+					.thenCompose(error -> {
+						if(error==null)
+							return tx.commitAsync();
+						CompletableFuture<Void> failed=new CompletableFuture<>();
+						tx.rollbackAsync().whenComplete((v, e) -> failed.completeExceptionally(error));
+						return failed;
+					});
+		}).whenCompleteAsync((v, error) -> {
+			session.closeAsync();
+			Throwable cause=error==null?null:cause(error);
+			if(cause==null){
+				writeLatency.record(System.nanoTime()-start);
+				batch.cache(ids, merged);
+				done.accept(true);
+			}else if(cause instanceof TransientException && attempt<MAX_RETRIES){
+				logger.debug("Transient error in inserting into database, retrying: {}", cause.getMessage());
+				completions.schedule(() -> execute(batch, attempt+1, System.nanoTime(), done), RETRY_DELAY*attempt, TimeUnit.MILLISECONDS);
+			}else if(cause instanceof ClientException && batch.getStatements().size()>1){
+				logger.warn("Error in inserting batch into database, retrying each statement: {}", cause.getMessage());
+				List<WriteBatch> singles=batch.split();
+				AtomicInteger remaining=new AtomicInteger(singles.size());
+				AtomicBoolean committed=new AtomicBoolean(true);
+				for(WriteBatch single:singles){
+					execute(single, 1, System.nanoTime(), singleCommitted -> {
+						if(!singleCommitted)
+							committed.set(false);
+						if(remaining.decrementAndGet()==0)
+							done.accept(committed.get());
+					});
+				}
+			}else if(cause instanceof ClientException && skipFailedWrites){
+				// The statement is wrong, but the writes aren't checkpointed, so the load goes on without its rows
+				logger.error("Error in inserting {} rows into database: {}", batch.size(), cause.getMessage());
+				failedCount.addAndGet(batch.size());
+				done.accept(true);
+			}else if(cause instanceof ClientException || cause instanceof TransientException){
+				// The statement is wrong, or the retries ran out: the rows aren't written, so the writes stop before a checkpoint passes them
+				logger.error("Error in inserting {} rows into database: {}", batch.size(), cause.getMessage());
+				failure=cause;
+				done.accept(false);
+			}else{
+				// Something else is wrong (e.g. the server is down), so the writes stop & the commits aren't confirmed
+				logger.error("Error in inserting into database: {}", cause.getMessage());
+				failure=cause;
+				done.accept(false);
+			}
+		}, completions);
+	}
+
+	/**
+	 * Confirm the writes that are finished, in order
+	 */
+	private void finished(long sequence, long tag){
+		finished.put(sequence, tag);
+		Long last=null;
+		while(finished.containsKey(nextConfirmed))
+			last=finished.remove(nextConfirmed++);
+		if(last!=null && commitListener!=null)
+			commitListener.accept(last);
+	}
+
+	private void acquire(){
+		checkFailure();
+		try{
+			inFlight.acquire();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the transactions in flight", e);
+		}
+		peakInFlight=Math.max(peakInFlight, getInFlight());
+	}
+
+	private void checkFailure(){
+		if(failure!=null)
+			throw new IllegalStateException("Writing to the database failed", failure);
+	}
+
+	private static Throwable cause(Throwable error){
+		return error instanceof CompletionException && error.getCause()!=null?error.getCause():error;
+	}
+
+	/**
+	 * Wait until all the transactions in flight are done
+	 */
+	public void await(){
+		try{
+			inFlight.acquire(window);
+			inFlight.release(window);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		checkFailure();
+	}
+
+	/**
+	 * @return The maximum number of transactions in flight
+	 */
+	public int getWindow(){
+		return window;
+	}
+
+	/**
+	 * @return The number of transactions in flight
+	 */
+	public int getInFlight(){
+		return window-inFlight.availablePermits();
+	}
+
+	/**
+	 * @return The most transactions that were in flight at once
+	 */
+	public int getPeakInFlight(){
+		return peakInFlight;
+	}
+
+	/**
+	 * @return The round-trip latencies of the writes, from the start of the transaction to the commit
+	 */
+	public LatencyHistogram getWriteLatency(){
+		return writeLatency;
+	}
+
+	/**
+	 * @return The round-trip latencies of the reads
+	 */
+	public LatencyHistogram getReadLatency(){
+		return readLatency;
+	}
+
+	/**
+	 * Wait for the transactions in flight & report the latencies
+	 */
+	@Override
+	public void close(){
+		try{
+			await();
+		}finally{
+			completions.shutdown();
+			logger.info("{} transactions in flight at most, of {}", peakInFlight, window);
+			if(writeLatency.getCount()>0)
+				logger.info("{}", writeLatency);
+			if(readLatency.getCount()>0)
+				logger.info("{}", readLatency);
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package dbpedia2Neo4J;
+
+import java.io.IOException;
+
+/**
+ * Decoder for a single bzip2 block. bzip2 blocks are independent of each other,
+ * so they can be decoded on different threads once their start is known.
+ * The block starts at a bit offset in the data, with the 48 bit block magic.
+ * @author rparundekar
+ */
+class BZip2BlockDecoder {
+	static final long BLOCK_MAGIC=0x314159265359L;
+	static final long END_OF_STREAM_MAGIC=0x177245385090L;
+
+	private static final int MAX_GROUPS=6;
+	private static final int MAX_ALPHA_SIZE=258;
+	private static final int MAX_CODE_LENGTH=20;
+	private static final int GROUP_SIZE=50;
+	private static final int RUNA=0;
+	private static final int RUNB=1;
+
+	private static final int[] CRC_TABLE=new int[256];
+	static{
+		for(int i=0;i<256;i++){
+			int c=i<<24;
+			for(int j=0;j<8;j++)
+				c=(c&0x80000000)!=0?(c<<1)^0x04c11db7:c<<1;
+			CRC_TABLE[i]=c;
+		}
+	}
+
+	/**
+	 * A decoded block
+	 */
+	static class Block{
+		byte[] data;
+		int length;
+		int crc;
+		long endBit;
+	}
+
+	// Input
+	private final byte[] in;
+	private final int limit;
+	private int bytePosition;
+	private long bitBuffer;
+	private int bitCount;
+
+	private BZip2BlockDecoder(byte[] in, int limit, long bitOffset) throws IOException{
+		this.in=in;
+		this.limit=limit;
+		this.bytePosition=(int)(bitOffset>>>3);
+		this.bitCount=0;
+		bits((int)(bitOffset&7));
+	}
+
+	/**
+	 * Decode the block starting at the bit offset
+	 * @param in The compressed data
+	 * @param limit The number of valid bytes in the data
+	 * @param bitOffset The bit offset of the block magic in the data
+	 * @param maxBlockSize The maximum block size from the stream header
+	 * @return The decoded block
+	 * @throws IOException Thrown if the block is corrupt or truncated
+	 */
+	static Block decode(byte[] in, int limit, long bitOffset, int maxBlockSize) throws IOException{
+		BZip2BlockDecoder decoder=new BZip2BlockDecoder(in, limit, bitOffset);
+		Block block=decoder.decode(maxBlockSize);
+		block.endBit=((long)decoder.bytePosition<<3)-decoder.bitCount;
+		return block;
+	}
+
+	private Block decode(int maxBlockSize) throws IOException{
+		if(bitsLong(48)!=BLOCK_MAGIC)
+			throw new IOException("Not a bzip2 block");
+		int expectedCrc=bits(32);
+		if(bits(1)!=0)
+			throw new IOException("Randomised bzip2 blocks are not supported");
+		int origPtr=bits(24);
+
+		// The bytes used in the block
+		int[] seqToUnseq=new int[256];
+		int numInUse=0;
+		int inUse16=bits(16);
+		for(int i=0;i<16;i++){
+			if((inUse16&(0x8000>>>i))!=0){
+				int used=bits(16);
+				for(int j=0;j<16;j++){
+					if((used&(0x8000>>>j))!=0)
+						seqToUnseq[numInUse++]=i*16+j;
+				}
+			}
+		}
+		if(numInUse==0)
+			throw new IOException("No symbols in bzip2 block");
+		int alphaSize=numInUse+2;
+
+		// The Huffman tables used for each group of 50 symbols
+		int numGroups=bits(3);
+		if(numGroups<2 || numGroups>MAX_GROUPS)
+			throw new IOException("Bad number of Huffman tables");
+		int numSelectors=bits(15);
+		if(numSelectors<1)
+			throw new IOException("Bad number of selectors");
+		byte[] selectors=new byte[numSelectors];
+		byte[] groupOrder=new byte[MAX_GROUPS];
+		for(int i=0;i<numGroups;i++)
+			groupOrder[i]=(byte)i;
+		for(int i=0;i<numSelectors;i++){
+			int j=0;
+			while(bits(1)==1){
+				j++;
+				if(j>=numGroups)
+					throw new IOException("Bad selector");
+			}
+			// Undo the move to front of the selectors
+			byte selector=groupOrder[j];
+			for(;j>0;j--)
+				groupOrder[j]=groupOrder[j-1];
+			groupOrder[0]=selector;
+			selectors[i]=selector;
+		}
+
+		// The code lengths & decode tables
+		int[][] limits=new int[numGroups][MAX_CODE_LENGTH+2];
+		int[][] bases=new int[numGroups][MAX_CODE_LENGTH+2];
+		int[][] perms=new int[numGroups][MAX_ALPHA_SIZE];
+		int[] minLengths=new int[numGroups];
+		int[] lengths=new int[MAX_ALPHA_SIZE];
+		for(int t=0;t<numGroups;t++){
+			int current=bits(5);
+			int minLength=32;
+			int maxLength=0;
+			for(int i=0;i<alphaSize;i++){
+				while(true){
+					if(current<1 || current>MAX_CODE_LENGTH)
+						throw new IOException("Bad code length");
+					if(bits(1)==0)
+						break;
+					current+=bits(1)==0?1:-1;
+				}
+				lengths[i]=current;
+				minLength=Math.min(minLength, current);
+				maxLength=Math.max(maxLength, current);
+			}
+			createDecodeTables(limits[t], bases[t], perms[t], lengths, minLength, maxLength, alphaSize);
+			minLengths[t]=minLength;
+		}
+
+		// Decode the Huffman coded symbols, undo the run length coding of zeros & the move to front
+		int[] tt=new int[maxBlockSize];
+		int[] counts=new int[256];
+		int[] mtf=new int[256];
+		for(int i=0;i<256;i++)
+			mtf[i]=i;
+		int endOfBlock=numInUse+1;
+		int blockSize=0;
+		int groupIndex=-1;
+		int groupPosition=0;
+		int[] limit=null;
+		int[] base=null;
+		int[] perm=null;
+		int minLength=0;
+		int runLength=0;
+		int runWeight=1;
+		while(true){
+			if(groupPosition==0){
+				groupIndex++;
+				if(groupIndex>=numSelectors)
+					throw new IOException("Ran out of selectors");
+				groupPosition=GROUP_SIZE;
+				int t=selectors[groupIndex];
+				limit=limits[t];
+				base=bases[t];
+				perm=perms[t];
+				minLength=minLengths[t];
+			}
+			groupPosition--;
+
+			// Decode a symbol, looking at the longest possible code first
+			int peek=peek(MAX_CODE_LENGTH);
+			int length=minLength;
+			int code=peek>>>(MAX_CODE_LENGTH-length);
+			while(code>limit[length]){
+				length++;
+				if(length>MAX_CODE_LENGTH)
+					throw new IOException("Bad Huffman code");
+				code=peek>>>(MAX_CODE_LENGTH-length);
+			}
+			bits(length);
+			int index=code-base[length];
+			if(index<0 || index>=MAX_ALPHA_SIZE)
+				throw new IOException("Bad Huffman code");
+			int symbol=perm[index];
+
+			if(symbol==RUNA || symbol==RUNB){
+				// Run of the byte at the front of the list
+				runLength+=(symbol==RUNA?1:2)*runWeight;
+				runWeight<<=1;
+				if(runLength>maxBlockSize)
+					throw new IOException("Run longer than block");
+				continue;
+			}
+			if(runLength>0){
+				int b=seqToUnseq[mtf[0]];
+				if(blockSize+runLength>maxBlockSize)
+					throw new IOException("Block too long");
+				counts[b]+=runLength;
+				for(int i=0;i<runLength;i++)
+					tt[blockSize++]=b;
+				runLength=0;
+				runWeight=1;
+			}
+			if(symbol==endOfBlock)
+				break;
+			if(symbol>endOfBlock)
+				throw new IOException("Bad symbol");
+
+			// Move to front
+			int position=symbol-1;
+			int u=mtf[position];
+			System.arraycopy(mtf, 0, mtf, 1, position);
+			mtf[0]=u;
+			int b=seqToUnseq[u];
+			if(blockSize>=maxBlockSize)
+				throw new IOException("Block too long");
+			counts[b]++;
+			tt[blockSize++]=b;
+		}
+		if(origPtr>=blockSize)
+			throw new IOException("Bad origin pointer");
+
+		// Undo the Burrows-Wheeler transform
+		int[] cumulative=new int[256];
+		for(int i=1;i<256;i++)
+			cumulative[i]=cumulative[i-1]+counts[i-1];
+		for(int i=0;i<blockSize;i++){
+			int b=tt[i]&0xff;
+			tt[cumulative[b]++]|=(i<<8);
+		}
+
+		// Undo the initial run length coding & compute the CRC
+		Block block=new Block();
+		byte[] out=new byte[blockSize+(blockSize>>2)];
+		int outLength=0;
+		int crc=0xffffffff;
+		int position=tt[origPtr]>>>8;
+		int last=-1;
+		int run=0;
+		for(int i=0;i<blockSize;i++){
+			int entry=tt[position];
+			int b=entry&0xff;
+			position=entry>>>8;
+			int repeat;
+			if(run==4){
+				// The byte after four equal bytes is the count of extra copies
+				repeat=b;
+				b=last;
+				run=0;
+			}else{
+				repeat=1;
+				if(b==last)
+					run++;
+				else{
+					run=1;
+					last=b;
+				}
+			}
+			if(outLength+repeat>out.length){
+				byte[] bigger=new byte[Math.max(out.length*2, outLength+repeat)];
+				System.arraycopy(out, 0, bigger, 0, outLength);
+				out=bigger;
+			}
+			for(int r=0;r<repeat;r++){
+				out[outLength++]=(byte)b;
+				crc=(crc<<8)^CRC_TABLE[((crc>>>24)^b)&0xff];
+			}
+		}
+		crc=~crc;
+		if(crc!=expectedCrc)
+			throw new IOException("bzip2 block CRC mismatch");
+		block.data=out;
+		block.length=outLength;
+		block.crc=crc;
+		return block;
+	}
+
+	private static void createDecodeTables(int[] limit, int[] base, int[] perm, int[] lengths, int minLength, int maxLength, int alphaSize){
+		int pp=0;
+		for(int i=minLength;i<=maxLength;i++){
+			for(int j=0;j<alphaSize;j++){
+				if(lengths[j]==i)
+					perm[pp++]=j;
+			}
+		}
+		for(int i=0;i<alphaSize;i++)
+			base[lengths[i]+1]++;
+		for(int i=1;i<base.length;i++)
+			base[i]+=base[i-1];
+		int vec=0;
+		for(int i=minLength;i<=maxLength;i++){
+			vec+=(base[i+1]-base[i]);
+			limit[i]=vec-1;
+			vec<<=1;
+		}
+		for(int i=maxLength+1;i<limit.length;i++)
+			limit[i]=Integer.MAX_VALUE;
+		for(int i=minLength+1;i<=maxLength;i++)
+			base[i]=((limit[i-1]+1)<<1)-base[i];
+	}
+
+	/**
+	 * Look at the next n bits without using them. Past the end of the data the bits are zero.
+	 */
+	private int peek(int n){
+		while(bitCount<n){
+			bitBuffer=(bitBuffer<<8)|(bytePosition<limit?in[bytePosition]&0xff:0);
+			bytePosition++;
+			bitCount+=8;
+		}
+		return (int)((bitBuffer>>>(bitCount-n))&((1L<<n)-1));
+	}
+
+	/**
+	 * Use the next n bits (at most 32)
+	 */
+	private int bits(int n) throws IOException{
+		int value=peek(n);
+		bitCount-=n;
+		if(bytePosition>limit && ((long)bytePosition<<3)-bitCount>((long)limit<<3))
+			throw new IOException("Unexpected end of bzip2 data");
+		return value;
+	}
+
+	private long bitsLong(int n) throws IOException{
+		long high=bits(n-24)&0xffffffffL;
+		return (high<<24)|bits(24);
+	}
+
+	/**
+	 * Update the combined stream CRC with the CRC of the block
+	 */
+	static int combineCrc(int combined, int blockCrc){
+		return ((combined<<1)|(combined>>>31))^blockCrc;
+	}
+}
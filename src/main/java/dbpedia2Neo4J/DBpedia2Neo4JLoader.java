@@ -2,16 +2,16 @@ package dbpedia2Neo4J;
 import static org.neo4j.driver.v1.Values.parameters;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
-import java.io.StringReader;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-import org.apache.jena.datatypes.DatatypeFormatException;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.Triple;
-import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.sparql.core.Quad;
 import org.neo4j.driver.v1.AuthTokens;
@@ -30,12 +30,51 @@ import org.slf4j.LoggerFactory;
  *  NOTE: Currently only tested on Oct 2016 files for infobox_properties_en.ttl
  * @author rparundekar
  */
-public class DBpedia2Neo4JLoader implements StreamRDF{
+public class DBpedia2Neo4JLoader implements StreamRDF, TripleCache.Handler{
 	// SLF4J Logger bound to Log4J 
 	private static final Logger logger=LoggerFactory.getLogger(DBpedia2Neo4JLoader.class);
 	
 	// Driver object created once for the connection
 	private final Driver driver;
+	// The shared dictionary with the cleaned URIs
+	private UriDictionary dictionary;
+
+	// The Neo4J node ids of the recently written nodes, so that they don't need to be MERGEd again
+	private NodeIdCache nodeIds=new NodeIdCache(DEFAULT_NODE_ID_CACHE_SIZE);
+	private static final int DEFAULT_NODE_ID_CACHE_SIZE=1<<20;
+
+	// Batched writes: the rows for each relationship type & property, written together
+	private int batchSize=1;
+	private WriteBatch batch=new WriteBatch(nodeIds);
+	// The properties of the current subject, written together when the subject changes
+	private String currentSubject;
+	private Map<String,Object> currentProperties=new LinkedHashMap<>();
+	// Many writers, each with a partition of the subjects
+	private int workers=1;
+	private Neo4JWriterPool pool;
+	// Asynchronous writes of the batches, with many transactions in flight
+	private AsyncBoltClient async;
+	// The phases of the load: truncate, constraint, load & indexes
+	private final LoadPlanner planner;
+
+	// Checkpoints, saved after a commit at the start of a subject (the batches are committed between subjects),
+	// at most once for a number of commits or a time, since each save syncs a file
+	private LoadCheckpoint checkpoint;
+	private int checkpointCommits=DEFAULT_CHECKPOINT_COMMITS;
+	private long checkpointInterval=DEFAULT_CHECKPOINT_INTERVAL;
+	private int commitsSinceCheckpoint=0;
+	private long lastCheckpointTime=0;
+	private static final int DEFAULT_CHECKPOINT_COMMITS=1000;
+	private static final long DEFAULT_CHECKPOINT_INTERVAL=10000;
+	private NTriplesReader reader;
+	private String lastSubject;
+	// The index of the next triple, when reading the triple cache
+	private long tripleIndex=0;
+	private long batchNumber=0;
+	// The batches up to this number may have been committed by the load that is resumed, so their relationships are MERGEd
+	private long replayUntil=0;
+	// The rows that failed to be written & were skipped, when the load isn't checkpointed
+	private long failedCount=0;
 	
 	/**
 	 * Create a new connection object to Neo4J, to the existing database
@@ -44,83 +83,204 @@ public class DBpedia2Neo4JLoader implements StreamRDF{
 	 * @param deleteAll Should all existing nodes and edges be deleted?
 	 */
 	public DBpedia2Neo4JLoader(String neo4jUsername, String neo4jPassword, boolean deleteAll){
-		logger.info("Connecting to Neo4J, erasing if needed & creating index...");
+		logger.info("Connecting to Neo4J, erasing if needed & creating the constraint...");
 		// Connect to Neo4J
 		driver = GraphDatabase.driver( "bolt://localhost:7687", AuthTokens.basic( neo4jUsername, neo4jPassword) );
+		planner = new LoadPlanner(driver);
 		// Delete existing nodes and edges if that's what's needed
 		if(deleteAll)
-			deleteAll();
-		//Create the default index
-		createIndex();
+			planner.truncate();
+		//Create the uniqueness constraint on the identifier, which MERGE uses
+		planner.createConstraint();
 
 		logger.info("...Done");
 	}
 
 	/**
-	 * Load the RDF data from the DBPedia turtle (.ttl) file 
+	 * Load the RDF data from the DBPedia turtle (.ttl) file, without checkpoints.
+	 * The rows that fail to be written are logged & skipped.
 	 * @param turtleFile The DBPedia turtle file e.g. instance_types.en 
 	 */
 	public void load(File turtleFile){
+		planner.run("load " + turtleFile.getName(), () -> loadFile(turtleFile, false, false));
+	}
+
+	/**
+	 * Load the RDF data from the DBPedia turtle (.ttl) file, checkpointing after the commits (see setCheckpointInterval).
+	 * A write that fails stops the load, so that the checkpoint doesn't pass it.
+	 * With many writers, the relationships between their partitions are only created at the end, so no checkpoints are saved.
+	 * @param turtleFile The DBPedia turtle file e.g. instance_types.en 
+	 * @param resume Continue from the checkpoint of an earlier load that was interrupted, instead of from the start
+	 */
+	public void load(File turtleFile, boolean resume){
+		planner.run("load " + turtleFile.getName(), () -> loadFile(turtleFile, true, resume));
+	}
+
+	private void loadFile(File turtleFile, boolean checkpointed, boolean resume){
 		try{
 			// Since the turtle file might contain errors (e.g. in the properties 
-			// there is a value 'Infinity', with datatype xsd:double), we need to read each line
-			// and then call the RDFDataMgr on that.
-			// It sucks, since it's slow. But hey 'Infinity' cant be parsed as a double. 
-			LineNumberReader lnr=new LineNumberReader(new FileReader(turtleFile));
-			String line=null;
-			while((line=lnr.readLine())!=null){
-				// Print progress
-				if(lnr.getLineNumber()%1000==0){
-					logger.info("{} lines parsed.", lnr.getLineNumber());
-				}
-				// Parse the line read using the stream API. Make sure we catch parsing errors. 
-				try{
-					RDFDataMgr.parse(this, new StringReader(line), Lang.TURTLE);
-				}catch(DatatypeFormatException de){
-					logger.error("Illegal data format in line : " +line);
+			// there is a value 'Infinity', with datatype xsd:double), the reader 
+			// skips & reports the bad lines instead of stopping.
+			// If the file was converted into a triple cache, that is read instead.
+			dictionary=UriDictionary.forDataFile(turtleFile);
+			TripleCache cache=TripleCache.find(turtleFile);
+			long position=0;
+			LoadCheckpoint previous=resume?LoadCheckpoint.find(turtleFile):null;
+			if(previous!=null){
+				if(previous.isFromCache()!=(cache!=null)){
+					logger.error("The checkpoint of {} is for the {}, so the load can't be resumed", turtleFile.getName(), previous.isFromCache()?"triple cache":"text file");
+					return;
 				}
+				position=previous.getPosition();
+				batchNumber=previous.getBatch();
+				replayUntil=previous.getReplayUntil();
+				logger.info("Resuming the load of {} after batch {}, at {}", turtleFile.getName(), batchNumber, position);
+			}else{
+				replayUntil=0;
+				if(resume)
+					logger.info("No checkpoint for {}, so loading from the start", turtleFile.getName());
 			}
-			// Close IO
-			lnr.close();
+			batch=newBatch();
+			// With many writers, nothing is checkpointed
+			checkpoint=checkpointed && workers<=1?new LoadCheckpoint(turtleFile, cache!=null):null;
+			if(async!=null)
+				async.setSkipFailedWrites(checkpoint==null);
+			failedCount=0;
+			long asyncFailed=async==null?0:async.getFailedCount();
+			commitsSinceCheckpoint=0;
+			lastCheckpointTime=System.currentTimeMillis();
+			lastSubject=null;
+			if(cache!=null){
+				tripleIndex=position;
+				cache.read(this, position);
+			}else{
+				reader=new NTriplesReader(this);
+				reader.setProgress(1000, lines -> logger.info("{} lines parsed.", lines));
+				reader.read(turtleFile, position);
+				reader=null;
+			}
+			// Write the last batch
+			flush();
+			if(async!=null)
+				failedCount+=async.getFailedCount()-asyncFailed;
+			// The load is done
+			if(checkpoint!=null)
+				checkpoint.delete();
+			if(failedCount>0)
+				logger.error("{} rows of {} failed to be written & were skipped", failedCount, turtleFile.getName());
+			if(nodeIds!=null)
+				logger.info("Node id cache: {}", nodeIds);
+			dictionary.save();
 		}catch(IOException e){
 			// Something went wrong with the files.
 			logger.error("Cannot load the data from the file due to file issue:" + e.getMessage());
+		}finally{
+			// A load that stopped keeps its checkpoint file, to resume it
+			checkpoint=null;
+			// The dictionary is only kept in memory during the load
+			if(dictionary!=null){
+				dictionary.release();
+				dictionary=null;
+			}
 		}
 	}
 	
 	/**
-	 * Close the driver to avoid memory leaks.
+	 * Write the triples in batches. Each batch is written in one transaction, with one UNWIND statement
+	 * for each relationship type & one for the properties, instead of a transaction for each triple.
+	 * @param batchSize The number of triples in a batch. 1 writes each triple straight away.
 	 */
-	public void close(){	
-		driver.close();
+	public void setBatchSize(int batchSize){
+		this.batchSize=batchSize;
 	}
-	
+
 	/**
-	 * Private function that cleans out the database. 
-	 * Strong warning to safely use and pass right flag in the constructor.
+	 * Set how often the checkpoint is saved: once for a number of commits, or once the time passed since the last save, whichever is first.
+	 * A resumed load writes again what was committed after the last checkpoint, MERGEing the relationships so that they aren't duplicated.
+	 * @param commits The number of commits. 1 saves after each commit.
+	 * @param interval The time, in ms
 	 */
-	private void deleteAll(){
-		Session session = driver.session();
-		session.run( "MATCH (n) DETACH DELETE n");
-		session.close();
+	public void setCheckpointInterval(int commits, long interval){
+		this.checkpointCommits=commits;
+		this.checkpointInterval=interval;
 	}
-	
+
+	/**
+	 * Set the number of node ids cached. The cached nodes are matched by their Neo4J id, instead of MERGEing them.
+	 * @param size The number of node ids. 0 turns the cache off.
+	 */
+	public void setNodeIdCacheSize(int size){
+		nodeIds=size>0?new NodeIdCache(size):null;
+		batch=newBatch();
+	}
+
+	/**
+	 * Write the batches asynchronously, with many transactions in flight, instead of waiting for each commit.
+	 * The uniqueness constraint on :Thing(id) stops the transactions in flight at the same time from creating the same node twice,
+	 * & deadlocks are retried. Without the constraint, the batches are written synchronously.
+	 * @param window The number of transactions in flight. 0 writes each batch synchronously.
+	 */
+	public void setAsyncWindow(int window){
+		if(window>0 && !planner.hasConstraint()){
+			logger.error("Without the uniqueness constraint on :Thing(id), transactions in flight could create the same node twice, so the batches are written synchronously");
+			window=0;
+		}
+		if(async!=null)
+			async.close();
+		async=window>0?new AsyncBoltClient(driver, window):null;
+		if(async!=null)
+			async.setCommitListener(this::saveCheckpoint);
+	}
+
+	/**
+	 * Write the batches with many writers. The triples are partitioned by subject, so that the writers don't deadlock, 
+	 * & the relationships between the partitions are created at the end of the load.
+	 * Without the uniqueness constraint on :Thing(id), there is only one writer.
+	 * @param workers The number of writers. 1 writes the batches on the loading thread.
+	 */
+	public void setWorkers(int workers){
+		if(workers>1 && !planner.hasConstraint()){
+			logger.error("Without the uniqueness constraint on :Thing(id), writers could create the same node twice, so the batches are written by one writer");
+			workers=1;
+		}
+		this.workers=workers;
+	}
+
 	/**
-	 * Create default index on the identifier 
+	 * Add a secondary index on a property of the nodes, created by finish() after the load
+	 * @param property The property
 	 */
-	private void createIndex(){
-		Session session = driver.session();
-		session.run( "CREATE INDEX ON :Thing(id)");
-		session.close();
+	public void addIndex(String property){
+		planner.addIndex(property);
 	}
 
+	/**
+	 * After all the files are loaded, create the secondary indexes & warm up the page cache
+	 */
+	public void finishLoad(){
+		planner.finish();
+	}
+
+	/**
+	 * Close the driver to avoid memory leaks.
+	 */
+	public void close(){	
+		if(async!=null)
+			async.close();
+		driver.close();
+	}
+	
 	/**
 	 * Get stuff running.
-	 * @param args Have the username, password, if DB should be cleared AND list of files to load here
+	 * @param args Have the username, password, if DB should be cleared AND list of files to load here. --resume continues an interrupted load.
 	 */
 	public static void main(String[] args){
 		DBpedia2Neo4JLoader loadFile = new DBpedia2Neo4JLoader("neo4j", "icd", false);
-		loadFile.load(new File("/Users/rparundekar/dataspace/dbpedia2016/infobox_properties_en.ttl"));
+		loadFile.setBatchSize(10000);
+		loadFile.setAsyncWindow(8);
+		// With --resume, an interrupted load continues from its checkpoint
+		loadFile.load(new File("/Users/rparundekar/dataspace/dbpedia2016/infobox_properties_en.ttl"), Arrays.asList(args).contains("--resume"));
+		loadFile.finishLoad();
 		loadFile.close();
 	}
 
@@ -153,97 +313,345 @@ public class DBpedia2Neo4JLoader implements StreamRDF{
 	@Override
 	public void triple(Triple triple) {
 		// Handle the triple
-		
-		// Get and clean the subject URI (There are no blank nodes in DBpedia)
-		String subject = triple.getMatchSubject().getURI();
-		subject=DBpediaHelper.stripClean(subject);
+		triple(dictionary.term(triple.getMatchSubject()), dictionary.term(triple.getMatchPredicate()), dictionary.term(triple.getMatchObject()));
+	}
+
+	@Override
+	public void triple(TripleCache.Term s, TripleCache.Term p, TripleCache.Term term) {
+		// The position of this triple, for the checkpoints
+		long position=reader!=null?reader.getLineOffset():tripleIndex;
+		tripleIndex++;
+
+		// Get the cleaned subject URI (There are no blank nodes in DBpedia)
+		String subject = s.getCleaned();
+		if(!subject.equals(lastSubject)){
+			// Everything before this triple can be written & checkpointed
+			writeProperties();
+			commit(position);
+			lastSubject=subject;
+		}
 
-		// Get and clean the predicate URI (There are no blank nodes in DBpedia)
-		String predicate = triple.getMatchPredicate().getURI();
-		predicate = DBpediaHelper.stripClean(predicate);
+		// Get the cleaned predicate URI (There are no blank nodes in DBpedia)
+		String predicate = p.getCleaned();
 
 		// Get the object. It can be a URI or a literal (There are no blank nodes in the DBpedia)
-		Node object = triple.getMatchObject();
+		Node object = term.getNode();
 		Object o=null;
 		if(object.isURI()){
-			// Get and clean the object URI (There are no blank nodes in DBpedia)
-			o=object.getURI();
-			o=DBpediaHelper.stripClean((String)o);
+			// Get the cleaned object URI (There are no blank nodes in DBpedia)
+			o=term.getCleaned();
+			//The predicate is the relationship
+			writeRelationship(subject, predicate, o.toString());
+		}else{
+			// The DBpedia files are grouped by subject, so the properties are collected until the subject changes
+			if(!subject.equals(currentSubject))
+				writeProperties();
+			currentSubject=subject;
+			Map.Entry<String, Object> property=property(predicate, object);
+			o=property.getValue();
+			addValue(currentProperties, property.getKey(), o);
+		}
+		//If you really want to read stuff.
+		logger.debug(subject + " : "+ predicate+ " : " + o);
+	}
+
+	/**
+	 * Get the property & value for a literal, as they are stored in Neo4J. 
+	 * Also used by the CSV export, so that both give the same graph.
+	 * @param predicate The cleaned predicate
+	 * @param object The literal
+	 * @return The property name & the value (a String or a Double)
+	 */
+	static Map.Entry<String, Object> property(String predicate, Node object){
+		// The property is the predicate
+		String property = predicate;
+		Object o=object.getLiteralValue();
+		if(o instanceof String){
+			// Just trim if it's a string
+			o=o.toString().trim();
+		}
+		else if(o instanceof Number){
+			// There may be some numbers passed as BigInteger which Neo4J cannot handle. 
+			// So better to make all numbers double?
+			return new AbstractMap.SimpleImmutableEntry<>(property, ((Number)o).doubleValue());
+		}
+		else if(object.getLiteralDatatypeURI().equals("http://www.w3.org/2001/XMLSchema#date")){
+			// Handle date object
+			String date=object.getLiteralLexicalForm();
+			o=date; //Neo4J can't handle dates
+		}else if(object.getLiteralDatatypeURI()!=null && object.getLiteralDatatypeURI().startsWith("http://dbpedia.org/datatype/")){
+			// If there's a datatype, then clean it up. It's appended to the property below & the value is kept as the text of the number.
+			// This takes care of multiple values for the same property.
+			double v=Double.parseDouble(object.getLiteralLexicalForm());
+			o=v + "__" + DBpediaHelper.stripClean(object.getLiteralDatatypeURI());
 		}
 		else{
-			o=object.getLiteralValue();
-			if(o instanceof String){
-				// Just trim if it's a string
-				o=o.toString().trim();
+			// Else, just make it a string. 
+			o=object.toString();
+		}
+
+		// If the value had a datatype, append it to the property. Strings with a '__' are split the same way.
+		if(o.toString().contains("__")){
+			String split[] = o.toString().split("__");
+			o=split[0];
+			if(split.length>1)
+				property+=  "__" + DBpediaHelper.stripClean(split[1]);
+		}
+		return new AbstractMap.SimpleImmutableEntry<>(property, o);
+	}
+
+	/**
+	 * Add the value of a property. A property with many values gets a list of the values, instead of the last value.
+	 * @param properties The properties
+	 * @param property The property name
+	 * @param value The value
+	 */
+	@SuppressWarnings("unchecked")
+	static void addValue(Map<String,Object> properties, String property, Object value){
+		Object existing=properties.get(property);
+		if(existing==null){
+			properties.put(property, value);
+		}else if(existing instanceof List){
+			((List<Object>)existing).add(value);
+		}else{
+			List<Object> values=new ArrayList<>(2);
+			values.add(existing);
+			values.add(value);
+			properties.put(property, values);
+		}
+	}
+
+	/**
+	 * Make the lists of values into Neo4J arrays, which have one type: 
+	 * doubles if all the values are numbers, otherwise strings.
+	 * @param properties The properties, which are changed
+	 * @return The properties
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String,Object> toArrays(Map<String,Object> properties){
+		for(Map.Entry<String,Object> property:properties.entrySet()){
+			if(!(property.getValue() instanceof List))
+				continue;
+			List<Object> values=(List<Object>)property.getValue();
+			boolean doubles=true;
+			for(Object value:values)
+				doubles&=value instanceof Double;
+			if(!doubles){
+				for(int i=0;i<values.size();i++)
+					values.set(i, values.get(i).toString());
 			}
-			else if(o instanceof Number){
-				// There may be some numbers passed as BigInteger which Neo4J cannot handle. 
-				// So better to make all numbers double?
-				o=((Number)o).doubleValue();
+		}
+		return properties;
+	}
+
+	/**
+	 * Write the relationship, straight away or in the next batch
+	 * @param subject The cleaned subject
+	 * @param relationship The relationship type
+	 * @param object The cleaned object
+	 */
+	private void writeRelationship(String subject, String relationship, String object){
+		if(workers>1){
+			pool().addRelationship(relationship, subject, object);
+			return;
+		}
+		if(batchSize<=1){
+			writeTriple(subject, relationship, object);
+			return;
+		}
+		batch.addRelationship(relationship, subject, object);
+	}
+
+	/**
+	 * Write the properties of the current subject with one SET +=, straight away or in the next batch
+	 */
+	private void writeProperties(){
+		if(currentProperties.isEmpty())
+			return;
+		String subject=currentSubject;
+		Map<String,Object> properties=toArrays(currentProperties);
+		currentSubject=null;
+		currentProperties=new LinkedHashMap<>();
+		if(workers>1){
+			pool().addProperties(subject, properties);
+			return;
+		}
+		if(batchSize<=1){
+			writeNode(subject, properties);
+			return;
+		}
+		batch.addProperties(subject, properties);
+	}
+
+	/**
+	 * Write the batch if it is full & save the checkpoint. Only called between subjects, 
+	 * so that all the triples before the position are committed. Without batches, each subject is a batch.
+	 * @param position The position of the first triple that isn't written
+	 */
+	private void commit(long position){
+		if(workers>1 || lastSubject==null)
+			return;
+		// Without a checkpoint, the commits aren't saved
+		if(checkpoint==null)
+			position=-1;
+		if(batchSize>1){
+			if(batch.size()<batchSize)
+				return;
+			if(async!=null){
+				// The checkpoint is saved once the batch & all the batches before it are committed
+				async.write(batch, position);
+				batch=newBatch();
+				return;
 			}
-			else if(object.getLiteralDatatypeURI().equals("http://www.w3.org/2001/XMLSchema#date")){
-				// Handle date object
-				String date=object.getLiteralLexicalForm();
-				o=date; //Neo4J can't handle dates
-			}else if(object.getLiteralDatatypeURI()!=null && object.getLiteralDatatypeURI().startsWith("http://dbpedia.org/datatype/")){
-				// If there's a datatype, then clean it up.
-				String v=object.getLiteralLexicalForm();
-				o=Double.parseDouble(v);
-				o=o + "__" + DBpediaHelper.stripClean(object.getLiteralDatatypeURI());
+			writeBatch();
+		}
+		saveCheckpoint(position);
+	}
+
+	/**
+	 * Save the checkpoint after a commit, if enough commits or time passed since the last save
+	 * @param position The position of the first triple that isn't committed, or -1 for none
+	 */
+	private void saveCheckpoint(long position){
+		if(position<0 || checkpoint==null)
+			return;
+		batchNumber++;
+		long now=System.currentTimeMillis();
+		if(++commitsSinceCheckpoint<checkpointCommits && now-lastCheckpointTime<checkpointInterval)
+			return;
+		commitsSinceCheckpoint=0;
+		lastCheckpointTime=now;
+		try{
+			// Until the next save, the commits in flight & the commits before the save may be committed
+			long window=checkpointCommits+(async==null?0:async.getWindow())+1;
+			checkpoint.save(position, batchNumber, batchNumber+window);
+		}catch(IOException e){
+			logger.error("Cannot save the checkpoint due to file issue:" + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return A new batch, which MERGEs the relationships if it may have been committed before the load was resumed
+	 */
+	private WriteBatch newBatch(){
+		return new WriteBatch(nodeIds, batchNumber<replayUntil);
+	}
+
+	private Neo4JWriterPool pool(){
+		if(pool==null)
+			pool=new Neo4JWriterPool(driver, workers, batchSize, nodeIds);
+		return pool;
+	}
+
+	/**
+	 * Write a single relationship in its own transaction
+	 */
+	private void writeTriple(String subject, String relationship, String object){
+		try(Session session=driver.session()){
+			long subjectId;
+			long objectId;
+			try (Transaction tx = session.beginTransaction())
+			{
+				//Use MERGE to create/get the nodes for the subject & object in the graph, unless they are known
+				subjectId=nodeId(tx, subject);
+				objectId=nodeId(tx, object);
+				
+				//Create the link, or MERGE it if it may have been committed before the load was resumed
+				tx.run("MATCH (s),(o) WHERE id(s) = {s} AND id(o) = {o} " + (batchNumber<replayUntil?"MERGE":"CREATE") + " (s)-[r:" + relationship + "]->(o)", parameters("s", subjectId, "o", objectId));
+				//WooHoo!
+				tx.success();  
+			}catch (ClientException e) {
+				// Not written, so the checkpoint must not pass it. Without one, the triple is skipped.
+				logger.error("Error in inserting into database: {}",  e.getMessage());
+				if(checkpoint!=null)
+					throw e;
+				failedCount++;
+				return;
 			}
-			else{
-				// Else, just make it a string. 
-				o=object.toString();
+			// The nodes are committed, so they can be cached
+			if(nodeIds!=null){
+				nodeIds.put(subject, subjectId);
+				nodeIds.put(object, objectId);
 			}
 		}
+	}
 
+	/**
+	 * Write the properties of a node in its own transaction
+	 */
+	private void writeNode(String subject, Map<String,Object> properties){
 		try(Session session=driver.session()){
+			long subjectId;
 			try (Transaction tx = session.beginTransaction())
 			{
-				//Use MERGE to create/get the node for the subject in the graph
-				StatementResult result = tx.run(
-						"MERGE (s:Thing {id:{s}}) RETURN s",
-						parameters("s", subject));
-				Record record = result.next();
-				org.neo4j.driver.v1.types.Node subjectNode=record.get("s").asNode();
-
-				//If object is a URI, we need to create a relation
-				if(object.isURI()){
-					//The predicate is the relationship
-					String relationship = predicate;
-					
-					//Use MERGE to create/get the node for the object in the graph
-					result = tx.run(
-							"MERGE (o:Thing {id:{o}}) RETURN o",
-							parameters("o", o));
-					record = result.next();
-					org.neo4j.driver.v1.types.Node objectNode=record.get("o").asNode();
-					
-					//Create the link
-					tx.run("MATCH (s:Thing),(o:Thing) WHERE id(s) = {s} AND id(o) = {o} CREATE (s)-[r:" + relationship + "]->(o)", parameters("s", subjectNode.id(), "o", objectNode.id()));
-				}else{
-					// The property is the predicate
-					String property = predicate;
-					
-					// If the value had a datatype, append it to the property. This takes care of multiple values for the same property.
-					if(o.toString().contains("__")){
-						String split[] = o.toString().split("__");
-						o=split[0];
-						if(split.length>1)
-							property+=  "__" + split[1].replaceAll("[^A-Za-z0-9]", "_");
-					}
-					// Set the property 
-					tx.run("MATCH (s:Thing) WHERE id(s) = {s} SET s."+property+" = {o}", parameters("s", subjectNode.id(), "o", o));
-				}
-				//WooHoo!
+				subjectId=nodeId(tx, subject);
+				// Set the properties 
+				tx.run("MATCH (s) WHERE id(s) = {s} SET s += {props}", parameters("s", subjectId, "props", properties));
 				tx.success();  
 			}catch (ClientException e) {
+				// Not written, so the checkpoint must not pass it. Without one, the properties are skipped.
 				logger.error("Error in inserting into database: {}",  e.getMessage());
+				if(checkpoint!=null)
+					throw e;
+				failedCount+=properties.size();
+				return;
 			}
+			if(nodeIds!=null)
+				nodeIds.put(subject, subjectId);
 		}
-		//If you really want to read stuff.
-		logger.debug(subject + " : "+ predicate+ " : " + o);
 	}
 
-	
+	/**
+	 * Get the Neo4J id of the node from the cache, or MERGE the node
+	 */
+	private long nodeId(Transaction tx, String id){
+		long nodeId=nodeIds==null?NodeIdCache.MISSING:nodeIds.get(id);
+		if(nodeId!=NodeIdCache.MISSING)
+			return nodeId;
+		StatementResult result = tx.run(
+				"MERGE (n:Thing {id:{id}}) RETURN id(n) AS nodeId",
+				parameters("id", id));
+		Record record = result.next();
+		return record.get("nodeId").asLong();
+	}
+
+	/**
+	 * Write everything that's buffered: the properties of the last subject & the last batch.
+	 * With many writers, this waits for them to finish & creates the relationships between their partitions.
+	 */
+	public void flush(){
+		writeProperties();
+		if(pool!=null){
+			pool.close();
+			failedCount+=pool.getFailedCount();
+			pool=null;
+		}
+		writeBatch();
+		if(async!=null)
+			async.await();
+	}
+
+	/**
+	 * Write the batch, with one UNWIND statement for each relationship type & for the properties, in one transaction.
+	 */
+	private void writeBatch(){
+		if(batch.size()==0)
+			return;
+		if(async!=null){
+			async.write(batch, -1);
+			batch=newBatch();
+			return;
+		}
+		long start=System.currentTimeMillis();
+		try(Session session=driver.session()){
+			batch.write(session);
+		}catch(ClientException e){
+			// The other statements are written. Without a checkpoint, the rows of the wrong statements are skipped.
+			if(checkpoint!=null)
+				throw e;
+			failedCount+=batch.failedCount();
+		}
+		logger.info("Wrote {} triples with {} statements in {} ms", batch.size(), batch.statementCount(), System.currentTimeMillis()-start);
+		batch=newBatch();
+	}
 }
@@ -1,23 +1,16 @@
 package dbpedia2Neo4J;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.io.PrintWriter;
-import java.io.StringReader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
-import org.apache.jena.datatypes.DatatypeFormatException;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.Triple;
-import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
-import org.apache.jena.riot.RiotException;
 import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.sparql.core.Quad;
 import org.neo4j.driver.v1.AuthTokens;
@@ -34,7 +27,7 @@ import com.opencsv.CSVWriter;
  * Target vector generation from the DBpedia-Categories
  * @author rparundekar
  */
-public class DBpediaCategories2TargetVectors implements StreamRDF{
+public class DBpediaCategories2TargetVectors implements StreamRDF, TripleCache.Handler{
 	// SLF4J Logger bound to Log4J 
 	private static final Logger logger=LoggerFactory.getLogger(DBpediaTypes2TargetVectors.class);
 
@@ -42,6 +35,9 @@ public class DBpediaCategories2TargetVectors implements StreamRDF{
 	private int targetVectorCount = 0;
 	private final Map<String, Integer> targetVectorPosition;
 	private Map<String, Set<String>> types;
+	private Set<String> instances;
+	// The shared dictionary with the cleaned URIs
+	private UriDictionary dictionary;
 	private int notFoundCount=0;
 	private final Map<String, Integer> instanceCount;
 	private int skipCount=0;
@@ -51,6 +47,17 @@ public class DBpediaCategories2TargetVectors implements StreamRDF{
 		instanceCount=new HashMap<>();
 	}
 
+	/**
+	 * Constructor for an empty partial, used by the parallel load.
+	 * @param parent The generator with the instances for the inner join
+	 */
+	private DBpediaCategories2TargetVectors(DBpediaCategories2TargetVectors parent){
+		this();
+		instances=parent.instances;
+		dictionary=parent.dictionary;
+		types=new HashMap<>();
+	}
+
 	/**
 	 * Load the RDF data from the DBPedia turtle (.ttl) file, 
 	 * by taking an inner join on the Semantic Graph file.
@@ -58,39 +65,57 @@ public class DBpediaCategories2TargetVectors implements StreamRDF{
 	 * @param turtleFile The DBPedia turtle file e.g. instance_types.en.ttl 
 	 */
 	public void load(File semanticGraphFile, File turtleFile){
+		load(semanticGraphFile, turtleFile, 1);
+	}
+
+	/**
+	 * Load the RDF data from the DBPedia turtle (.ttl) file, 
+	 * by taking an inner join on the Semantic Graph file, using many threads for parsing.
+	 * @param semanticGraphFile The file for the Semantic Graph e.g. infobox_properties.en.ttl 
+	 * @param turtleFile The DBPedia turtle file e.g. instance_types.en.ttl 
+	 * @param parallelism The number of threads
+	 */
+	public void load(File semanticGraphFile, File turtleFile, int parallelism){
 		logger.info("Loading instance sets from the semantic graph file for inner join");
 		InMemoryInstanceMapLoader inMemoryInstanceSetLoader=new InMemoryInstanceMapLoader();
-		inMemoryInstanceSetLoader.load(semanticGraphFile);
+		inMemoryInstanceSetLoader.load(semanticGraphFile, parallelism);
 		types=inMemoryInstanceSetLoader.getInstances();
+		instances=types.keySet();
 		logger.info("...Done");
 
 		try{
 			// Step 1: Find the different types by iterating once through the instances
 			// Since the turtle file might contain errors (e.g. in the properties 
-			// there is a value 'Infinity', with datatype xsd:double), we need to read each line
-			// and then call the RDFDataMgr on that.
-			// It sucks, since it's slow. But hey 'Infinity' cant be parsed as a double. 
-			LineNumberReader lnr=new LineNumberReader(new FileReader(turtleFile));
-			String line=null;
-			long start=System.currentTimeMillis();
-			while((line=lnr.readLine())!=null){
-				// Print progress
-				if(lnr.getLineNumber()%1000==0){
-					logger.info("{} lines parsed in {} ms. {} lines with no instances. {} lines skipped with wikicat", lnr.getLineNumber(), (System.currentTimeMillis()-start), notFoundCount, skipCount);
-					start=System.currentTimeMillis();
-				}
-				// Parse the line read using the stream API. Make sure we catch parsing errors. 
-				try{
-					RDFDataMgr.parse(this, new StringReader(line), Lang.TURTLE);
-				}catch(DatatypeFormatException|RiotException de){
-					logger.error("Illegal data format in line : " +line);
-				}
+			// there is a value 'Infinity', with datatype xsd:double), the reader 
+			// skips & reports the bad lines instead of stopping.
+			dictionary=UriDictionary.forDataFile(turtleFile);
+			TripleCache cache=TripleCache.find(turtleFile);
+			if(cache!=null){
+				// The triple cache is read without parsing, so it doesn't need the threads
+				cache.read(this);
+			}else if(parallelism>1){
+				// Each range of the file collects partial types & these are merged in the order of the file, so the columns are numbered as in the serial load
+				for(DBpediaCategories2TargetVectors part:new ParallelNTriplesReader<>(() -> new DBpediaCategories2TargetVectors(this), parallelism).read(turtleFile))
+					merge(part);
+			}else{
+				NTriplesReader reader=new NTriplesReader(this);
+				final long[] start={System.currentTimeMillis()};
+				reader.setProgress(1000, lines -> {
+					logger.info("{} lines parsed in {} ms. {} lines with no instances. {} lines skipped with wikicat", lines, (System.currentTimeMillis()-start[0]), notFoundCount, skipCount);
+					start[0]=System.currentTimeMillis();
+				});
+				reader.read(turtleFile);
 			}
-			// Close IO
-			lnr.close();
+			dictionary.save();
 		}catch(IOException e){
 			// Something went wrong with the files.
 			logger.error("Cannot load the data from the file due to file issue:" + e.getMessage());
+		}finally{
+			// The dictionary is only kept in memory during the load
+			if(dictionary!=null){
+				dictionary.release();
+				dictionary=null;
+			}
 		}
 		
 		//We add additional step to only consider types with a support of atleast 200 instances since
@@ -158,7 +183,7 @@ public class DBpediaCategories2TargetVectors implements StreamRDF{
 	 */
 	public static void main(String[] args){
 		DBpediaCategories2TargetVectors loadFile = new DBpediaCategories2TargetVectors();
-		loadFile.load(new File("/Users/rparundekar/dataspace/dbpedia2016/infobox_properties_en.ttl"), new File("/Users/rparundekar/dataspace/dbpedia2016/article_categories_en.ttl"));
+		loadFile.load(new File("/Users/rparundekar/dataspace/dbpedia2016/infobox_properties_en.ttl"), new File("/Users/rparundekar/dataspace/dbpedia2016/article_categories_en.ttl"), Runtime.getRuntime().availableProcessors());
 	}
 
 	@Override
@@ -189,10 +214,24 @@ public class DBpediaCategories2TargetVectors implements StreamRDF{
 
 	@Override
 	public void triple(Triple triple) {
+		// Triples that are skipped are dropped before their URIs are added to the dictionary
+		Node object=triple.getMatchObject();
+		if(object.isURI() && object.getURI().toLowerCase().contains("wikicat")){
+			skipCount++;
+			return;
+		}
+		if(!instances.contains(dictionary.cleaned(triple.getMatchSubject()))){
+			notFoundCount++;
+			return;
+		}
 		// Handle the triple
-		Node object = triple.getMatchObject();
+		triple(dictionary.term(triple.getMatchSubject()), dictionary.term(triple.getMatchPredicate()), dictionary.term(object));
+	}
+
+	@Override
+	public void triple(TripleCache.Term s, TripleCache.Term p, TripleCache.Term object) {
 		if(object.isURI()){
-			// Get and clean the object URI (There are no blank nodes in DBpedia)
+			// Get the object URI (There are no blank nodes in DBpedia)
 			String o=object.getURI();
 			if(o.toLowerCase().contains("wikicat")){
 				skipCount++;
@@ -200,15 +239,13 @@ public class DBpediaCategories2TargetVectors implements StreamRDF{
 			}
 		}
 
-		// Get and clean the subject URI (There are no blank nodes in DBpedia)
-		String subject = triple.getMatchSubject().getURI();
-		subject=DBpediaHelper.stripClean(subject);
-		if(types.containsKey(subject)){
+		// Get the cleaned subject URI (There are no blank nodes in DBpedia)
+		String subject = s.getCleaned();
+		if(instances.contains(subject)){
 			// Get the object. It can be a URI or a literal (There are no blank nodes in the DBpedia)
 			if(object.isURI()){
-				// Get and clean the object URI (There are no blank nodes in DBpedia)
-				String o=object.getURI();
-				o=DBpediaHelper.stripClean(o);
+				// Get the cleaned object URI (There are no blank nodes in DBpedia)
+				String o=object.getCleaned();
 				Integer c = instanceCount.get(o);
 				if(c==null)
 					instanceCount.put(o, 1);
@@ -227,6 +264,26 @@ public class DBpediaCategories2TargetVectors implements StreamRDF{
 
 	}
 
+	/**
+	 * Merge the types & counts collected by a partial from the parallel load
+	 * @param part The partial
+	 */
+	private void merge(DBpediaCategories2TargetVectors part){
+		for(String subject:part.types.keySet()){
+			for(String type:part.types.get(subject))
+				putTypes(subject, type);
+		}
+		for(String type:part.instanceCount.keySet()){
+			Integer c = instanceCount.get(type);
+			if(c==null)
+				instanceCount.put(type, part.instanceCount.get(type));
+			else
+				instanceCount.put(type, c+part.instanceCount.get(type));
+		}
+		notFoundCount+=part.notFoundCount;
+		skipCount+=part.skipCount;
+	}
+
 	/**
 	 * Function to keep track of the types for an instance
 	 * @param individual The individual for which we want to track the type
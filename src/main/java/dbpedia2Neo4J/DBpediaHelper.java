@@ -1,25 +1,46 @@
 package dbpedia2Neo4J;
 
 public class DBpediaHelper {
+	// The DBpedia URI prefixes that are stripped, in the order they are checked
+	static final String[] PREFIXES={
+			"http://dbpedia.org/ontology/",
+			"http://dbpedia.org/resource/Category:",
+			"http://dbpedia.org/resource/",
+			"http://dbpedia.org/property/",
+			"http://dbpedia.org/datatype/",
+			"http://dbpedia.org/class/yago/"
+	};
+
 	/**
 	 * Strips the DBpedia URI prefixes & replaces non alphanumeric characters to avoid property errors 
 	 * @param uri The URI to strip & clean
 	 * @return The last part of the URI if in DBpedia.
 	 */
 	static String stripClean(String uri) {
-		if(uri.startsWith("http://dbpedia.org/ontology/"))
-			uri=uri.substring("http://dbpedia.org/ontology/".length());
-		if(uri.startsWith("http://dbpedia.org/resource/Category:"))
-			uri=uri.substring("http://dbpedia.org/resource/Category:".length());
-		if(uri.startsWith("http://dbpedia.org/resource/"))
-			uri=uri.substring("http://dbpedia.org/resource/".length());
-		if(uri.startsWith("http://dbpedia.org/property/"))
-			uri=uri.substring("http://dbpedia.org/property/".length());
-		if(uri.startsWith("http://dbpedia.org/datatype/"))
-			uri=uri.substring("http://dbpedia.org/datatype/".length());
-		if(uri.startsWith("http://dbpedia.org/class/yago/"))
-			uri=uri.substring("http://dbpedia.org/class/yago/".length());
+		int start=0;
+		for(String prefix:PREFIXES){
+			if(uri.startsWith(prefix, start))
+				start+=prefix.length();
+		}
+		// Replace each non alphanumeric character (code point) with '_', without a regex.
 		// Note: This may cause some loss of information, but will prevent errors.
-		return uri.replaceAll("[^A-Za-z0-9]", "_");
+		int length=uri.length();
+		int i=start;
+		while(i<length && isAlphanumeric(uri.charAt(i)))
+			i++;
+		if(i==length)
+			return start==0?uri:uri.substring(start);
+		StringBuilder cleaned=new StringBuilder(length-start);
+		cleaned.append(uri, start, i);
+		while(i<length){
+			int c=uri.codePointAt(i);
+			cleaned.append(isAlphanumeric(c)?(char)c:'_');
+			i+=Character.charCount(c);
+		}
+		return cleaned.toString();
+	}
+
+	private static boolean isAlphanumeric(int c){
+		return (c>='A' && c<='Z') || (c>='a' && c<='z') || (c>='0' && c<='9');
 	}
 }
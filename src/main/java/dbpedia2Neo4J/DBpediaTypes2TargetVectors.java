@@ -2,27 +2,22 @@ package dbpedia2Neo4J;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.LineNumberReader;
-import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.jena.datatypes.DatatypeFormatException;
-import org.apache.jena.graph.Node;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.ontology.OntClass;
 import org.apache.jena.ontology.OntModel;
 import org.apache.jena.ontology.OntModelSpec;
 import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
-import org.apache.jena.riot.RiotException;
 import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.vocabulary.RDF;
@@ -37,17 +32,21 @@ import com.opencsv.CSVWriter;
  * NOTE: Currently only tested on Oct 2016 files for instance_types_en.ttl
  * @author rparundekar
  */
-public class DBpediaTypes2TargetVectors implements StreamRDF{
+public class DBpediaTypes2TargetVectors implements StreamRDF, TripleCache.Handler{
 	// SLF4J Logger bound to Log4J 
 	private static final Logger logger=LoggerFactory.getLogger(DBpediaTypes2TargetVectors.class);
 
 	//The ontology
 	private final OntModel ontModel;
+	private final Map<String, List<String>> superClasses;
 	
 	//Data for the target vectors
 	private int targetVectorCount = 0;
 	private final Map<String, Integer> targetVectorPosition;
 	private Map<String, Set<String>> types;
+	private Set<String> instances;
+	// The shared dictionary with the cleaned URIs
+	private UriDictionary dictionary;
 	private int notFoundCount=0;
 	
 	/**
@@ -66,11 +65,26 @@ public class DBpediaTypes2TargetVectors implements StreamRDF{
 
 		// Create the reasoning model using the base
 		ontModel = ModelFactory.createOntologyModel( OntModelSpec.OWL_MEM_MICRO_RULE_INF, base );
+		superClasses=new ConcurrentHashMap<>();
 		targetVectorPosition=new HashMap<>();
 		
 		logger.info("...Done");
 	}
 
+	/**
+	 * Constructor for an empty partial, used by the parallel load.
+	 * The partial shares the ontology & the instances for the inner join with the parent.
+	 * @param parent The generator with the ontology
+	 */
+	private DBpediaTypes2TargetVectors(DBpediaTypes2TargetVectors parent){
+		ontModel=parent.ontModel;
+		superClasses=parent.superClasses;
+		targetVectorPosition=new HashMap<>();
+		instances=parent.instances;
+		dictionary=parent.dictionary;
+		types=new HashMap<>();
+	}
+
 	/**
 	 * Load the RDF data from the DBPedia turtle (.ttl) file, 
 	 * by taking an inner join on the Semantic Graph file.
@@ -78,38 +92,57 @@ public class DBpediaTypes2TargetVectors implements StreamRDF{
 	 * @param turtleFile The DBPedia turtle file e.g. instance_types.en.ttl 
 	 */
 	public void load(File semanticGraphFile, File turtleFile){
+		load(semanticGraphFile, turtleFile, 1);
+	}
+
+	/**
+	 * Load the RDF data from the DBPedia turtle (.ttl) file, 
+	 * by taking an inner join on the Semantic Graph file, using many threads for parsing.
+	 * @param semanticGraphFile The file for the Semantic Graph e.g. infobox_properties.en.ttl 
+	 * @param turtleFile The DBPedia turtle file e.g. instance_types.en.ttl 
+	 * @param parallelism The number of threads
+	 */
+	public void load(File semanticGraphFile, File turtleFile, int parallelism){
 		logger.info("Loading instance sets from the semantic graph file for inner join");
 		InMemoryInstanceMapLoader inMemoryInstanceSetLoader=new InMemoryInstanceMapLoader();
-		inMemoryInstanceSetLoader.load(semanticGraphFile);
+		inMemoryInstanceSetLoader.load(semanticGraphFile, parallelism);
 		types=inMemoryInstanceSetLoader.getInstances();
+		instances=types.keySet();
 		logger.info("...Done");
 		
 		try{
 			// Step 1: Find the different types by iterating once through the instances
 			// Since the turtle file might contain errors (e.g. in the properties 
-			// there is a value 'Infinity', with datatype xsd:double), we need to read each line
-			// and then call the RDFDataMgr on that.
-			// It sucks, since it's slow. But hey 'Infinity' cant be parsed as a double. 
-			LineNumberReader lnr=new LineNumberReader(new FileReader(turtleFile));
-			String line=null;
-			long start=System.currentTimeMillis();
-			while((line=lnr.readLine())!=null){
-				// Print progress
-				if(lnr.getLineNumber()%1000==0){
-					logger.info("{} lines parsed in {} ms. {} types present. {} lines with no instances", lnr.getLineNumber(), (System.currentTimeMillis()-start), targetVectorCount, notFoundCount);
-					start=System.currentTimeMillis();
-				}
-				// Parse the line read using the stream API. Make sure we catch parsing errors. 
-				try{
-					RDFDataMgr.parse(this, new StringReader(line), Lang.TURTLE);
-				}catch(DatatypeFormatException|RiotException de){
-					logger.error("Illegal data format in line : " +line);
-				}
+			// there is a value 'Infinity', with datatype xsd:double), the reader 
+			// skips & reports the bad lines instead of stopping.
+			dictionary=UriDictionary.forDataFile(turtleFile);
+			TripleCache cache=TripleCache.find(turtleFile);
+			if(cache!=null){
+				// The triple cache is read without parsing, so it doesn't need the threads
+				cache.read(this);
+			}else if(parallelism>1){
+				// Each range of the file collects partial types & these are merged in the order of the file, so the columns are numbered as in the serial load
+				for(DBpediaTypes2TargetVectors part:new ParallelNTriplesReader<>(() -> new DBpediaTypes2TargetVectors(this), parallelism).read(turtleFile))
+					merge(part);
+			}else{
+				NTriplesReader reader=new NTriplesReader(this);
+				final long[] start={System.currentTimeMillis()};
+				reader.setProgress(1000, lines -> {
+					logger.info("{} lines parsed in {} ms. {} types present. {} lines with no instances", lines, (System.currentTimeMillis()-start[0]), targetVectorCount, notFoundCount);
+					start[0]=System.currentTimeMillis();
+				});
+				reader.read(turtleFile);
 			}
-			lnr.close();
+			dictionary.save();
 		}catch(IOException e){
 			// Something went wrong with the files.
 			logger.error("Cannot load the data from the file due to file issue:" + e.getMessage());
+		}finally{
+			// The dictionary is only kept in memory during the load
+			if(dictionary!=null){
+				dictionary.release();
+				dictionary=null;
+			}
 		}
 		try{	
 			// Step 2: Create the csv with the target vector types;
@@ -152,7 +185,7 @@ public class DBpediaTypes2TargetVectors implements StreamRDF{
 	 */
 	public static void main(String[] args){
 		DBpediaTypes2TargetVectors loadFile = new DBpediaTypes2TargetVectors(new File("/Users/rparundekar/dataspace/dbpedia2016/dbpedia_2016-04.owl"));
-		loadFile.load(new File("/Users/rparundekar/dataspace/dbpedia2016/infobox_properties_en.ttl"), new File("/Users/rparundekar/dataspace/dbpedia2016/instance_types_en.ttl"));
+		loadFile.load(new File("/Users/rparundekar/dataspace/dbpedia2016/infobox_properties_en.ttl"), new File("/Users/rparundekar/dataspace/dbpedia2016/instance_types_en.ttl"), Runtime.getRuntime().availableProcessors());
 	}
 
 	@Override
@@ -183,40 +216,40 @@ public class DBpediaTypes2TargetVectors implements StreamRDF{
 
 	@Override
 	public void triple(Triple triple) {
+		// Triples of other instances are dropped before their URIs are added to the dictionary
+		if(!instances.contains(dictionary.cleaned(triple.getMatchSubject()))){
+			notFoundCount++;
+			return;
+		}
 		// Handle the triple
+		triple(dictionary.term(triple.getMatchSubject()), dictionary.term(triple.getMatchPredicate()), dictionary.term(triple.getMatchObject()));
+	}
 
-		// Get and clean the subject URI (There are no blank nodes in DBpedia)
-		String subject = triple.getMatchSubject().getURI();
-		subject=DBpediaHelper.stripClean(subject);
+	@Override
+	public void triple(TripleCache.Term s, TripleCache.Term p, TripleCache.Term object) {
+		// Get the cleaned subject URI (There are no blank nodes in DBpedia)
+		String subject = s.getCleaned();
 
 
-		// Get and clean the predicate URI (There are no blank nodes in DBpedia)
-		String predicate = triple.getMatchPredicate().getURI();
+		// Get the predicate URI (There are no blank nodes in DBpedia)
+		String predicate = p.getURI();
 		if(!predicate.equals(RDF.type.getURI())){
 			logger.error("Property is not rdf:type");
 		}
 
-		if(types.containsKey(subject)){
+		if(instances.contains(subject)){
 			// Get the object. It can be a URI or a literal (There are no blank nodes in the DBpedia)
-			Node object = triple.getMatchObject();
 			if(object.isURI()){
-				// Get and clean the object URI (There are no blank nodes in DBpedia)
+				// Get the object URI & the cleaned object URI (There are no blank nodes in DBpedia)
 				String t=object.getURI();
 				if(t.equals("http://www.w3.org/2002/07/owl#Thing")||t.equals("http://www.w3.org/2000/01/rdf-schema#Resource")){
 					return;
 				}
-				String o=DBpediaHelper.stripClean(t);
+				String o=object.getCleaned();
 				makeTarget(o);
 				putTypes(subject,o);
 
-				OntClass ontClass=ontModel.getOntClass(t);
-				for (Iterator<OntClass> i = ontClass.listSuperClasses(true); i.hasNext(); ) {
-					OntClass c = i.next();
-					String type=c.getURI();
-					if(type.equals("http://www.w3.org/2002/07/owl#Thing")||type.equals("http://www.w3.org/2000/01/rdf-schema#Resource")){
-						continue;
-					}
-					type=DBpediaHelper.stripClean(type);
+				for(String type:getSuperClasses(t)){
 					makeTarget(type);
 					putTypes(subject,type);
 				}
@@ -230,6 +263,51 @@ public class DBpediaTypes2TargetVectors implements StreamRDF{
 		}
 	}
 
+	/**
+	 * Get the cleaned direct super classes of the class from the ontology.
+	 * These are cached, since the same few hundred classes appear on every line.
+	 * @param t The URI of the class
+	 * @return The cleaned super classes
+	 */
+	private List<String> getSuperClasses(String t){
+		List<String> supers=superClasses.get(t);
+		if(supers==null){
+			supers=new ArrayList<>();
+			// The reasoner isn't thread safe, so the partials take turns
+			synchronized(ontModel){
+				OntClass ontClass=ontModel.getOntClass(t);
+				for (Iterator<OntClass> i = ontClass.listSuperClasses(true); i.hasNext(); ) {
+					OntClass c = i.next();
+					String type=c.getURI();
+					if(type.equals("http://www.w3.org/2002/07/owl#Thing")||type.equals("http://www.w3.org/2000/01/rdf-schema#Resource")){
+						continue;
+					}
+					supers.add(DBpediaHelper.stripClean(type));
+				}
+			}
+			superClasses.put(t, supers);
+		}
+		return supers;
+	}
+
+	/**
+	 * Merge the types collected by a partial from the parallel load
+	 * @param part The partial
+	 */
+	private void merge(DBpediaTypes2TargetVectors part){
+		// Keep the order in which the partial found the targets
+		String[] partTargets=new String[part.targetVectorCount];
+		for(String type:part.targetVectorPosition.keySet())
+			partTargets[part.targetVectorPosition.get(type)]=type;
+		for(String type:partTargets)
+			makeTarget(type);
+		for(String subject:part.types.keySet()){
+			for(String type:part.types.get(subject))
+				putTypes(subject, type);
+		}
+		notFoundCount+=part.notFoundCount;
+	}
+
 	/**
 	 * Function to keep track of the types for an instance
 	 * @param individual The individual for which we want to track the type
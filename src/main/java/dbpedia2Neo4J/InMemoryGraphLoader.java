@@ -6,21 +6,22 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.PrintWriter;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.apache.jena.datatypes.DatatypeFormatException;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.Triple;
-import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.sparql.core.Quad;
 import org.slf4j.Logger;
@@ -29,6 +30,10 @@ import org.slf4j.LoggerFactory;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 
+import randomWalks.CsrGraph;
+import randomWalks.CsrGraphBuilder;
+import randomWalks.ParallelWalkGenerator;
+import randomWalks.RandomWalkGenerator;
 import randomWalks.StepType;
 
 /**
@@ -37,7 +42,7 @@ import randomWalks.StepType;
  * This is implemented using the Apache Jena Stream RDF
  * @author rparundekar
  */
-public class InMemoryGraphLoader implements StreamRDF{
+public class InMemoryGraphLoader {
 	// SLF4J Logger bound to Log4J 
 	private static final Logger logger=LoggerFactory.getLogger(InMemoryGraphLoader.class);
 
@@ -45,16 +50,23 @@ public class InMemoryGraphLoader implements StreamRDF{
 	private File targetVectorsFile;
 	private Set<String> instancesInTargetVectorsFile;
 
-	// The data structures used to hold the graph
-	private Map<String,List<String>> attributes;
-	private Map<String,Map<String,Set<String>>> relationships;
-	private Map<String,Map<String,Set<String>>> incomingRelationships;
+	// The graph in memory (built from the triples once they are loaded) & the random walks over it
+	private final CsrGraph graph;
+	private final RandomWalkGenerator walkGenerator;
+
+	// The threads walking from the instances at the same time, & the seed of their random numbers
+	private int walkParallelism=1;
+	private long walkSeed=DEFAULT_WALK_SEED;
 
 	// Data for output
 	private File folder;
 	private PrintWriter statsFile;
 	
 	private static final int TEST_LINES = 3100;
+	// The triples each file buffers before adding them to the builder
+	private static final int BUFFER_SIZE = 4096;
+	// The seed of the random walks, unless another is set
+	static final long DEFAULT_WALK_SEED = 42;
 	
 	/**
 	 * Constructor for initializing and loading the graph.
@@ -63,137 +75,406 @@ public class InMemoryGraphLoader implements StreamRDF{
 	 * @throws IOException Thrown if there's a problem accessing files.
 	 */
 	public InMemoryGraphLoader(File semanticGraphFile, File targetVectorsFile) throws IOException{
-		this.targetVectorsFile=targetVectorsFile;
-		attributes=new HashMap<>();
-		relationships=new HashMap<>();
-		incomingRelationships=new HashMap<>();
-		folder=semanticGraphFile.getParentFile();
-		statsFile=new PrintWriter(new File(folder,targetVectorsFile.getName() + "_stats.txt"));
+		this(semanticGraphFile, targetVectorsFile, 1);
+	}
 
-		//Load the instances in target vector file for inner join
-		instancesInTargetVectorsFile=getInstancesInTargetVectorsFile(targetVectorsFile);
-		//Load the semantic graph
-		load(semanticGraphFile);
+	/**
+	 * Constructor for initializing and loading the graph using many threads.
+	 * @param semanticGraphFile The file for the Semantic Graph 
+	 * @param targetVectorsFile The target vectors file
+	 * @param parallelism The number of threads used for parsing the Semantic Graph
+	 * @throws IOException Thrown if there's a problem accessing files.
+	 */
+	public InMemoryGraphLoader(File semanticGraphFile, File targetVectorsFile, int parallelism) throws IOException{
+		this(semanticGraphFile, targetVectorsFile, parallelism, new CsrGraphBuilder());
 	}
 
 	/**
-	 * Load the RDF data from the DBPedia Semantic Graph turtle (.ttl) file 
-	 * @param turtleFile The DBPedia turtle file e.g. infobox_properties.en.ttl 
+	 * Constructor for initializing and loading the graph using many threads, into a builder that can keep the graph off the heap.
+	 * @param semanticGraphFile The file for the Semantic Graph 
+	 * @param targetVectorsFile The target vectors file
+	 * @param parallelism The number of threads used for parsing the Semantic Graph
+	 * @param builder The builder of the graph, e.g. with setOffHeap
+	 * @throws IOException Thrown if there's a problem accessing files.
 	 */
-	private void load(File turtleFile){
-		try{
-			// Read each line and use the RDFDataMgr to parse
-			LineNumberReader lnr=new LineNumberReader(new FileReader(turtleFile));
-			String line=null;
-			while((line=lnr.readLine())!=null){
-				// Print progress
-				if(lnr.getLineNumber()%10000==0){
-					logger.info("{} lines parsed.", lnr.getLineNumber());
-				}
-				// Parse the line read using the stream API. Make sure we catch parsing errors. 
-				try{
-					RDFDataMgr.parse(this, new StringReader(line), Lang.TURTLE);
-				}catch(DatatypeFormatException de){
-					logger.error("Illegal data format in line : " +line);
+	public InMemoryGraphLoader(File semanticGraphFile, File targetVectorsFile, int parallelism, CsrGraphBuilder builder) throws IOException{
+		this(Collections.singletonList(semanticGraphFile), targetVectorsFile, parallelism, builder);
+	}
+
+	/**
+	 * Constructor for initializing and loading the union of many files of the Semantic Graph, e.g. the infobox properties
+	 * & the mapping based objects & literals. The files are read at the same time into the builder (in each pass, with two passes),
+	 * which removes the repeats.
+	 * @param semanticGraphFiles The files for the Semantic Graph, in the same folder
+	 * @param targetVectorsFile The target vectors file
+	 * @param parallelism The number of threads used for parsing the Semantic Graph, shared by the files
+	 * @param builder The builder of the graph, e.g. with setOffHeap
+	 * @throws IOException Thrown if there's a problem accessing files.
+	 */
+	public InMemoryGraphLoader(List<File> semanticGraphFiles, File targetVectorsFile, int parallelism, CsrGraphBuilder builder) throws IOException{
+		this.targetVectorsFile=targetVectorsFile;
+		folder=semanticGraphFiles.get(0).getParentFile();
+		statsFile=new PrintWriter(new File(folder,targetVectorsFile.getName() + "_stats.txt"));
+
+		//Open the snapshot of the inner-joined graph, if the files haven't changed since it was saved
+		List<File> inputs=new ArrayList<>(semanticGraphFiles);
+		inputs.add(targetVectorsFile);
+		File snapshotFile=getSnapshotFile(semanticGraphFiles, targetVectorsFile);
+		CsrGraph snapshot=CsrGraph.open(snapshotFile, inputs.toArray(new File[inputs.size()]));
+		if(snapshot==null){
+			//Load the instances in target vector file for inner join
+			instancesInTargetVectorsFile=getInstancesInTargetVectorsFile(targetVectorsFile);
+			// The joined instances are most of the nodes, so the ids of the nodes don't need rehashing
+			builder.setExpectedNodes(instancesInTargetVectorsFile.size());
+			//Load the semantic graph files straight into the builder
+			List<Source> sources=new ArrayList<>();
+			try{
+				for(File semanticGraphFile:semanticGraphFiles)
+					sources.add(new Source(semanticGraphFile, builder));
+				readAll(sources, parallelism);
+				if(builder.isTwoPass()){
+					// The first pass counted the rows of each node, the second fills them
+					builder.startSecondPass();
+					readAll(sources, parallelism);
 				}
+				for(Source source:sources)
+					source.dictionary.save();
+			}finally{
+				// The dictionary is only kept in memory during the load
+				for(Source source:sources)
+					source.dictionary.release();
+			}
+			snapshot=builder.build();
+			logger.info("Graph of {} nodes & {} relationships built, in {} MB of rows.", snapshot.getNodeCount(), snapshot.getRelationshipCount(), snapshot.getRelationshipBytes()>>20);
+			report(sources, snapshot);
+			// The graph only has the joined instances, so the instances aren't needed any more
+			instancesInTargetVectorsFile=null;
+			try{
+				snapshot.save(snapshotFile, inputs.toArray(new File[inputs.size()]));
+			}catch(IOException e){
+				// Something went wrong with the files.
+				logger.error("Cannot save the snapshot of the graph due to file issue:" + e.getMessage());
 			}
-			// Close IO
-			lnr.close();
-		}catch(IOException e){
-			// Something went wrong with the files.
-			logger.error("Cannot load the data from the file due to file issue:" + e.getMessage());
 		}
+		graph=snapshot;
+		walkGenerator=new RandomWalkGenerator(graph);
 	}
 
-	@Override
-	public void base(String base) {
-		// Do Nothing
-		// That's the base. DBpedia doesn't use this it seems.
+	/**
+	 * Set the number of threads walking from the instances at the same time, when creating the dataset
+	 * @param walkParallelism The number of threads
+	 */
+	public void setWalkParallelism(int walkParallelism){
+		this.walkParallelism=walkParallelism;
 	}
 
-	@Override
-	public void finish() {
-		// Do Nothing
+	/**
+	 * Set the seed of the random walks. The walks are the same for the same seed, with any number of threads.
+	 * @param walkSeed The seed
+	 */
+	public void setWalkSeed(long walkSeed){
+		this.walkSeed=walkSeed;
 	}
 
-	@Override
-	public void prefix(String prefix, String iri) {
-		// Do Nothing
+	/**
+	 * @param semanticGraphFile The file for the Semantic Graph 
+	 * @param targetVectorsFile The target vectors file
+	 * @return The snapshot file of the graph, inner-joined with the target vectors file
+	 */
+	public static File getSnapshotFile(File semanticGraphFile, File targetVectorsFile){
+		return getSnapshotFile(Collections.singletonList(semanticGraphFile), targetVectorsFile);
 	}
 
-	@Override
-	public void quad(Quad arg0) {
-		// Do Nothing
+	/**
+	 * @param semanticGraphFiles The files for the Semantic Graph 
+	 * @param targetVectorsFile The target vectors file
+	 * @return The snapshot file of the union of the graphs, inner-joined with the target vectors file
+	 */
+	public static File getSnapshotFile(List<File> semanticGraphFiles, File targetVectorsFile){
+		StringBuilder name=new StringBuilder();
+		for(File semanticGraphFile:semanticGraphFiles){
+			if(name.length()>0)
+				name.append('+');
+			name.append(semanticGraphFile.getName());
+		}
+		return new File(semanticGraphFiles.get(0).getParentFile(), name + "_" + targetVectorsFile.getName() + ".graph");
 	}
 
-	@Override
-	public void start() {
-		// Do Nothing
+	/**
+	 * Read the files at the same time, each with its share of the parsing threads
+	 * @param sources The files
+	 * @param parallelism The number of threads used for parsing, shared by the files
+	 * @throws IOException Thrown if a file can't be read
+	 */
+	private static void readAll(List<Source> sources, int parallelism) throws IOException{
+		if(sources.size()==1){
+			sources.get(0).read(parallelism);
+			return;
+		}
+		int share=Math.max(1, parallelism/sources.size());
+		ExecutorService threads=Executors.newFixedThreadPool(sources.size(), runnable -> {
+			Thread thread=new Thread(runnable, "load-graph");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try{
+			List<Future<?>> reads=new ArrayList<>();
+			for(Source source:sources)
+				reads.add(threads.submit(() -> {
+					source.read(share);
+					return null;
+				}));
+			for(Future<?> read:reads)
+				read.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading the files of the graph");
+		}catch(ExecutionException e){
+			throw new IOException("Cannot read the files of the graph: " + e.getCause().getMessage(), e.getCause());
+		}finally{
+			threads.shutdownNow();
+		}
 	}
 
-	@Override
-	public void triple(Triple triple) {
-		// Handle the triple
+	/**
+	 * Report what each file added to the graph, & the repeats removed from the union
+	 * @param sources The files
+	 * @param graph The graph
+	 */
+	private void report(List<Source> sources, CsrGraph graph){
+		long attributes=0;
+		long relationships=0;
+		for(Source source:sources){
+			String line=source.file.getName() + ": " + source.attributeCount + " attributes & " + source.relationshipCount + " relationships in the inner join, "
+					+ source.skippedCount + " triples outside it, read in " + source.elapsed + " ms";
+			statsFile.println(line);
+			logger.info(line);
+			attributes+=source.attributeCount;
+			relationships+=source.relationshipCount;
+		}
+		long distinctAttributes=0;
+		for(int node=0;node<graph.getNodeCount();node++)
+			distinctAttributes+=graph.getAttributeCount(node);
+		String line="Union: " + distinctAttributes + " distinct attributes of " + attributes + " & " + graph.getRelationshipCount()
+				+ " distinct relationships of " + relationships;
+		statsFile.println(line);
+		logger.info(line);
+		statsFile.flush();
+	}
 
-		// Get and clean the subject URI (There are no blank nodes in DBpedia)
-		String subject = triple.getMatchSubject().getURI();
-		// Clean the URI 
-		subject=DBpediaHelper.stripClean(subject);
-		// Ensure inner join
-		if(!instancesInTargetVectorsFile.contains(subject)){
-			return;
+	/**
+	 * A file of the Semantic Graph, whose triples in the inner join are added to the builder, & what it added.
+	 * The files are read at the same time, so they take turns adding to the builder, a buffer of triples at a time.
+	 */
+	private class Source implements StreamRDF, TripleCache.Handler{
+		private final File file;
+		private final CsrGraphBuilder builder;
+		// The dictionary of the folder of the file, shared with the other files in it
+		private final UriDictionary dictionary;
+
+		// The triples in the inner join that aren't added to the builder yet (the object is null for an attribute).
+		// The triples of a file are handled on one thread at a time, so the buffer is only locked when it is added.
+		private final String[] bufferedSubjects=new String[BUFFER_SIZE];
+		private final String[] bufferedPredicates=new String[BUFFER_SIZE];
+		private final String[] bufferedObjects=new String[BUFFER_SIZE];
+		private int buffered=0;
+
+		// What the file added, in the last read
+		private long attributeCount;
+		private long relationshipCount;
+		private long skippedCount;
+		private long elapsed;
+
+		private Source(File file, CsrGraphBuilder builder) throws IOException{
+			this.file=file;
+			this.builder=builder;
+			dictionary=UriDictionary.forDataFile(file);
 		}
-		// Get and clean the predicate URI (There are no blank nodes in DBpedia)
-		String predicate = triple.getMatchPredicate().getURI();
-		predicate = DBpediaHelper.stripClean(predicate);
-
-		// Get the object. It can be a URI or a literal (There are no blank nodes in the DBpedia)
-		Node object = triple.getMatchObject();
-		Object o=null;
-		if(object.isURI()){
-			// Get and clean the object URI (There are no blank nodes in DBpedia)
-			o=object.getURI();
-			String obj =DBpediaHelper.stripClean((String)o);
-			// Ensure inner join also on the object URIs
-			if(!instancesInTargetVectorsFile.contains(obj)){
-				return;
+
+		/**
+		 * Read the triples of the DBPedia Semantic Graph turtle (.ttl) file into the builder, from the triple cache if there is one
+		 * @param parallelism The number of threads used for parsing
+		 * @throws IOException Thrown if the file can't be read, so the graph would only have part of it
+		 */
+		private void read(int parallelism) throws IOException{
+			attributeCount=0;
+			relationshipCount=0;
+			skippedCount=0;
+			long start=System.currentTimeMillis();
+			if(!loadCache()){
+				if(parallelism>1)
+					loadParallel(parallelism);
+				else
+					load();
+			}
+			addBuffered();
+			elapsed=System.currentTimeMillis()-start;
+		}
+
+		/**
+		 * Add a triple to the buffer, adding the buffer to the builder when it is full
+		 * @param object The object, or null for an attribute
+		 */
+		private void buffer(String subject, String predicate, String object){
+			bufferedSubjects[buffered]=subject;
+			bufferedPredicates[buffered]=predicate;
+			bufferedObjects[buffered]=object;
+			if(++buffered==BUFFER_SIZE)
+				addBuffered();
+		}
+
+		/**
+		 * Add the buffered triples to the builder, holding its lock once for all of them
+		 */
+		private void addBuffered(){
+			synchronized(builder){
+				for(int i=0;i<buffered;i++){
+					if(bufferedObjects[i]==null)
+						builder.addAttribute(bufferedSubjects[i], bufferedPredicates[i]);
+					else
+						builder.addRelationship(bufferedSubjects[i], bufferedPredicates[i], bufferedObjects[i]);
+				}
 			}
+			Arrays.fill(bufferedSubjects, 0, buffered, null);
+			Arrays.fill(bufferedPredicates, 0, buffered, null);
+			Arrays.fill(bufferedObjects, 0, buffered, null);
+			buffered=0;
+		}
 
-			// Add to the relationships data structure
-			Map<String, Set<String>> itsRelationships = relationships.get(subject);
-			if(itsRelationships==null){
-				itsRelationships=new HashMap<>();
-				relationships.put(subject, itsRelationships);
+		/**
+		 * Load the graph from the triple cache of the DBPedia Semantic Graph turtle (.ttl) file
+		 * @return False if there is no up to date & whole cache, so nothing was added & the file is parsed instead
+		 * @throws IOException Thrown if the cache can't be read after some triples were added
+		 */
+		private boolean loadCache() throws IOException{
+			TripleCache cache;
+			try{
+				// A truncated cache isn't found
+				cache=TripleCache.find(file);
+			}catch(IOException e){
+				// Something went wrong with the files.
+				logger.error("Cannot load the data from the file due to file issue:" + e.getMessage());
+				return false;
 			}
-			Set<String> others=itsRelationships.get(predicate);
-			if(others==null)
-			{
-				others=new HashSet<>();
-				itsRelationships.put(predicate, others);
+			if(cache==null)
+				return false;
+			try{
+				cache.read(this);
+			}catch(IOException e){
+				// The graph has part of the triples, so it mustn't be built
+				throw new IOException("Cannot read the triple cache of " + file.getName(), e);
 			}
-			others.add(obj);
-			
-			// Add to the incoming relationships
-			Map<String,Set<String>> itsIncomingRelationships = incomingRelationships.get(obj);
-			if(itsIncomingRelationships==null){
-				itsIncomingRelationships=new HashMap<>();
-				incomingRelationships.put(obj, itsIncomingRelationships);
+			return true;
+		}
+
+		/**
+		 * Load the RDF data from the DBPedia Semantic Graph turtle (.ttl) file 
+		 * @throws IOException Thrown if there's a problem reading the file
+		 */
+		private void load() throws IOException{
+			// Stream the whole file once. Lines with errors are skipped by the reader.
+			// Lines with subjects not in the inner join are skipped before parsing.
+			NTriplesReader reader=new NTriplesReader(this);
+			reader.setSubjectFilter(new SubjectJoinFilter(instancesInTargetVectorsFile));
+			reader.read(file);
+			logger.info("{} lines skipped by the inner join before parsing.", reader.getFilteredCount());
+			skippedCount+=reader.getFilteredCount();
+		}
+
+		/**
+		 * Load the RDF data from the DBPedia Semantic Graph turtle (.ttl) file using many threads.
+		 * A reader thread, many parsing threads & this thread, which builds the graph, work as a pipeline.
+		 * @param parallelism The number of parsing threads
+		 * @throws IOException Thrown if there's a problem reading the file
+		 */
+		private void loadParallel(int parallelism) throws IOException{
+			IngestPipeline pipeline=new IngestPipeline(this, dictionary, parallelism);
+			pipeline.setSubjectFilter(() -> new SubjectJoinFilter(instancesInTargetVectorsFile));
+			pipeline.setTripleFilter(this::isJoined);
+			pipeline.read(file);
+			logger.info("{} lines skipped by the inner join before parsing.", pipeline.getFilteredCount());
+			skippedCount+=pipeline.getFilteredCount()+pipeline.getDroppedCount();
+		}
+
+		@Override
+		public void base(String base) {
+			// Do Nothing
+			// That's the base. DBpedia doesn't use this it seems.
+		}
+
+		@Override
+		public void finish() {
+			// Do Nothing
+		}
+
+		@Override
+		public void prefix(String prefix, String iri) {
+			// Do Nothing
+		}
+
+		@Override
+		public void quad(Quad arg0) {
+			// Do Nothing
+		}
+
+		@Override
+		public void start() {
+			// Do Nothing
+		}
+
+		/**
+		 * Check the inner join of a parsed triple, without adding its URIs to the dictionary
+		 * @param triple The triple
+		 * @return True if the subject & the object URI are joined instances
+		 */
+		private boolean isJoined(Triple triple){
+			if(!instancesInTargetVectorsFile.contains(dictionary.cleaned(triple.getMatchSubject())))
+				return false;
+			Node object=triple.getMatchObject();
+			return !object.isURI() || instancesInTargetVectorsFile.contains(dictionary.cleaned(object));
+		}
+
+		@Override
+		public void triple(Triple triple) {
+			// The triples outside the inner join are dropped before their URIs are added to the dictionary
+			if(!isJoined(triple)){
+				skippedCount++;
+				return;
 			}
-			others=itsIncomingRelationships.get(predicate);
-			if(others==null)
-			{
-				others=new HashSet<>();
-				itsIncomingRelationships.put(predicate, others);
+			// Handle the triple
+			triple(dictionary.term(triple.getMatchSubject()), dictionary.term(triple.getMatchPredicate()), dictionary.term(triple.getMatchObject()));
+		}
+
+		@Override
+		public void triple(TripleCache.Term s, TripleCache.Term p, TripleCache.Term object) {
+			// Get the cleaned subject URI (There are no blank nodes in DBpedia)
+			String subject = s.getCleaned();
+			// Ensure inner join
+			if(!instancesInTargetVectorsFile.contains(subject)){
+				skippedCount++;
+				return;
 			}
-			others.add(subject);
-		}else{
-			// Add the name of the attribute to the attribute data structure
-			List<String> itsAttributes = attributes.get(subject);
-			if(itsAttributes==null){
-				itsAttributes=new ArrayList<>();
-				attributes.put(subject, itsAttributes);
+			// Get the cleaned predicate URI (There are no blank nodes in DBpedia)
+			String predicate = p.getCleaned();
+
+			// Get the object. It can be a URI or a literal (There are no blank nodes in the DBpedia)
+			if(object.isURI()){
+				// Get the cleaned object URI (There are no blank nodes in DBpedia)
+				String obj = object.getCleaned();
+				// Ensure inner join also on the object URIs
+				if(!instancesInTargetVectorsFile.contains(obj)){
+					skippedCount++;
+					return;
+				}
+
+				// Add to the relationships & the incoming relationships
+				buffer(subject, predicate, obj);
+				relationshipCount++;
+			}else{
+				// Add the name of the attribute to the attributes
+				buffer(subject, predicate, null);
+				attributeCount++;
 			}
-			itsAttributes.add(predicate);
 		}
 	}
 
@@ -202,17 +483,15 @@ public class InMemoryGraphLoader implements StreamRDF{
 	 */
 	public void count(){
 		int numberOfInstances=0;
-		int totalCount=0;
-		Set<String> instances=new HashSet<>();
-		int distinctCount=0;
+		long totalCount=graph.getAttributeTripleCount();
+		long distinctCount=0;
 		
 		//Count the attributes
-		for(String subject:attributes.keySet()){
+		for(int node=0;node<graph.getNodeCount();node++){
+			if(graph.getAttributeCount(node)==0)
+				continue;
 			numberOfInstances++;
-			totalCount+=attributes.get(subject).size();
-			distinctCount+=new HashSet<>(attributes.get(subject)).size();
-			if(!instances.contains(subject))
-				instances.add(subject);
+			distinctCount+=graph.getAttributeCount(node);
 		}
 		statsFile.println("Average number of attributes: " + totalCount + "/"+ numberOfInstances +" = " + (totalCount*1.0/numberOfInstances));
 		logger.info("Average number of attributes: {}/{}={}", totalCount, numberOfInstances, (totalCount*1.0/numberOfInstances));
@@ -223,15 +502,12 @@ public class InMemoryGraphLoader implements StreamRDF{
 		numberOfInstances=0;
 		totalCount=0;
 		distinctCount=0;
-		for(String subject:relationships.keySet()){
+		for(int node=0;node<graph.getNodeCount();node++){
+			if(graph.getOutDegree(node)==0)
+				continue;
 			numberOfInstances++;
-			Map<String, Set<String>> itsRelationships = relationships.get(subject);
-			for(String rel:itsRelationships.keySet()){
-				distinctCount++;
-				totalCount+=itsRelationships.get(rel).size();
-			}
-			if(!instances.contains(subject))
-				instances.add(subject);
+			distinctCount+=graph.getOutTypeCount(node);
+			totalCount+=graph.getOutDegree(node);
 		}
 		statsFile.println("Average number of relationships: " + totalCount + "/"+ numberOfInstances +" = " + (totalCount*1.0/numberOfInstances));
 		statsFile.println("Average number of distinct relationships: " + distinctCount + "/"+ numberOfInstances +" = " + (distinctCount*1.0/numberOfInstances));
@@ -241,15 +517,12 @@ public class InMemoryGraphLoader implements StreamRDF{
 		//Count the incoming relationships
 		totalCount=0;
 		distinctCount=0;
-		for(String subject:incomingRelationships.keySet()){
+		for(int node=0;node<graph.getNodeCount();node++){
+			if(graph.getInDegree(node)==0)
+				continue;
 			numberOfInstances++;
-			Map<String, Set<String>> itsIncomingRelationships = incomingRelationships.get(subject);
-			for(String rel:itsIncomingRelationships.keySet()){
-				distinctCount++;
-				totalCount+=itsIncomingRelationships.get(rel).size();
-			}
-			if(!instances.contains(subject))
-				instances.add(subject);
+			distinctCount+=graph.getInTypeCount(node);
+			totalCount+=graph.getInDegree(node);
 		}
 		statsFile.println("Average number of incoming relationships: " + totalCount + "/"+ numberOfInstances +" = " + (totalCount*1.0/numberOfInstances));
 		statsFile.println("Average number of distinct incoming relationships: " + distinctCount + "/"+ numberOfInstances +" = " + (distinctCount*1.0/numberOfInstances));
@@ -257,12 +530,40 @@ public class InMemoryGraphLoader implements StreamRDF{
 		logger.info("Average number of distinct incoming relationships: {}/{}={}", distinctCount, numberOfInstances, (distinctCount*1.0/numberOfInstances));
 
 		//Count the total number of instances 
-		logger.info("Total number of instances: {}", instances.size());
-		statsFile.println("Total number of instances:" + instances.size());
+		logger.info("Total number of instances: {}", graph.getNodeCount());
+		statsFile.println("Total number of instances:" + graph.getNodeCount());
 		logger.info("Done");
 		statsFile.flush();
 	}
 
+	/**
+	 * Read the ids of the instances in the target vectors file, in the order of the rows
+	 * @param targetVectorsFile The target vectors file
+	 * @param test True to read only the first lines
+	 * @return The ids
+	 * @throws IOException Thrown if there's an error in reading the file
+	 */
+	static List<String> getIds(File targetVectorsFile, boolean test) throws IOException {
+		List<String> ids=new ArrayList<>();
+		CSVReader csvReader = new CSVReader(new FileReader(targetVectorsFile));
+		//Read the header
+		String[] header=csvReader.readNext();
+		if(!header[0].equals("id")){
+			logger.error("First column is not the id");
+		}else{
+			String[] row=null;
+			while((row=csvReader.readNext())!=null){
+				ids.add(row[0]);
+				if(test && csvReader.getLinesRead()>TEST_LINES){
+					break;
+				}
+			}
+		}
+		// Close IO
+		csvReader.close();
+		return ids;
+	}
+
 	/**
 	 * Loads the instances in the target vectors file for inner-join.
 	 * @param targetVectorsFile The target vectors file
@@ -298,177 +599,23 @@ public class InMemoryGraphLoader implements StreamRDF{
 	 * @return The random walks for each parameter combination
 	 */
 	public Map<String, Set<String>> getWalks(String id, List<StepType> allowedTypes, List<Integer> maxLengths, List<Integer> numbersOfWalks) {
-		Map<String, Set<String>> allWalks = new HashMap<>();
-		// Make sure the instance is in the joined instances
-		if(!instancesInTargetVectorsFile.contains(id))
-			return allWalks;
-		
-		// Cache to help with faster listing the random walks available
-		Map<String, List<String>> stepsCache = new HashMap<>();
-		Map<String, List<String>> nextNodeCache = new HashMap<>();
-		
-		// Repeat for each length and number of walks
-		for(Integer maxLength:maxLengths){
-			for(Integer numberOfWalks:numbersOfWalks){
-				Set<String> walks=new HashSet<>();
-				
-				// Code for strategy of variable length
-				// Uncomment if needed
-				//				List<Integer> lengthList = new ArrayList<>();
-				//				for(int i=1;i<=maxLength;i++)
-				//					for(int j=maxLength;j>=i;j--)
-				//						lengthList.add(i);
-				for(int eachWalk=0;eachWalk<numberOfWalks;eachWalk++){
-					// Pick length of walk using fixed length strategy
-					int lengthOfWalk = maxLength;
-					// Pick length of walk using variable length strategy
-					// int lengthOfWalk = lengthList.get((int)Math.floor(Math.random()*lengthList.size()));
-					
-					// Starting at the current node, note the steps
-					String currentNodeId=id;
-					
-					// While still at the current node, order steps lexicographically
-					Set<String> stepsAtNode = new TreeSet<>();
-					
-					// The walk feature
-					StringBuilder walk=new StringBuilder();
-					
-					// For each step
-					for(int step=0;step<lengthOfWalk;step++){
-						// Ensure that the node we are on is part of the inner join
-						if(!instancesInTargetVectorsFile.contains(currentNodeId))
-							break;
-						
-						//Available steps and next nodes
-						List<String> availableSteps = null;
-						List<String> nextNodes = null;
-						
-						// If the available steps is not in cache
-						if(!stepsCache.containsKey(currentNodeId)){
-							availableSteps = new ArrayList<String>();
-							nextNodes = new ArrayList<String>();
-							stepsCache.put(currentNodeId, availableSteps);
-							nextNodeCache.put(currentNodeId, nextNodes);
-							
-							// Add all attribute presence as available steps 
-							if(allowedTypes.contains(StepType.HAS_ATTRIBUTE)){
-								List<String> itsAttributes=attributes.get(currentNodeId);
-								if(itsAttributes!=null){
-									for(String attr:itsAttributes){
-										String s="has_" + attr+",";
-										if(!availableSteps.contains(s)){
-											availableSteps.add(s);
-											nextNodes.add(currentNodeId);
-										}
-									}
-								}
-							}
-							
-							// Add all relationship presence and outgoing relationships available steps 
-							if((allowedTypes.contains(StepType.HAS_RELATIONSHIP)||allowedTypes.contains(StepType.RELATIONSHIP_STEP))){
-								Map<String, Set<String>> itsRelationships=relationships.get(currentNodeId);
-								if(itsRelationships!=null){
-									for(String relationship:itsRelationships.keySet()){
-										if(allowedTypes.contains(StepType.HAS_RELATIONSHIP)){
-											String s="hasRel_" + relationship +",";
-											if(!availableSteps.contains(s)){
-												availableSteps.add(s);
-												nextNodes.add(currentNodeId);
-											}
-										}
-										//Only add outgoing relationships if length is > 1. 
-										//Else it is same as above
-										Set<String> others=itsRelationships.get(relationship);
-										if(others!=null){
-											if(allowedTypes.contains(StepType.RELATIONSHIP_STEP) && lengthOfWalk>1){
-												for(String other:others){
-													//Add only unique relationships
-													if(!other.equals(id) && !availableSteps.contains(relationship +"->")){
-														availableSteps.add(relationship +"->");
-														nextNodes.add(other);
-													}
-												}
-											}
-										}
-									}
-								}
-							}
-							
-							// Add all incoming relationship presence and incoming relationships available steps
-							if(allowedTypes.contains(StepType.HAS_INCOMING_RELATIONSHIP)||allowedTypes.contains(StepType.RELATIONSHIP_STEP)){
-								Map<String, Set<String>> itsIncomingRelations = incomingRelationships.get(currentNodeId);
-								if(itsIncomingRelations!=null){
-									for(String relationship:itsIncomingRelations.keySet()){
-										if(allowedTypes.contains(StepType.HAS_INCOMING_RELATIONSHIP)){
-											String s="hasInRel_" + relationship+",";
-											if(!availableSteps.contains(s)){
-												availableSteps.add(s);
-												nextNodes.add(currentNodeId);
-											}
-										}
-										//Only add outgoing relationships if length is > 1. 
-										//Else it is same as above
-										Set<String> others=itsIncomingRelations.get(relationship);
-										if(others!=null){
-											if(allowedTypes.contains(StepType.RELATIONSHIP_STEP) && lengthOfWalk>1){
-												for(String other:others){
-													//Add only unique relationships
-													if(!other.equals(id) && !availableSteps.contains(relationship +"<-")){
-														availableSteps.add(relationship +"<-");
-														nextNodes.add(other);
-													}
-												}
-											}
-										}
-									}
-								}
-							}
-						}else{
-							// Get the steps available from the cache
-							availableSteps=stepsCache.get(currentNodeId);
-							nextNodes=nextNodeCache.get(currentNodeId);
-						}
-						
-						if(availableSteps.isEmpty()){
-							//Stay on same node if no available steps
-							continue;
-						}
-						
-						// Pick one step randomly
-						int index=(int) Math.floor(Math.random()*availableSteps.size());
-						String s=availableSteps.get(index);
-						String nextNodeId = nextNodes.get(index);
-						
-						if(currentNodeId.equals(nextNodeId)){
-							//If we are on same node add to lexicographic order of steps
-							stepsAtNode.add(s);
-						}else{
-							//Else pop the lexicographic order of steps and append to the walk
-							for(String st:stepsAtNode)
-								walk.append(st);
-							stepsAtNode.clear();
-							walk.append(s);
-						}
-						currentNodeId=nextNodeId;
-					}
-					// Pop any remaining lexicographic order of steps and append to the walk
-					for(String st:stepsAtNode)
-						walk.append(st);
-					stepsAtNode.clear();
-
-					// Cleanup
-					String w = walk.toString().trim();
-					if(w.endsWith(","))
-						w=w.substring(0, w.length()-1);
-
-					if(!walks.contains(w) && !w.isEmpty())
-						walks.add(w);
-				}
-				// Add to the walks
-				allWalks.put(maxLength+ "x" + numberOfWalks, walks);
-			}
-		}
-		return allWalks;
+		return getWalks(id, allowedTypes, maxLengths, numbersOfWalks, new SplittableRandom());
+	}
+
+	/**
+	 * Get the random walks, with the random numbers from the generator given
+	 * @param id The instance id to start on
+	 * @param allowedTypes The allowed type of steps
+	 * @param maxLengths The max lengths to be extracted
+	 * @param numbersOfWalks The number of walks
+	 * @param random The random number generator, e.g. one seeded for the instance
+	 * @return The random walks for each parameter combination
+	 */
+	public Map<String, Set<String>> getWalks(String id, List<StepType> allowedTypes, List<Integer> maxLengths, List<Integer> numbersOfWalks, SplittableRandom random) {
+		// Make sure the instance is in the joined instances, which are the nodes of the graph
+		if(graph.getNode(id)<0)
+			return new HashMap<>();
+		return walkGenerator.getWalks(id, allowedTypes, maxLengths, numbersOfWalks, random);
 	}
 
 	/**
@@ -478,66 +625,13 @@ public class InMemoryGraphLoader implements StreamRDF{
 	 * @return All the walks available
 	 */
 	public Map<String,Set<String>> getAll(String id, List<StepType> allowedTypes) {
-		Set<String> walks=new HashSet<>();
-		String currentNodeId=id;
 		// Ensure inner join
-		if(instancesInTargetVectorsFile.contains(currentNodeId))
-		{
-			Set<String> availableSteps = new HashSet<String>();
-			// Add the attribute presence to the available steps
-			if(allowedTypes.contains(StepType.HAS_ATTRIBUTE)){
-				List<String> itsAttributes=attributes.get(currentNodeId);
-				if(itsAttributes!=null){
-					for(String attr:itsAttributes){
-						String s="has_" + attr;
-						if(!availableSteps.contains(s)){
-							availableSteps.add(s);
-						}
-					}
-				}
-			}
-			// Add the relationship presence to the available steps
-			if(allowedTypes.contains(StepType.HAS_RELATIONSHIP)){
-				Map<String, Set<String>> itsRelationships=relationships.get(currentNodeId);
-				if(itsRelationships!=null){
-					for(String relationship:itsRelationships.keySet()){
-						if(allowedTypes.contains(StepType.HAS_RELATIONSHIP)){
-							String s="hasRel_" + relationship;
-							if(!availableSteps.contains(s)){
-								availableSteps.add(s);
-							}
-						}
-					}
-				}
-			}
-			// Add the incoming relationship presence to the available steps
-			if(allowedTypes.contains(StepType.HAS_INCOMING_RELATIONSHIP)){
-				Map<String, Set<String>> itsIncomingRelations = incomingRelationships.get(currentNodeId);
-				if(itsIncomingRelations!=null){
-					for(String relationship:itsIncomingRelations.keySet()){
-						String s="hasInRel_" + relationship;
-						if(!availableSteps.contains(s)){
-							availableSteps.add(s);
-						}
-					}
-				}
-			}
-			// Cleanup
-			for(String walk:availableSteps){
-				String w = walk.toString().trim();
-				if(w.endsWith(","))
-					w=w.substring(0, w.length()-1);
-				else if(w.endsWith("->") || w.endsWith("<-"))
-					w+="id="+currentNodeId;
-
-				if(!walks.contains(w) && !w.isEmpty())
-					walks.add(w);
-			}
+		if(graph.getNode(id)<0){
+			Map<String, Set<String>> returnObject =  new HashMap<>();
+			returnObject.put("1xall", new HashSet<>());
+			return returnObject;
 		}
-		// Add all the available walks and return 
-		Map<String, Set<String>> returnObject =  new HashMap<>();
-		returnObject.put("1xall", walks);
-		return returnObject;
+		return walkGenerator.getAll(id, allowedTypes);
 	}
 
 	/**
@@ -559,85 +653,20 @@ public class InMemoryGraphLoader implements StreamRDF{
 		allRandomWalkIds=new HashMap<>();
 		walkCounters=new HashMap<>();
 		try{
-			//Read each line from the target vectors file to get the id & then get random walks
-			CSVReader csvReader = new CSVReader(new FileReader(targetVectorsFile));
-			//Read the header
-			String[] header=csvReader.readNext();
-			if(!header[0].equals("id")){
-				logger.error("First column is not the id");
-			}else{
-				String[] row=null;
-
-				long start = System.currentTimeMillis();
-				while((row=csvReader.readNext())!=null){
-					// Print progress
-					String id=row[0];
-					
-					// Get the walks
-					Map<String, Set<String>> allWalks=null;
-					if(numbersOfWalks!=null){
-						allWalks=getWalks(id, allowedSteps, maxLengths, numbersOfWalks);
-					}else{
-						allWalks=getAll(id, allowedSteps);
-					}
-					
-					// Add to the dataset of walks
-					for(String dataset:allWalks.keySet()){
-						Set<String> walks=allWalks.get(dataset);
-						if(!walks.isEmpty()){
-							Set<String> ws = walks;
-							Map<String, int[]> randomWalks = allRandomWalks.get(dataset);
-							if(randomWalks==null)
-							{
-								randomWalks=new HashMap<>();
-								allRandomWalks.put(dataset, randomWalks);
-							}
-							Map<String, Integer> randomWalkIds = allRandomWalkIds.get(dataset);
-							if(randomWalkIds==null)
-							{
-								randomWalkIds=new HashMap<>();
-								allRandomWalkIds.put(dataset, randomWalkIds);
-							}
-							if(!walkCounters.containsKey(dataset))
-								walkCounters.put(dataset, 1);
-
-							int walkCounter=walkCounters.get(dataset);
-
-							int[] oneHotWs=randomWalks.get(id);
-							if(oneHotWs==null){
-								oneHotWs=new int[ws.size()];
-								for(int i=0;i<oneHotWs.length;i++){
-									oneHotWs[i]=-1;
-								}
-								randomWalks.put(id, oneHotWs);
-							}
-							int counter=0;
-							for(String w:ws){
-								Integer walkId=randomWalkIds.get(w);
-								if(walkId==null){
-									walkId=walkCounter++;
-									randomWalkIds.put(w, walkId);
-								}
-								if(oneHotWs==null)
-									System.err.println("Here");
-								oneHotWs[counter]=walkId;
-								counter++;
-							}
-
-							walkCounters.put(dataset, walkCounter);
-						}
-					}
-					if(csvReader.getLinesRead()%1000==0){
-						logger.info("{} lines parsed to random walk in {} ms.", csvReader.getLinesRead(), (System.currentTimeMillis()-start));
-						start = System.currentTimeMillis();
-					}
-					if(test && csvReader.getLinesRead()>TEST_LINES){
-						break;
-					}
-				}
+			//Read the ids from the target vectors file
+			List<String> ids=getIds(targetVectorsFile, test);
+			//Then walk from all of them at the same time
+			ParallelWalkGenerator parallelWalkGenerator=new ParallelWalkGenerator(walkParallelism, walkSeed);
+			Map<String, ParallelWalkGenerator.Dataset> datasets=parallelWalkGenerator.walk(ids, (id, random) -> {
+				if(numbersOfWalks!=null)
+					return getWalks(id, allowedSteps, maxLengths, numbersOfWalks, random);
+				return getAll(id, allowedSteps);
+			});
+			for(Map.Entry<String, ParallelWalkGenerator.Dataset> dataset:datasets.entrySet()){
+				allRandomWalks.put(dataset.getKey(), dataset.getValue().getWalks());
+				allRandomWalkIds.put(dataset.getKey(), dataset.getValue().getWalkIds());
+				walkCounters.put(dataset.getKey(), dataset.getValue().getWalkCounter());
 			}
-			// Close IO
-			csvReader.close();
 		}catch(IOException e){
 			// Something went wrong with the files.
 			logger.error("Cannot load the data from the file due to file issue:" + e.getMessage());
@@ -761,12 +790,24 @@ public class InMemoryGraphLoader implements StreamRDF{
 	 */
 	public static void main(String[] args) throws IOException{
 		File propertiesFile=new File("/Users/rparundekar/dataspace/dbpedia2016/infobox_properties_en.ttl");
+		// The union of the infobox properties & the mapping based objects & literals
+		List<File> semanticGraphFiles=Arrays.asList(propertiesFile,
+				new File(propertiesFile.getParentFile(), "mappingbased_objects_en.ttl"),
+				new File(propertiesFile.getParentFile(), "mappingbased_literals_en.ttl"));
 		File oneHotFile=new File("/Users/rparundekar/dataspace/dbpedia2016/oneHot.csv");
-		InMemoryGraphLoader inMemoryGraphLoader=new InMemoryGraphLoader(propertiesFile,oneHotFile);
+		// Keep the rows of the graph compressed in mapped files, outside the heap
+		CsrGraphBuilder builder=new CsrGraphBuilder();
+		builder.setOffHeap(new File(propertiesFile.getParentFile(), "graph"));
+		builder.setCompressed(true);
+		// Count the rows in a first pass over the triples, so the second fills arrays of the right size
+		builder.setTwoPass(true);
+		InMemoryGraphLoader inMemoryGraphLoader=new InMemoryGraphLoader(semanticGraphFiles,oneHotFile,Runtime.getRuntime().availableProcessors(),builder);
 		inMemoryGraphLoader.statsFile.println("Stats for data after one hot inner join");
 		inMemoryGraphLoader.statsFile.flush();
 		logger.info("Stats for data after one hot inner join:");
 		inMemoryGraphLoader.count();
+		// Walk from the instances on all the cores
+		inMemoryGraphLoader.setWalkParallelism(Runtime.getRuntime().availableProcessors());
 		List<StepType> allowedSteps=null;
 		List<Integer> maxLengths=null;
 		List<Integer> numbersOfWalks=null;
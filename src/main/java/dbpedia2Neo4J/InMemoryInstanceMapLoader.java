@@ -1,19 +1,13 @@
 package dbpedia2Neo4J;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
-import java.io.StringReader;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.jena.datatypes.DatatypeFormatException;
-import org.apache.jena.graph.Node;
 import org.apache.jena.graph.Triple;
-import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.sparql.core.Quad;
 import org.slf4j.Logger;
@@ -24,14 +18,25 @@ import org.slf4j.LoggerFactory;
  *  NOTE: Currently only tested on Oct 2016 files for infobox_properties_en.ttl
  * @author rparundekar
  */
-public class InMemoryInstanceMapLoader implements StreamRDF{
+public class InMemoryInstanceMapLoader implements StreamRDF, TripleCache.Handler{
 	// SLF4J Logger bound to Log4J 
 	private static final Logger logger=LoggerFactory.getLogger(InMemoryInstanceMapLoader.class);
 	private Map<String,Set<String>> instances;
+	// The shared dictionary with the cleaned URIs
+	private UriDictionary dictionary;
 	public InMemoryInstanceMapLoader(){
 		instances=new HashMap<>();
 	}
 
+	/**
+	 * Constructor for an empty partial, used by the parallel load.
+	 * @param dictionary The shared dictionary
+	 */
+	private InMemoryInstanceMapLoader(UriDictionary dictionary){
+		this();
+		this.dictionary=dictionary;
+	}
+
 	/**
 	 * Load the RDF data from the DBPedia turtle (.ttl) file 
 	 * @param turtleFile The DBPedia turtle file e.g. instance_types.en 
@@ -39,31 +44,67 @@ public class InMemoryInstanceMapLoader implements StreamRDF{
 	public void load(File turtleFile){
 		try{
 			// Since the turtle file might contain errors (e.g. in the properties 
-			// there is a value 'Infinity', with datatype xsd:double), we need to read each line
-			// and then call the RDFDataMgr on that.
-			// It sucks, since it's slow. But hey 'Infinity' cant be parsed as a double. 
-			LineNumberReader lnr=new LineNumberReader(new FileReader(turtleFile));
-			String line=null;
-			while((line=lnr.readLine())!=null){
-				// Print progress
-				if(lnr.getLineNumber()%10000==0){
-					logger.info("{} lines parsed.", lnr.getLineNumber());
-				}
-				// Parse the line read using the stream API. Make sure we catch parsing errors. 
-				try{
-					RDFDataMgr.parse(this, new StringReader(line), Lang.TURTLE);
-				}catch(DatatypeFormatException de){
-					logger.error("Illegal data format in line : " +line);
+			// there is a value 'Infinity', with datatype xsd:double), the reader 
+			// skips & reports the bad lines instead of stopping.
+			// If the file was converted into a triple cache, that is read instead.
+			dictionary=UriDictionary.forDataFile(turtleFile);
+			TripleCache cache=TripleCache.find(turtleFile);
+			if(cache!=null)
+				cache.read(this);
+			else
+				new NTriplesReader(this).read(turtleFile);
+			dictionary.save();
+		}catch(IOException e){
+			// Something went wrong with the files.
+			logger.error("Cannot load the data from the file due to file issue:" + e.getMessage());
+		}finally{
+			// The dictionary is only kept in memory during the load
+			if(dictionary!=null){
+				dictionary.release();
+				dictionary=null;
+			}
+		}
+	}
+	
+	/**
+	 * Load the RDF data from the DBPedia turtle (.ttl) file using many threads.
+	 * Each range of the file collects a partial instance map & these are merged at the end.
+	 * @param turtleFile The DBPedia turtle file e.g. instance_types.en 
+	 * @param parallelism The number of threads
+	 */
+	public void load(File turtleFile, int parallelism){
+		if(parallelism<=1){
+			load(turtleFile);
+			return;
+		}
+		try{
+			// The triple cache is read without parsing, so it doesn't need the threads
+			dictionary=UriDictionary.forDataFile(turtleFile);
+			TripleCache cache=TripleCache.find(turtleFile);
+			if(cache!=null){
+				cache.read(this);
+				return;
+			}
+			List<InMemoryInstanceMapLoader> parts=new ParallelNTriplesReader<>(() -> new InMemoryInstanceMapLoader(dictionary), parallelism).read(turtleFile);
+			for(InMemoryInstanceMapLoader part:parts){
+				for(String instance:part.instances.keySet()){
+					if(!instances.containsKey(instance))
+						instances.put(instance, new HashSet<String>());
 				}
 			}
-			// Close IO
-			lnr.close();
+			dictionary.save();
 		}catch(IOException e){
 			// Something went wrong with the files.
 			logger.error("Cannot load the data from the file due to file issue:" + e.getMessage());
+		}finally{
+			// The dictionary is only kept in memory during the load
+			if(dictionary!=null){
+				dictionary.release();
+				dictionary=null;
+			}
 		}
 	}
-	
+
 	/**
 	 * Close the driver to avoid memory leaks.
 	 */
@@ -99,23 +140,20 @@ public class InMemoryInstanceMapLoader implements StreamRDF{
 	@Override
 	public void triple(Triple triple) {
 		// Handle the triple
-		
-		// Get and clean the subject URI (There are no blank nodes in DBpedia)
-		String subject = triple.getMatchSubject().getURI();
-		subject=DBpediaHelper.stripClean(subject);
+		triple(dictionary.term(triple.getMatchSubject()), dictionary.term(triple.getMatchPredicate()), dictionary.term(triple.getMatchObject()));
+	}
+
+	@Override
+	public void triple(TripleCache.Term s, TripleCache.Term p, TripleCache.Term object) {
+		// Get the cleaned subject URI (There are no blank nodes in DBpedia)
+		String subject = s.getCleaned();
 		if(!instances.containsKey(subject))
 			instances.put(subject, new HashSet<String>());
-		// Get and clean the predicate URI (There are no blank nodes in DBpedia)
-		String predicate = triple.getMatchPredicate().getURI();
-		predicate = DBpediaHelper.stripClean(predicate);
-		
+
 		// Get the object. It can be a URI or a literal (There are no blank nodes in the DBpedia)
-		Node object = triple.getMatchObject();
-		Object o=null;
 		if(object.isURI()){
-			// Get and clean the object URI (There are no blank nodes in DBpedia)
-			o=object.getURI();
-			String obj=DBpediaHelper.stripClean((String)o);
+			// Get the cleaned object URI (There are no blank nodes in DBpedia)
+			String obj=object.getCleaned();
 			if(!instances.containsKey(obj))
 				instances.put(obj, new HashSet<>());
 		}
@@ -0,0 +1,445 @@
+package dbpedia2Neo4J;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Staged ingestion of a DBpedia turtle file: one reader stage, many parse stages & a single writer stage.
+ * The reader cuts the (decompressed) file into blocks of whole lines. The parse workers filter, parse & clean
+ * the lines of a block into a batch of terms. The writer sends the batches to the handler on the calling thread,
+ * so the handler owns its data structures & doesn't need to be thread safe.
+ * The stages hand over whole blocks & batches through bounded queues, so a slow stage holds back the others instead
+ * of filling the memory. The queue depths & the throughput of each stage are logged to show the bottleneck.
+ * @author rparundekar
+ */
+public class IngestPipeline {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(IngestPipeline.class);
+
+	private static final int BLOCK_SIZE=1<<20;
+	private static final int QUEUE_CAPACITY=16;
+	private static final long REPORT_INTERVAL=10000;
+
+	// Marks the end of the blocks & batches
+	private static final Block END_OF_BLOCKS=new Block(new byte[0], 0);
+	private static final Batch END_OF_BATCHES=new Batch();
+
+	/**
+	 * Counts for a stage of the pipeline. Busy is the time spent working,
+	 * waiting is the time spent blocked on the queues (summed over the threads of the stage).
+	 */
+	public static class Stage{
+		private final String name;
+		private final String unit;
+		private final int threads;
+		private final BlockingQueue<?> input;
+		private final AtomicLong count=new AtomicLong();
+		private final AtomicLong busyNanos=new AtomicLong();
+		private final AtomicLong waitNanos=new AtomicLong();
+
+		private Stage(String name, String unit, int threads, BlockingQueue<?> input){
+			this.name=name;
+			this.unit=unit;
+			this.threads=threads;
+			this.input=input;
+		}
+
+		/**
+		 * @return The name of the stage
+		 */
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 * @return The number of units (bytes, lines or triples) done by the stage
+		 */
+		public long getCount(){
+			return count.get();
+		}
+
+		/**
+		 * @return The number of blocks or batches waiting for the stage
+		 */
+		public int getQueueDepth(){
+			return input==null?0:input.size();
+		}
+
+		/**
+		 * @return The fraction of the time the threads of the stage were working
+		 */
+		public double getBusyFraction(){
+			long total=busyNanos.get()+waitNanos.get();
+			return total==0?0:busyNanos.get()*1.0/total;
+		}
+
+		/**
+		 * @param elapsedMillis The time since the start
+		 * @return The units per second
+		 */
+		public double getThroughput(long elapsedMillis){
+			return elapsedMillis==0?0:count.get()*1000.0/elapsedMillis;
+		}
+
+		private String report(long elapsedMillis){
+			return String.format("%s: %d %s (%.0f/s, %d thread(s) %.0f%% busy, %d queued)", name, count.get(), unit,
+					getThroughput(elapsedMillis), threads, getBusyFraction()*100, getQueueDepth());
+		}
+	}
+
+	/**
+	 * A block of whole lines
+	 */
+	private static class Block{
+		private final byte[] data;
+		private final int length;
+
+		private Block(byte[] data, int length){
+			this.data=data;
+			this.length=length;
+		}
+	}
+
+	/**
+	 * A batch of parsed triples, as subject, predicate & object terms
+	 */
+	private static class Batch{
+		private TripleCache.Term[] terms=new TripleCache.Term[3*1024];
+		private int size=0;
+	}
+
+	/**
+	 * Collects the triples parsed by a worker into its current batch
+	 */
+	private static class Collector implements StreamRDF{
+		private final UriDictionary dictionary;
+		private final Predicate<Triple> tripleFilter;
+		private Batch batch=new Batch();
+		// The number of triples dropped by the filter
+		private long droppedCount=0;
+
+		private Collector(UriDictionary dictionary, Predicate<Triple> tripleFilter){
+			this.dictionary=dictionary;
+			this.tripleFilter=tripleFilter;
+		}
+
+		@Override
+		public void triple(Triple triple) {
+			// The dropped triples don't add their URIs to the dictionary
+			if(tripleFilter!=null && !tripleFilter.test(triple)){
+				droppedCount++;
+				return;
+			}
+			if(batch.size+3>batch.terms.length)
+				batch.terms=Arrays.copyOf(batch.terms, batch.terms.length*2);
+			batch.terms[batch.size++]=dictionary.term(triple.getMatchSubject());
+			batch.terms[batch.size++]=dictionary.term(triple.getMatchPredicate());
+			batch.terms[batch.size++]=dictionary.term(triple.getMatchObject());
+		}
+
+		@Override
+		public void start() {
+			// Do Nothing
+		}
+
+		@Override
+		public void base(String base) {
+			// Do Nothing
+		}
+
+		@Override
+		public void prefix(String prefix, String iri) {
+			// Do Nothing
+		}
+
+		@Override
+		public void quad(Quad quad) {
+			// Do Nothing
+		}
+
+		@Override
+		public void finish() {
+			// Do Nothing
+		}
+	}
+
+	private final TripleCache.Handler handler;
+	private final UriDictionary dictionary;
+	private final int workers;
+	private Supplier<NTriplesReader.SubjectFilter> subjectFilters;
+	private Predicate<Triple> tripleFilter;
+
+	// The queues between the stages
+	private final BlockingQueue<Block> blocks=new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private final BlockingQueue<Batch> batches=new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private final Stage readStage;
+	private final Stage parseStage;
+	private final Stage writeStage;
+
+	// Totals from the parse workers
+	private final AtomicLong errorCount=new AtomicLong();
+	private final AtomicLong filteredCount=new AtomicLong();
+	private final AtomicLong droppedCount=new AtomicLong();
+	private volatile Throwable failure;
+
+	/**
+	 * Create the pipeline
+	 * @param handler The handler for the triples, called on the thread that calls read
+	 * @param dictionary The dictionary for the terms
+	 * @param workers The number of parse workers
+	 */
+	public IngestPipeline(TripleCache.Handler handler, UriDictionary dictionary, int workers){
+		this.handler=handler;
+		this.dictionary=dictionary;
+		this.workers=Math.max(1, workers);
+		readStage=new Stage("read", "bytes", 1, null);
+		parseStage=new Stage("parse", "lines", this.workers, blocks);
+		writeStage=new Stage("write", "triples", 1, batches);
+	}
+
+	/**
+	 * Set the filter for the subjects. Each parse worker gets its own filter.
+	 * @param subjectFilters Creates the filter for each worker
+	 */
+	public void setSubjectFilter(Supplier<NTriplesReader.SubjectFilter> subjectFilters){
+		this.subjectFilters=subjectFilters;
+	}
+
+	/**
+	 * Set the filter for the parsed triples, which drops the triples before their URIs are added to the dictionary.
+	 * It's called from all the parse workers.
+	 * @param tripleFilter Keeps the triples sent to the handler
+	 */
+	public void setTripleFilter(Predicate<Triple> tripleFilter){
+		this.tripleFilter=tripleFilter;
+	}
+
+	/**
+	 * Read all the triples in the file & send them to the handler
+	 * @param file The DBpedia turtle file e.g. infobox_properties_en.ttl, which may be compressed
+	 * @throws IOException Thrown if there's a problem reading the file
+	 */
+	public void read(File file) throws IOException{
+		long start=System.currentTimeMillis();
+		ExecutorService threads=Executors.newFixedThreadPool(workers+1, runnable -> {
+			Thread thread=new Thread(runnable, "ingest-" + file.getName());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try{
+			threads.execute(() -> readBlocks(file));
+			for(int i=0;i<workers;i++)
+				threads.execute(this::parseBlocks);
+			writeBatches(start);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading " + file.getName());
+		}finally{
+			// Stops the other stages if the writer failed
+			threads.shutdownNow();
+		}
+		if(failure instanceof IOException)
+			throw (IOException)failure;
+		if(failure instanceof Error)
+			throw (Error)failure;
+		if(failure!=null)
+			throw new IOException("Cannot read " + file.getName() + ": " + failure.getMessage(), failure);
+
+		long elapsed=System.currentTimeMillis()-start;
+		logger.info("Read {} in {} ms. {} | {} | {}", file.getName(), elapsed, readStage.report(elapsed), parseStage.report(elapsed), writeStage.report(elapsed));
+		if(errorCount.get()>0)
+			logger.warn("{} lines could not be parsed & were skipped.", errorCount.get());
+	}
+
+	/**
+	 * The reader stage: cut the file into blocks of whole lines
+	 */
+	private void readBlocks(File file){
+		try(InputStream in=NTriplesReader.open(file)){
+			byte[] carry=new byte[0];
+			int carried=0;
+			while(failure==null){
+				long busy=System.nanoTime();
+				byte[] data=new byte[Math.max(BLOCK_SIZE, carried*2)];
+				System.arraycopy(carry, 0, data, 0, carried);
+				int length=carried;
+				int n;
+				while(length<data.length && (n=in.read(data, length, data.length-length))>0)
+					length+=n;
+				if(length==carried){
+					// End of the file, with maybe a last line without a newline
+					if(carried>0)
+						put(blocks, new Block(data, carried), readStage, busy);
+					break;
+				}
+				readStage.count.addAndGet(length-carried);
+
+				// Keep the incomplete last line for the next block, unless it's the end of the file
+				int end=length;
+				if(length==data.length){
+					while(end>0 && data[end-1]!='\n')
+						end--;
+				}
+				carried=length-end;
+				carry=Arrays.copyOfRange(data, end, length);
+				if(end>0)
+					put(blocks, new Block(data, end), readStage, busy);
+			}
+		}catch(InterruptedException e){
+			return;
+		}catch(Throwable e){
+			failure=e;
+		}
+		try{
+			for(int i=0;i<workers;i++)
+				blocks.put(END_OF_BLOCKS);
+		}catch(InterruptedException e){
+			// Stopped
+		}
+	}
+
+	/**
+	 * A parse worker: parse & clean the blocks into batches
+	 */
+	private void parseBlocks(){
+		Collector collector=new Collector(dictionary, tripleFilter);
+		NTriplesReader reader=new NTriplesReader(collector);
+		reader.setProgress(Integer.MAX_VALUE, null);
+		boolean stopped=false;
+		try{
+			reader.setSubjectFilter(subjectFilters==null?null:subjectFilters.get());
+			while(true){
+				long wait=System.nanoTime();
+				Block block=blocks.take();
+				long busy=System.nanoTime();
+				parseStage.waitNanos.addAndGet(busy-wait);
+				if(block==END_OF_BLOCKS)
+					break;
+				long lines=reader.getLineCount();
+				try{
+					if(failure==null)
+						reader.read(block.data, block.length);
+				}catch(RuntimeException|Error e){
+					// Keep taking blocks, so that the reader doesn't block
+					failure=e;
+				}
+				parseStage.count.addAndGet(reader.getLineCount()-lines);
+				put(batches, collector.batch, parseStage, busy);
+				collector.batch=new Batch();
+			}
+			errorCount.addAndGet(reader.getErrorCount());
+			filteredCount.addAndGet(reader.getFilteredCount());
+			droppedCount.addAndGet(collector.droppedCount);
+		}catch(InterruptedException e){
+			stopped=true;
+		}catch(Throwable e){
+			failure=e;
+		}finally{
+			// The writer waits for the end of the batches of every worker
+			if(!stopped){
+				try{
+					batches.put(END_OF_BATCHES);
+				}catch(InterruptedException e){
+					// Stopped
+				}
+			}
+		}
+	}
+
+	/**
+	 * The writer stage: send the batches to the handler, on the calling thread, until the end of the batches of every worker
+	 * or a failure in the other stages
+	 */
+	private void writeBatches(long start) throws InterruptedException{
+		int ended=0;
+		long lastReport=System.currentTimeMillis();
+		while(ended<workers && failure==null){
+			long wait=System.nanoTime();
+			Batch batch=batches.poll(REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+			long busy=System.nanoTime();
+			writeStage.waitNanos.addAndGet(busy-wait);
+			if(batch==END_OF_BATCHES){
+				ended++;
+			}else if(batch!=null){
+				TripleCache.Term[] terms=batch.terms;
+				for(int i=0;i<batch.size;i+=3)
+					handler.triple(terms[i], terms[i+1], terms[i+2]);
+				writeStage.count.addAndGet(batch.size/3);
+				writeStage.busyNanos.addAndGet(System.nanoTime()-busy);
+			}
+			if(System.currentTimeMillis()-lastReport>=REPORT_INTERVAL){
+				lastReport=System.currentTimeMillis();
+				long elapsed=lastReport-start;
+				logger.info("{} | {} | {}", readStage.report(elapsed), parseStage.report(elapsed), writeStage.report(elapsed));
+			}
+		}
+	}
+
+	/**
+	 * Hand over to the next stage, counting the work before & the time blocked by the next stage
+	 */
+	private static <T> void put(BlockingQueue<T> queue, T item, Stage stage, long busy) throws InterruptedException{
+		long wait=System.nanoTime();
+		stage.busyNanos.addAndGet(wait-busy);
+		queue.put(item);
+		stage.waitNanos.addAndGet(System.nanoTime()-wait);
+	}
+
+	/**
+	 * @return The counts for the reader stage
+	 */
+	public Stage getReadStage(){
+		return readStage;
+	}
+
+	/**
+	 * @return The counts for the parse stage
+	 */
+	public Stage getParseStage(){
+		return parseStage;
+	}
+
+	/**
+	 * @return The counts for the writer stage
+	 */
+	public Stage getWriteStage(){
+		return writeStage;
+	}
+
+	/**
+	 * @return The number of lines skipped due to errors
+	 */
+	public long getErrorCount(){
+		return errorCount.get();
+	}
+
+	/**
+	 * @return The number of lines skipped by the subject filter
+	 */
+	public long getFilteredCount(){
+		return filteredCount.get();
+	}
+
+	/**
+	 * @return The number of parsed triples dropped by the triple filter
+	 */
+	public long getDroppedCount(){
+		return droppedCount.get();
+	}
+}
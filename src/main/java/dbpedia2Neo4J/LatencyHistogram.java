@@ -0,0 +1,73 @@
+package dbpedia2Neo4J;
+
+/**
+ * Histogram of round-trip latencies, with a bucket for each power of 2 microseconds.
+ * The percentiles are the upper bounds of the buckets, which is precise enough to tune the number of transactions in flight.
+ * @author rparundekar
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS=40;
+
+	private final String name;
+	private final long[] counts=new long[BUCKETS];
+	private long count=0;
+	private long totalMicros=0;
+	private long maxMicros=0;
+
+	/**
+	 * Create an empty histogram
+	 * @param name The name, for the reports
+	 */
+	public LatencyHistogram(String name){
+		this.name=name;
+	}
+
+	/**
+	 * Add a latency
+	 * @param nanos The latency in nanoseconds
+	 */
+	public synchronized void record(long nanos){
+		long micros=Math.max(0, nanos/1000);
+		int bucket=Math.min(BUCKETS-1, 64-Long.numberOfLeadingZeros(micros));
+		counts[bucket]++;
+		count++;
+		totalMicros+=micros;
+		maxMicros=Math.max(maxMicros, micros);
+	}
+
+	/**
+	 * @return The number of latencies
+	 */
+	public synchronized long getCount(){
+		return count;
+	}
+
+	/**
+	 * @return The mean latency in milliseconds
+	 */
+	public synchronized double getMean(){
+		return count==0?0:totalMicros/1000.0/count;
+	}
+
+	/**
+	 * Get a percentile of the latencies
+	 * @param percentile The percentile, e.g. 99
+	 * @return The upper bound of the latency in milliseconds
+	 */
+	public synchronized double getPercentile(double percentile){
+		long rank=(long)Math.ceil(count*percentile/100);
+		long seen=0;
+		for(int bucket=0;bucket<BUCKETS;bucket++){
+			seen+=counts[bucket];
+			if(seen>=rank && seen>0)
+				return Math.min(maxMicros, (1L<<bucket)-1)/1000.0;
+		}
+		return maxMicros/1000.0;
+	}
+
+	@Override
+	public synchronized String toString(){
+		return String.format("%s: %d round trips, mean %.1f ms, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+				name, count, getMean(), getPercentile(50), getPercentile(90), getPercentile(99), maxMicros/1000.0);
+	}
+}
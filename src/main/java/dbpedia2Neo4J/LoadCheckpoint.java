@@ -0,0 +1,134 @@
+package dbpedia2Neo4J;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checkpoint of a long load into Neo4J, kept next to the DBpedia file (e.g. infobox_properties_en.ttl.checkpoint).
+ * It has the position of the first triple that isn't committed yet & the number of the last committed batch,
+ * & the number of the last batch that may have been committed after it, before the next checkpoint.
+ * The position is a byte offset in the (decompressed) file, or the index of the triple if the load reads the triple cache.
+ * The checkpoint is written to a temporary file, synced to the disk & then renamed, so a crash leaves the old or the new checkpoint.
+ * @author rparundekar
+ */
+public class LoadCheckpoint {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(LoadCheckpoint.class);
+
+	public static final String EXTENSION=".checkpoint";
+
+	private final File file;
+	private final File source;
+	private final boolean fromCache;
+	private long position=0;
+	private long batch=0;
+	private long replayUntil=0;
+
+	/**
+	 * Create a new checkpoint for the load
+	 * @param source The DBpedia file
+	 * @param fromCache True if the load reads the triple cache
+	 */
+	public LoadCheckpoint(File source, boolean fromCache){
+		this.source=source;
+		this.file=new File(source.getPath() + EXTENSION);
+		this.fromCache=fromCache;
+	}
+
+	/**
+	 * Find the checkpoint of an earlier load of the file
+	 * @param source The DBpedia file
+	 * @return The checkpoint, or null if there isn't one or the file changed since
+	 * @throws IOException Thrown if there's a problem reading the checkpoint
+	 */
+	public static LoadCheckpoint find(File source) throws IOException{
+		File file=new File(source.getPath() + EXTENSION);
+		if(!file.exists())
+			return null;
+		Properties properties=new Properties();
+		try(FileInputStream in=new FileInputStream(file)){
+			properties.load(in);
+		}
+		if(Long.parseLong(properties.getProperty("sourceLength"))!=source.length()
+				|| Long.parseLong(properties.getProperty("sourceModified"))!=source.lastModified()){
+			logger.warn("{} changed since the checkpoint, so it is ignored", source.getName());
+			return null;
+		}
+		LoadCheckpoint checkpoint=new LoadCheckpoint(source, Boolean.parseBoolean(properties.getProperty("fromCache")));
+		checkpoint.position=Long.parseLong(properties.getProperty("position"));
+		checkpoint.batch=Long.parseLong(properties.getProperty("batch"));
+		// Any batch may have been committed after an older checkpoint
+		checkpoint.replayUntil=Long.parseLong(properties.getProperty("replayUntil", Long.toString(Long.MAX_VALUE)));
+		return checkpoint;
+	}
+
+	/**
+	 * Save the checkpoint after a commit
+	 * @param position The position of the first triple that isn't committed
+	 * @param batch The number of the committed batch
+	 * @param replayUntil The number of the last batch that may be committed before the next checkpoint
+	 * @throws IOException Thrown if there's a problem writing the checkpoint
+	 */
+	public void save(long position, long batch, long replayUntil) throws IOException{
+		this.position=position;
+		this.batch=batch;
+		this.replayUntil=replayUntil;
+		Properties properties=new Properties();
+		properties.setProperty("sourceLength", Long.toString(source.length()));
+		properties.setProperty("sourceModified", Long.toString(source.lastModified()));
+		properties.setProperty("fromCache", Boolean.toString(fromCache));
+		properties.setProperty("position", Long.toString(position));
+		properties.setProperty("batch", Long.toString(batch));
+		properties.setProperty("replayUntil", Long.toString(replayUntil));
+		File temporary=new File(file.getPath() + ".tmp");
+		try(FileOutputStream out=new FileOutputStream(temporary)){
+			properties.store(out, "Checkpoint of the load of " + source.getName());
+			out.getFD().sync();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Delete the checkpoint, once the load is done
+	 */
+	public void delete(){
+		if(file.exists() && !file.delete())
+			logger.warn("Cannot delete {}", file);
+	}
+
+	/**
+	 * @return The position of the first triple that isn't committed
+	 */
+	public long getPosition(){
+		return position;
+	}
+
+	/**
+	 * @return The number of the last committed batch
+	 */
+	public long getBatch(){
+		return batch;
+	}
+
+	/**
+	 * @return The number of the last batch that may have been committed after the checkpoint, so a resumed load writes it again
+	 */
+	public long getReplayUntil(){
+		return replayUntil;
+	}
+
+	/**
+	 * @return True if the position is the index of a triple in the triple cache, false if it is a byte offset
+	 */
+	public boolean isFromCache(){
+		return fromCache;
+	}
+}
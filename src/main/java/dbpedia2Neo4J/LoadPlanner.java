@@ -0,0 +1,169 @@
+package dbpedia2Neo4J;
+import static org.neo4j.driver.v1.Values.parameters;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The phases of a load into Neo4J, each timed:
+ * the reset (a truncate in batches), the schema before the load (the uniqueness constraint on :Thing(id), so each MERGE
+ * is a lookup in its index & two MERGEs of the same id can't both create the node), the bulk load itself, &
+ * after the load, the secondary indexes (which would slow down every write if created before) & a warm-up of the page cache.
+ * @author rparundekar
+ */
+public class LoadPlanner {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(LoadPlanner.class);
+
+	// The number of nodes deleted in each transaction of the truncate
+	private static final int DEFAULT_DELETE_BATCH_SIZE=10000;
+	// How long to wait for the secondary indexes to come online
+	private static final int INDEX_TIMEOUT_SECONDS=3600;
+
+	private final Driver driver;
+	private int deleteBatchSize=DEFAULT_DELETE_BATCH_SIZE;
+	// The properties of :Thing to index after the load
+	private final List<String> indexes=new ArrayList<>();
+	// The time taken by each phase, in ms
+	private final Map<String,Long> timings=new LinkedHashMap<>();
+	// True once the uniqueness constraint on :Thing(id) is in place
+	private boolean constraint=false;
+
+	/**
+	 * Create the planner
+	 * @param driver The driver
+	 */
+	public LoadPlanner(Driver driver){
+		this.driver=driver;
+	}
+
+	/**
+	 * Set the number of nodes deleted in each transaction of the truncate
+	 * @param deleteBatchSize The number of nodes
+	 */
+	public void setDeleteBatchSize(int deleteBatchSize){
+		this.deleteBatchSize=deleteBatchSize;
+	}
+
+	/**
+	 * Add a secondary index on a property of :Thing, created after the load
+	 * @param property The property
+	 */
+	public void addIndex(String property){
+		indexes.add(property);
+	}
+
+	/**
+	 * Run & time a phase
+	 * @param phase The name of the phase
+	 * @param work The work of the phase
+	 */
+	public void run(String phase, Runnable work){
+		logger.info("Phase {}...", phase);
+		long start=System.currentTimeMillis();
+		try{
+			work.run();
+		}finally{
+			long elapsed=System.currentTimeMillis()-start;
+			timings.merge(phase, elapsed, Long::sum);
+			logger.info("Phase {} done in {} ms", phase, elapsed);
+		}
+	}
+
+	/**
+	 * Delete all the nodes & relationships, a batch of nodes in each transaction, so the heap of the server isn't exhausted.
+	 * The index on :Thing(id) is dropped too, as the uniqueness constraint has its own.
+	 */
+	public void truncate(){
+		run("truncate", () -> {
+			try(Session session=driver.session()){
+				long total=session.run("MATCH (n) RETURN count(n) AS count").single().get("count").asLong();
+				long deleted=0;
+				while(true){
+					long count=session.run("MATCH (n) WITH n LIMIT {limit} DETACH DELETE n RETURN count(*) AS count", parameters("limit", deleteBatchSize))
+							.single().get("count").asLong();
+					if(count==0)
+						break;
+					deleted+=count;
+					logger.info("{} of {} nodes deleted.", deleted, total);
+				}
+				dropIndex(session);
+			}
+		});
+	}
+
+	/**
+	 * Drop the index on :Thing(id), e.g. from an older load, as the uniqueness constraint has its own
+	 */
+	private static void dropIndex(Session session){
+		try{
+			session.run("DROP INDEX ON :Thing(id)").consume();
+		}catch(ClientException e){
+			// There is no index, or it is the index of the constraint
+		}
+	}
+
+	/**
+	 * Create the uniqueness constraint on :Thing(id), before the load. The index on :Thing(id) of an older load is dropped first.
+	 * If the constraint can't be created (e.g. duplicate ids), hasConstraint() is false.
+	 */
+	public void createConstraint(){
+		run("constraint", () -> {
+			try(Session session=driver.session()){
+				dropIndex(session);
+				session.run("CREATE CONSTRAINT ON (t:Thing) ASSERT t.id IS UNIQUE").consume();
+				constraint=true;
+			}catch(ClientException e){
+				// e.g. duplicate ids
+				logger.error("Cannot create the uniqueness constraint on :Thing(id): {}", e.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * @return True if the uniqueness constraint on :Thing(id) is in place, so writes at the same time can't create the same node twice
+	 */
+	public boolean hasConstraint(){
+		return constraint;
+	}
+
+	/**
+	 * After the load, create the secondary indexes, wait for them & then warm up the page cache
+	 */
+	public void finish(){
+		if(!indexes.isEmpty()){
+			run("indexes", () -> {
+				try(Session session=driver.session()){
+					for(String property:indexes)
+						session.run("CREATE INDEX ON :Thing(`" + property + "`)").consume();
+					session.run("CALL db.awaitIndexes({timeout})", parameters("timeout", INDEX_TIMEOUT_SECONDS)).consume();
+				}catch(ClientException e){
+					logger.error("Cannot create the indexes: {}", e.getMessage());
+				}
+			});
+		}
+		run("warm-up", () -> {
+			try(Session session=driver.session()){
+				// Touch every node & relationship, so the store is in the page cache for the walks
+				long count=session.run("MATCH (n) OPTIONAL MATCH (n)-[r]->() RETURN count(n.id) + count(r) AS count").single().get("count").asLong();
+				logger.info("{} nodes & relationships read.", count);
+			}
+		});
+		logger.info("Timings (ms): {}", timings);
+	}
+
+	/**
+	 * @return The time taken by each phase, in ms
+	 */
+	public Map<String,Long> getTimings(){
+		return timings;
+	}
+}
@@ -0,0 +1,80 @@
+package dbpedia2Neo4J;
+
+/**
+ * Set of primitive longs using open addressing, to avoid boxing in hot loops.
+ * @author rparundekar
+ */
+class LongHashSet {
+	private long[] keys;
+	private boolean[] used;
+	private int size=0;
+	private int mask;
+
+	/**
+	 * Create the set
+	 * @param expectedSize The expected number of values
+	 */
+	LongHashSet(int expectedSize){
+		int capacity=Integer.highestOneBit(Math.max(4, expectedSize*2-1))<<1;
+		keys=new long[capacity];
+		used=new boolean[capacity];
+		mask=capacity-1;
+	}
+
+	/**
+	 * @param value The value to add
+	 * @return True if the value wasn't in the set
+	 */
+	boolean add(long value){
+		int i=slot(value);
+		while(used[i]){
+			if(keys[i]==value)
+				return false;
+			i=(i+1)&mask;
+		}
+		keys[i]=value;
+		used[i]=true;
+		if(++size*2>keys.length)
+			grow();
+		return true;
+	}
+
+	/**
+	 * @param value The value
+	 * @return True if the value is in the set
+	 */
+	boolean contains(long value){
+		int i=slot(value);
+		while(used[i]){
+			if(keys[i]==value)
+				return true;
+			i=(i+1)&mask;
+		}
+		return false;
+	}
+
+	/**
+	 * @return The number of values
+	 */
+	int size(){
+		return size;
+	}
+
+	private int slot(long value){
+		long h=value*0x9E3779B97F4A7C15L;
+		return (int)(h^(h>>>32))&mask;
+	}
+
+	private void grow(){
+		long[] oldKeys=keys;
+		boolean[] oldUsed=used;
+		keys=new long[oldKeys.length*2];
+		used=new boolean[oldKeys.length*2];
+		mask=keys.length-1;
+		size=0;
+		for(int i=0;i<oldKeys.length;i++){
+			if(oldUsed[i])
+				add(oldKeys[i]);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package dbpedia2Neo4J;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Scans the lines of a memory-mapped file without decoding them to Strings.
+ * Files larger than 2 GB are mapped in segments. A segment always ends at a line boundary,
+ * so that a line never spans two segments.
+ * @author rparundekar
+ */
+public class MappedLineScanner {
+	// The size of each mapped segment
+	static final long SEGMENT_SIZE=1L<<30;
+
+	/**
+	 * Handler for each line in the mapped file
+	 */
+	public interface LineHandler{
+		/**
+		 * Handle the line
+		 * @param buffer The mapped segment containing the line
+		 * @param start The start of the line in the buffer
+		 * @param end The end of the line in the buffer (excluding the newline)
+		 */
+		void line(ByteBuffer buffer, int start, int end);
+	}
+
+	/**
+	 * Scan each line in the range of the file.
+	 * @param channel The file
+	 * @param start The position to start at. This must be the start of a line.
+	 * @param end The position to end at
+	 * @param handler The handler for each line
+	 * @throws IOException Thrown if the file cannot be mapped or a line is longer than a segment
+	 */
+	public static void scan(FileChannel channel, long start, long end, LineHandler handler) throws IOException{
+		long position=start;
+		while(position<end){
+			int size=(int)Math.min(SEGMENT_SIZE, end-position);
+			MappedByteBuffer buffer=channel.map(MapMode.READ_ONLY, position, size);
+			int lineStart=0;
+			for(int i=0;i<size;i++){
+				if(buffer.get(i)=='\n'){
+					handler.line(buffer, lineStart, i);
+					lineStart=i+1;
+				}
+			}
+			if(position+size>=end){
+				// Last line without a newline
+				if(lineStart<size)
+					handler.line(buffer, lineStart, size);
+				position=end;
+			}else{
+				// The next segment starts at the incomplete line
+				if(lineStart==0)
+					throw new IOException("Line at " + position + " is longer than " + SEGMENT_SIZE + " bytes");
+				position+=lineStart;
+			}
+		}
+	}
+
+	/**
+	 * Find the subject, predicate & object of an N-Triples line, without parsing it.
+	 * The IRI spans exclude the angle brackets. The object span covers the rest of the line.
+	 * @param buffer The buffer with the line
+	 * @param start The start of the line
+	 * @param end The end of the line
+	 * @param spans Filled with the subject start & end, predicate start & end and object start & end
+	 * @return True if the line looks like a triple, false for comments, empty lines & lines that need a full parse
+	 */
+	public static boolean spans(ByteBuffer buffer, int start, int end, int[] spans){
+		int i=skipWhitespace(buffer, start, end);
+		if(i>=end || buffer.get(i)!='<')
+			return false;
+		spans[0]=i+1;
+		i=indexOf(buffer, spans[0], end, (byte)'>');
+		if(i<0)
+			return false;
+		spans[1]=i;
+		i=skipWhitespace(buffer, i+1, end);
+		if(i>=end || buffer.get(i)!='<')
+			return false;
+		spans[2]=i+1;
+		i=indexOf(buffer, spans[2], end, (byte)'>');
+		if(i<0)
+			return false;
+		spans[3]=i;
+		i=skipWhitespace(buffer, i+1, end);
+		if(i>=end)
+			return false;
+		spans[4]=i;
+		spans[5]=end;
+		return true;
+	}
+
+	private static int skipWhitespace(ByteBuffer buffer, int i, int end){
+		while(i<end && (buffer.get(i)==' ' || buffer.get(i)=='\t'))
+			i++;
+		return i;
+	}
+
+	private static int indexOf(ByteBuffer buffer, int i, int end, byte b){
+		for(;i<end;i++){
+			if(buffer.get(i)==b)
+				return i;
+		}
+		return -1;
+	}
+}
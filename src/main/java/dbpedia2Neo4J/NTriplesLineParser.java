@@ -0,0 +1,180 @@
+package dbpedia2Neo4J;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.RiotException;
+
+/**
+ * A small hand written parser for a single line of N-Triples (which is what the DBpedia .ttl dumps are).
+ * It builds the Jena nodes directly, so we don't pay for setting up a full Jena parser for every line.
+ * Literal values are not checked here, Jena does that lazily when getLiteralValue() is called.
+ * @author rparundekar
+ */
+public class NTriplesLineParser {
+	private final String line;
+	private int pos;
+
+	private NTriplesLineParser(String line){
+		this.line=line;
+		this.pos=0;
+	}
+
+	/**
+	 * Parse a line of N-Triples
+	 * @param line The line
+	 * @return The triple, or null if the line is empty or a comment
+	 * @throws RiotException Thrown if the line is not a valid triple
+	 */
+	public static Triple parse(String line){
+		NTriplesLineParser parser=new NTriplesLineParser(line);
+		parser.skipWhitespace();
+		if(parser.pos>=line.length() || line.charAt(parser.pos)=='#')
+			return null;
+		Node subject=parser.readSubject();
+		parser.skipWhitespace();
+		Node predicate=parser.readIRI();
+		parser.skipWhitespace();
+		Node object=parser.readObject();
+		parser.skipWhitespace();
+		parser.expect('.');
+		parser.skipWhitespace();
+		if(parser.pos<line.length() && line.charAt(parser.pos)!='#')
+			throw parser.error("Trailing characters after triple");
+		return Triple.create(subject, predicate, object);
+	}
+
+	private Node readSubject(){
+		if(peek()=='_')
+			return readBlankNode();
+		return readIRI();
+	}
+
+	private Node readObject(){
+		char c=peek();
+		if(c=='_')
+			return readBlankNode();
+		if(c=='"')
+			return readLiteral();
+		return readIRI();
+	}
+
+	private Node readIRI(){
+		expect('<');
+		StringBuilder iri=new StringBuilder();
+		while(true){
+			char c=next();
+			if(c=='>')
+				break;
+			if(c=='\\'){
+				char e=next();
+				if(e=='u')
+					iri.appendCodePoint(readHex(4));
+				else if(e=='U')
+					iri.appendCodePoint(readHex(8));
+				else
+					throw error("Illegal escape in IRI");
+			}else{
+				iri.append(c);
+			}
+		}
+		return NodeFactory.createURI(iri.toString());
+	}
+
+	private Node readBlankNode(){
+		expect('_');
+		expect(':');
+		int start=pos;
+		while(pos<line.length() && !Character.isWhitespace(line.charAt(pos)))
+			pos++;
+		if(start==pos)
+			throw error("Empty blank node label");
+		return NodeFactory.createBlankNode(line.substring(start, pos));
+	}
+
+	private Node readLiteral(){
+		expect('"');
+		StringBuilder lexicalForm=new StringBuilder();
+		while(true){
+			char c=next();
+			if(c=='"')
+				break;
+			if(c=='\\'){
+				char e=next();
+				switch(e){
+				case 't': lexicalForm.append('\t'); break;
+				case 'b': lexicalForm.append('\b'); break;
+				case 'n': lexicalForm.append('\n'); break;
+				case 'r': lexicalForm.append('\r'); break;
+				case 'f': lexicalForm.append('\f'); break;
+				case '"': lexicalForm.append('"'); break;
+				case '\'': lexicalForm.append('\''); break;
+				case '\\': lexicalForm.append('\\'); break;
+				case 'u': lexicalForm.appendCodePoint(readHex(4)); break;
+				case 'U': lexicalForm.appendCodePoint(readHex(8)); break;
+				default: throw error("Illegal escape in literal");
+				}
+			}else{
+				lexicalForm.append(c);
+			}
+		}
+		if(pos<line.length() && line.charAt(pos)=='@'){
+			// Language tag
+			pos++;
+			int start=pos;
+			while(pos<line.length() && (Character.isLetterOrDigit(line.charAt(pos)) || line.charAt(pos)=='-'))
+				pos++;
+			if(start==pos)
+				throw error("Empty language tag");
+			return NodeFactory.createLiteral(lexicalForm.toString(), line.substring(start, pos));
+		}
+		if(pos+1<line.length() && line.charAt(pos)=='^' && line.charAt(pos+1)=='^'){
+			// Datatype
+			pos+=2;
+			String datatypeURI=readIRI().getURI();
+			return NodeFactory.createLiteral(lexicalForm.toString(), TypeMapper.getInstance().getSafeTypeByName(datatypeURI));
+		}
+		return NodeFactory.createLiteral(lexicalForm.toString());
+	}
+
+	private int readHex(int digits){
+		if(pos+digits>line.length())
+			throw error("Truncated escape");
+		try{
+			int codePoint=Integer.parseInt(line.substring(pos, pos+digits), 16);
+			if(!Character.isValidCodePoint(codePoint))
+				throw error("Illegal code point");
+			pos+=digits;
+			return codePoint;
+		}catch(NumberFormatException e){
+			throw error("Illegal hex escape");
+		}
+	}
+
+	private void skipWhitespace(){
+		while(pos<line.length() && (line.charAt(pos)==' ' || line.charAt(pos)=='\t' || line.charAt(pos)=='\r'))
+			pos++;
+	}
+
+	private char peek(){
+		if(pos>=line.length())
+			throw error("Unexpected end of line");
+		return line.charAt(pos);
+	}
+
+	private char next(){
+		char c=peek();
+		pos++;
+		return c;
+	}
+
+	private void expect(char c){
+		if(next()!=c)
+			throw error("Expected '" + c + "'");
+	}
+
+	private RiotException error(String message){
+		return new RiotException(message + " at position " + pos);
+	}
+}
@@ -0,0 +1,317 @@
+package dbpedia2Neo4J;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.jena.datatypes.DatatypeFormatException;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming reader for the DBpedia N-Triples (.ttl) dumps.
+ * The whole file is read once and each triple is sent to the StreamRDF.
+ * Since the dumps contain errors (e.g. in the properties there is a value 'Infinity',
+ * with datatype xsd:double), malformed triples are skipped & reported instead of stopping the load.
+ * Files are memory-mapped & scanned as bytes. A line is only decoded & parsed if it passes the subject filter.
+ * Compressed dumps (.bz2 & .gz) are decompressed while reading, bzip2 using many threads.
+ * @author rparundekar
+ */
+public class NTriplesReader {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(NTriplesReader.class);
+
+	/**
+	 * Filter on the raw subject IRI of a line, applied before the line is decoded & parsed.
+	 */
+	public interface SubjectFilter{
+		/**
+		 * @param buffer The buffer with the line
+		 * @param start The start of the subject IRI (after the '<')
+		 * @param end The end of the subject IRI (before the '>')
+		 * @return True if the line should be parsed
+		 */
+		boolean accept(ByteBuffer buffer, int start, int end);
+	}
+
+	// The handler for the triples
+	private final StreamRDF sink;
+	private SubjectFilter subjectFilter;
+
+	// Buffers reused for decoding the lines from the mapped file
+	private final int[] spans=new int[6];
+	private byte[] lineBytes=new byte[4096];
+
+	// Progress reporting
+	private int progressInterval=10000;
+	private LongConsumer progressListener;
+
+	// Counts
+	private long lineCount=0;
+	private long tripleCount=0;
+	private long errorCount=0;
+	private long filteredCount=0;
+
+	// The position of the line being handled & of the next line, in the (decompressed) file
+	private long lineOffset=0;
+	private long nextOffset=0;
+
+	/**
+	 * Create a reader that sends the triples to the sink
+	 * @param sink The StreamRDF that handles the triples
+	 */
+	public NTriplesReader(StreamRDF sink){
+		this.sink=sink;
+		this.progressListener=lines -> logger.info("{} lines parsed.", lines);
+	}
+
+	/**
+	 * Set how progress is reported
+	 * @param progressInterval Report after these many lines
+	 * @param progressListener Called with the number of lines read so far
+	 */
+	public void setProgress(int progressInterval, LongConsumer progressListener){
+		this.progressInterval=progressInterval;
+		this.progressListener=progressListener;
+	}
+
+	/**
+	 * Set the filter for the subjects. Lines with subjects that are not accepted are skipped without parsing.
+	 * @param subjectFilter The filter
+	 */
+	public void setSubjectFilter(SubjectFilter subjectFilter){
+		this.subjectFilter=subjectFilter;
+	}
+
+	/**
+	 * Read all the triples in the file
+	 * @param file The DBpedia turtle file e.g. infobox_properties_en.ttl
+	 * @throws IOException Thrown if there's a problem reading the file
+	 */
+	public void read(File file) throws IOException{
+		read(file, 0);
+	}
+
+	/**
+	 * Read the triples in the file, from a position, e.g. to resume a load.
+	 * Compressed files are decompressed up to the position without parsing.
+	 * @param file The DBpedia turtle file e.g. infobox_properties_en.ttl
+	 * @param offset The position in the (decompressed) file. This must be the start of a line.
+	 * @throws IOException Thrown if there's a problem reading the file
+	 */
+	public void read(File file, long offset) throws IOException{
+		if(isCompressed(file)){
+			try(InputStream in=open(file)){
+				byte[] skipped=new byte[1<<16];
+				long remaining=offset;
+				while(remaining>0){
+					int n=in.read(skipped, 0, (int)Math.min(skipped.length, remaining));
+					if(n<0)
+						throw new IOException(file.getName() + " is shorter than " + offset + " bytes");
+					remaining-=n;
+				}
+				nextOffset=offset;
+				read(in);
+			}
+		}else{
+			try(FileChannel channel=FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+				read(channel, offset, channel.size());
+			}
+		}
+	}
+
+	/**
+	 * Open the file as a stream, decompressing it if needed
+	 * @param file The DBpedia turtle file e.g. infobox_properties_en.ttl.bz2
+	 * @return The stream with the N-Triples
+	 * @throws IOException Thrown if there's a problem opening the file
+	 */
+	public static InputStream open(File file) throws IOException{
+		if(file.getName().endsWith(".bz2"))
+			return new ParallelBZip2InputStream(file, Runtime.getRuntime().availableProcessors());
+		if(file.getName().endsWith(".gz"))
+			return new GZIPInputStream(new FileInputStream(file), 1<<16);
+		return new FileInputStream(file);
+	}
+
+	/**
+	 * @param file The file
+	 * @return True if the file is compressed & cannot be memory-mapped or split
+	 */
+	public static boolean isCompressed(File file){
+		return file.getName().endsWith(".bz2") || file.getName().endsWith(".gz");
+	}
+
+	/**
+	 * Read all the triples in a range of the file, by memory-mapping it
+	 * @param channel The file
+	 * @param start The start of the range. This must be the start of a line.
+	 * @param end The end of the range
+	 * @throws IOException Thrown if there's a problem reading the file
+	 */
+	public void read(FileChannel channel, long start, long end) throws IOException{
+		nextOffset=start;
+		sink.start();
+		MappedLineScanner.scan(channel, start, end, this::handle);
+		sink.finish();
+		if(errorCount>0)
+			logger.warn("{} of {} lines could not be parsed & were skipped.", errorCount, lineCount);
+	}
+
+	/**
+	 * Read all the triples in the stream
+	 * @param in The input stream with the N-Triples
+	 * @throws IOException Thrown if there's a problem reading the stream
+	 */
+	public void read(InputStream in) throws IOException{
+		sink.start();
+		byte[] buffer=new byte[1<<20];
+		int length=0;
+		int scanned=0;
+		while(true){
+			int n=in.read(buffer, length, buffer.length-length);
+			if(n>0)
+				length+=n;
+			ByteBuffer wrapped=ByteBuffer.wrap(buffer, 0, length);
+			int lineStart=0;
+			for(int i=scanned;i<length;i++){
+				if(buffer[i]=='\n'){
+					handle(wrapped, lineStart, i);
+					lineStart=i+1;
+				}
+			}
+			if(n<0){
+				// Last line without a newline
+				if(lineStart<length)
+					handle(wrapped, lineStart, length);
+				break;
+			}
+			// Keep the incomplete line at the start of the buffer
+			System.arraycopy(buffer, lineStart, buffer, 0, length-lineStart);
+			length-=lineStart;
+			scanned=length;
+			if(length==buffer.length)
+				buffer=Arrays.copyOf(buffer, buffer.length*2);
+		}
+		sink.finish();
+		if(errorCount>0)
+			logger.warn("{} of {} lines could not be parsed & were skipped.", errorCount, lineCount);
+	}
+
+	/**
+	 * Read the triples in a block of whole lines, e.g. handed over by another thread.
+	 * The sink isn't started or finished.
+	 * @param block The bytes of the lines
+	 * @param length The number of bytes used
+	 */
+	public void read(byte[] block, int length){
+		ByteBuffer wrapped=ByteBuffer.wrap(block, 0, length);
+		int lineStart=0;
+		for(int i=0;i<length;i++){
+			if(block[i]=='\n'){
+				handle(wrapped, lineStart, i);
+				lineStart=i+1;
+			}
+		}
+		if(lineStart<length)
+			handle(wrapped, lineStart, length);
+	}
+
+	/**
+	 * Filter, decode & parse a line
+	 * @param buffer The mapped segment or buffer
+	 * @param start The start of the line
+	 * @param end The end of the line
+	 */
+	private void handle(ByteBuffer buffer, int start, int end){
+		lineOffset=nextOffset;
+		// The last line of a file may not end with a newline
+		nextOffset+=end-start;
+		if(end<buffer.limit() && buffer.get(end)=='\n')
+			nextOffset++;
+		countLine();
+		if(subjectFilter!=null && MappedLineScanner.spans(buffer, start, end, spans) && !subjectFilter.accept(buffer, spans[0], spans[1])){
+			filteredCount++;
+			return;
+		}
+		int length=end-start;
+		if(lineBytes.length<length)
+			lineBytes=new byte[Math.max(length, lineBytes.length*2)];
+		for(int i=0;i<length;i++)
+			lineBytes[i]=buffer.get(start+i);
+		parse(new String(lineBytes, 0, length, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Count the line & print the progress
+	 */
+	private void countLine(){
+		lineCount++;
+		if(progressListener!=null && lineCount%progressInterval==0){
+			progressListener.accept(lineCount);
+		}
+	}
+
+	/**
+	 * Parse a single line & send the triple to the sink. Errors are logged & the line is skipped.
+	 * @param line The line
+	 */
+	private void parse(String line){
+		try{
+			Triple triple=NTriplesLineParser.parse(line);
+			if(triple!=null){
+				sink.triple(triple);
+				tripleCount++;
+			}
+		}catch(DatatypeFormatException|RiotException|NumberFormatException de){
+			errorCount++;
+			logger.error("Illegal data format in line {} : {}", lineCount, line);
+		}
+	}
+
+	/**
+	 * @return The position of the line being parsed in the (decompressed) file, e.g. for the sink to checkpoint a load
+	 */
+	public long getLineOffset(){
+		return lineOffset;
+	}
+
+	/**
+	 * @return The number of lines read
+	 */
+	public long getLineCount(){
+		return lineCount;
+	}
+
+	/**
+	 * @return The number of triples sent to the sink
+	 */
+	public long getTripleCount(){
+		return tripleCount;
+	}
+
+	/**
+	 * @return The number of lines skipped due to errors
+	 */
+	public long getErrorCount(){
+		return errorCount;
+	}
+
+	/**
+	 * @return The number of lines skipped by the subject filter
+	 */
+	public long getFilteredCount(){
+		return filteredCount;
+	}
+}
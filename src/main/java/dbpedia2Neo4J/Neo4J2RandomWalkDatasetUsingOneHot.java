@@ -1,4 +1,6 @@
 package dbpedia2Neo4J;
+import static org.neo4j.driver.v1.Values.parameters;
+
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -6,6 +8,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -15,9 +18,7 @@ import java.util.Set;
 import org.neo4j.driver.v1.AuthTokens;
 import org.neo4j.driver.v1.Driver;
 import org.neo4j.driver.v1.GraphDatabase;
-import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.Session;
-import org.neo4j.driver.v1.StatementResult;
 import org.neo4j.driver.v1.exceptions.ClientException;
 import org.neo4j.driver.v1.types.Node;
 import org.neo4j.driver.v1.types.Relationship;
@@ -27,7 +28,9 @@ import org.slf4j.LoggerFactory;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 
-import randomWalks.Neo4JRandomWalkGenerator;
+import randomWalks.Neo4JGraphBackend;
+import randomWalks.ParallelWalkGenerator;
+import randomWalks.RandomWalkGenerator;
 import randomWalks.RelationshipLoadChecker;
 import randomWalks.StepType;
 
@@ -38,6 +41,8 @@ import randomWalks.StepType;
  */
 public class Neo4J2RandomWalkDatasetUsingOneHot{
 	private static final int TEST_LINES = 3100;
+	// The number of queries in flight when creating the bins
+	private static final int READ_WINDOW = 64;
 	// SLF4J Logger bound to Log4J 
 	private static final Logger logger=LoggerFactory.getLogger(Neo4J2RandomWalkDatasetUsingOneHot.class);
 	// Driver object created once for the connection
@@ -46,9 +51,12 @@ public class Neo4J2RandomWalkDatasetUsingOneHot{
 	private final Map<String,Map<String,Integer>> allRandomWalkIds;
 	private final Map<String,Integer> walkCounters; 
 
-	// Random Walks Generator
-	private final Neo4JRandomWalkGenerator neo4jRandomWalkGenerator;
+	// The binner for the relationships walked by the random walks
 	private RelationshipLoadChecker binner;
+	// The threads walking from the instances at the same time, & the seed of their random numbers
+	private int walkParallelism=1;
+	private long walkSeed=InMemoryGraphLoader.DEFAULT_WALK_SEED;
+
 	/**
 	 * Create a new connection object to Neo4J, to the existing database
 	 * @param neo4jUsername Username for Neo4J
@@ -59,14 +67,28 @@ public class Neo4J2RandomWalkDatasetUsingOneHot{
 		logger.info("Connecting to Neo4J...");
 		// Connect to Neo4J
 		driver = GraphDatabase.driver( "bolt://localhost:7687", AuthTokens.basic( neo4jUsername, neo4jPassword) );
-		//Create the random walk generator
-		neo4jRandomWalkGenerator=new Neo4JRandomWalkGenerator();
 		allRandomWalks=new HashMap<>();
 		allRandomWalkIds=new HashMap<>();
 		walkCounters=new HashMap<>();
 		logger.info("...Done");
 	}
 
+	/**
+	 * Set the number of threads walking from the instances at the same time, each with its own session
+	 * @param walkParallelism The number of threads
+	 */
+	public void setWalkParallelism(int walkParallelism){
+		this.walkParallelism=walkParallelism;
+	}
+
+	/**
+	 * Set the seed of the random walks. The walks are the same for the same seed, with any number of threads.
+	 * @param walkSeed The seed
+	 */
+	public void setWalkSeed(long walkSeed){
+		this.walkSeed=walkSeed;
+	}
+
 	/**
 	 * Create the dataset from onehot csv file 
 	 * @param oneHotCsv The onehot csv file 
@@ -78,7 +100,8 @@ public class Neo4J2RandomWalkDatasetUsingOneHot{
 		boolean createRelationshipBins = true;
 		if(createRelationshipBins){
 			//First, we load the relationships for binning, etc.
-			try{
+			// The queries are pipelined, with many in flight, & the results are binned as they come back.
+			try(AsyncBoltClient client=new AsyncBoltClient(driver, READ_WINDOW)){
 				CSVReader csvReader = new CSVReader(new FileReader(oneHotCsv));
 				//Read the header
 				String[] header=csvReader.readNext();
@@ -89,30 +112,27 @@ public class Neo4J2RandomWalkDatasetUsingOneHot{
 					String[] row=null;
 					long start=System.currentTimeMillis();
 					while((row=csvReader.readNext())!=null){
-						try(Session session=driver.session()){
-							// Print progress
-							String id=row[0];
-							String query = "MATCH (t:Thing {id:'"+ id +"'})-[r]->(o:Thing) return t,r,o";
-							StatementResult result = session.run(query);
-							if(result.hasNext()){
+						// Print progress
+						String id=row[0];
+						String query = "MATCH (t:Thing {id:{id}})-[r]->(o:Thing) return t,r,o";
+						client.readFirst(query, parameters("id", id), record -> {
+							if(record!=null){
 								logger.debug("\t{} Found!", id);
-								Record record = result.next();
 								Relationship relationship = record.get("r").asRelationship();
 								Node otherNode=record.get("o").asNode();
 								binner.bin(relationship.type(), otherNode.get("id").asObject().toString());
 							}
-							if(csvReader.getLinesRead()%1000==0){
-								logger.info("{} lines parsed to create bins from relationships in {} ms.", csvReader.getLinesRead(), (System.currentTimeMillis()-start));
-								start = System.currentTimeMillis();
-							}
-							if(test && csvReader.getLinesRead()>TEST_LINES){
-								break;
-							}
-						}catch (ClientException e) {
-							e.printStackTrace();
-							logger.error("Error in getting walks: {}",  e.getMessage());
+						});
+						if(csvReader.getLinesRead()%1000==0){
+							logger.info("{} lines parsed to create bins from relationships in {} ms.", csvReader.getLinesRead(), (System.currentTimeMillis()-start));
+							start = System.currentTimeMillis();
+						}
+						if(test && csvReader.getLinesRead()>TEST_LINES){
+							break;
 						}
 					}
+					// Wait for the last results
+					client.await();
 				}
 				// Close IO
 				csvReader.close();
@@ -125,108 +145,55 @@ public class Neo4J2RandomWalkDatasetUsingOneHot{
 		binner.buildBins();
 
 		//Then, we create the dataset using random walks.
-		try(Session session=driver.session()){
-			try{
-				CSVReader csvReader = new CSVReader(new FileReader(oneHotCsv));
-				//Read the header
-				String[] header=csvReader.readNext();
-				if(!header[0].equals("id")){
-					logger.error("First column is not the id");
-				}else{
-					//Read each line to get the id & then get random walks
-					String[] row=null;
-
-					long start = System.currentTimeMillis();
-					while((row=csvReader.readNext())!=null){
-						// Print progress
-						String id=row[0];
-						List<StepType> allowedSteps=new ArrayList<>();
-						allowedSteps.add(StepType.HAS_ATTRIBUTE);
-						allowedSteps.add(StepType.HAS_RELATIONSHIP);
-						allowedSteps.add(StepType.HAS_INCOMING_RELATIONSHIP);
-						allowedSteps.add(StepType.RELATIONSHIP_STEP);
-						//						allowedSteps.add(StepType.INCOMING_RELATIONSHIP_STEP);
-
-
-						List<Integer> maxLengths = new ArrayList<>();
-						maxLengths.add(2);
-
-						//						maxLengths.add(5);
-						//						maxLengths.add(7);
-
-						List<Integer> numbersOfWalks = new ArrayList<>();
-						numbersOfWalks.add(10);
-						numbersOfWalks.add(25);
-						numbersOfWalks.add(50);
-						//						numbersOfWalks.add(10);
-						//						numbersOfWalks.add(15);
-
-						Map<String, Set<String>> allWalks=neo4jRandomWalkGenerator.getWalks(session, id, allowedSteps, binner,maxLengths, numbersOfWalks);
-						//						Map<String, Set<String>> allWalks=neo4jRandomWalkGenerator.getAll(session, id, allowedSteps, binner);
-						for(String dataset:allWalks.keySet()){
-							Set<String> walks=allWalks.get(dataset);
-							if(!walks.isEmpty()){
-								logger.debug("{} : {}", id, walks.size());
-								Set<String> ws = walks;
-								Map<String, int[]> randomWalks = allRandomWalks.get(dataset);
-								if(randomWalks==null)
-								{
-									randomWalks=new HashMap<>();
-									allRandomWalks.put(dataset, randomWalks);
-								}
-								Map<String, Integer> randomWalkIds = allRandomWalkIds.get(dataset);
-								if(randomWalkIds==null)
-								{
-									randomWalkIds=new HashMap<>();
-									allRandomWalkIds.put(dataset, randomWalkIds);
-								}
-								if(!walkCounters.containsKey(dataset))
-									walkCounters.put(dataset, 1);
-
-								int walkCounter=walkCounters.get(dataset);
-
-								int[] oneHotWs=randomWalks.get(id);
-								if(oneHotWs==null){
-									oneHotWs=new int[ws.size()];
-									for(int i=0;i<oneHotWs.length;i++){
-										oneHotWs[i]=-1;
-									}
-									randomWalks.put(id, oneHotWs);
-								}
-								int counter=0;
-								for(String w:ws){
-									Integer walkId=randomWalkIds.get(w);
-									if(walkId==null){
-										walkId=walkCounter++;
-										randomWalkIds.put(w, walkId);
-									}
-									if(oneHotWs==null)
-										System.err.println("Here");
-									oneHotWs[counter]=walkId;
-									counter++;
-								}
-
-								walkCounters.put(dataset, walkCounter);
-							}
-						}
-						if(csvReader.getLinesRead()%1000==0){
-							logger.info("{} lines parsed to random walk in {} ms.", csvReader.getLinesRead(), (System.currentTimeMillis()-start));
-							start = System.currentTimeMillis();
-						}
-						if(test && csvReader.getLinesRead()>TEST_LINES){
-							break;
-						}
-					}
-				}
-				// Close IO
-				csvReader.close();
-			}catch(IOException e){
-				// Something went wrong with the files.
-				logger.error("Cannot load the data from the file due to file issue:" + e.getMessage());
+		List<StepType> allowedSteps=new ArrayList<>();
+		allowedSteps.add(StepType.HAS_ATTRIBUTE);
+		allowedSteps.add(StepType.HAS_RELATIONSHIP);
+		allowedSteps.add(StepType.HAS_INCOMING_RELATIONSHIP);
+		allowedSteps.add(StepType.RELATIONSHIP_STEP);
+		//		allowedSteps.add(StepType.INCOMING_RELATIONSHIP_STEP);
+
+		List<Integer> maxLengths = new ArrayList<>();
+		maxLengths.add(2);
+		//		maxLengths.add(5);
+		//		maxLengths.add(7);
+
+		List<Integer> numbersOfWalks = new ArrayList<>();
+		numbersOfWalks.add(10);
+		numbersOfWalks.add(25);
+		numbersOfWalks.add(50);
+		//		numbersOfWalks.add(10);
+		//		numbersOfWalks.add(15);
+
+		// Sessions aren't thread safe, so each thread walks over the graph in Neo4J with its own session
+		List<Session> sessions=Collections.synchronizedList(new ArrayList<>());
+		ThreadLocal<RandomWalkGenerator> walkGenerators=ThreadLocal.withInitial(() -> {
+			Session session=driver.session();
+			sessions.add(session);
+			RandomWalkGenerator walkGenerator=new RandomWalkGenerator(new Neo4JGraphBackend(session));
+			walkGenerator.setBinner(binner);
+			walkGenerator.setVariableLength(true);
+			return walkGenerator;
+		});
+		try{
+			//Read the ids from the onehot csv file & then walk from all of them at the same time
+			List<String> ids=InMemoryGraphLoader.getIds(oneHotCsv, test);
+			ParallelWalkGenerator parallelWalkGenerator=new ParallelWalkGenerator(walkParallelism, walkSeed);
+			Map<String, ParallelWalkGenerator.Dataset> datasets=parallelWalkGenerator.walk(ids,
+					(id, random) -> walkGenerators.get().getWalks(id, allowedSteps, maxLengths, numbersOfWalks, random));
+			for(Map.Entry<String, ParallelWalkGenerator.Dataset> dataset:datasets.entrySet()){
+				allRandomWalks.put(dataset.getKey(), dataset.getValue().getWalks());
+				allRandomWalkIds.put(dataset.getKey(), dataset.getValue().getWalkIds());
+				walkCounters.put(dataset.getKey(), dataset.getValue().getWalkCounter());
 			}
+		}catch(IOException e){
+			// Something went wrong with the files.
+			logger.error("Cannot load the data from the file due to file issue:" + e.getMessage());
 		}catch (ClientException e) {
 			e.printStackTrace();
 			logger.error("Error in getting walks: {}",  e.getMessage());
+		}finally{
+			for(Session session:sessions)
+				session.close();
 		}
 
 		for(String dataset:allRandomWalks.keySet()){
@@ -347,6 +314,7 @@ public class Neo4J2RandomWalkDatasetUsingOneHot{
 	 */
 	public static void main(String[] args){
 		Neo4J2RandomWalkDatasetUsingOneHot loadFile = new Neo4J2RandomWalkDatasetUsingOneHot("neo4j", "icd");
+		loadFile.setWalkParallelism(Runtime.getRuntime().availableProcessors());
 		loadFile.create(new File("/Users/rparundekar/dataspace/dbpedia2016/oneHot.csv"), "all4Final");
 	}
 
@@ -0,0 +1,309 @@
+package dbpedia2Neo4J;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.jena.graph.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.opencsv.CSVWriter;
+
+/**
+ *  This is an exporter of the DBpedia data as CSV files for the offline Neo4J importer (neo4j-admin import).
+ *  The triples are cleaned the same way as in DBpedia2Neo4JLoader, so the imported graph is the same as the loaded one:
+ *  the nodes are :Thing with the cleaned id & the literals become properties.
+ *  The relationships are streamed into one file per relationship type. The nodes are kept in memory,
+ *  since each node is written once with all its properties. Nodes with similar properties are written to the
+ *  same file, so that the files don't need a column for each of the properties in DBpedia.
+ *  NOTE: Currently only tested on Oct 2016 files for infobox_properties_en.ttl
+ * @author rparundekar
+ */
+public class Neo4JCsvExporter implements TripleCache.Handler{
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(Neo4JCsvExporter.class);
+
+	// The arguments for neo4j-admin import, used as: neo4j-admin import --f import.args
+	public static final String ARGS_FILE_NAME="import.args";
+	// The maximum number of property columns in a node file, unless the properties of a single node need more
+	private static final int MAX_COLUMNS=128;
+	// The delimiter of the values in an array. Tabs in the values are replaced with spaces.
+	private static final char ARRAY_DELIMITER='\t';
+	// The number of relationships of a type buffered before they are appended to the file
+	private static final int RELATIONSHIP_BUFFER=10000;
+
+	private final File outputFolder;
+	// The shared dictionary with the cleaned URIs
+	private UriDictionary dictionary;
+	private int parallelism=1;
+
+	// The properties of each node, by cleaned id. Nodes without properties have no map.
+	private final Map<String,Map<String,Object>> nodes=new LinkedHashMap<>();
+	// The buffered relationships for each type & the file index of the types that have a file.
+	// The files are numbered, since the types can differ only by case.
+	private final Map<String,List<String[]>> relationships=new HashMap<>();
+	private final Map<String,Integer> relationshipFiles=new LinkedHashMap<>();
+	private long relationshipCount=0;
+
+	/**
+	 * Create a new exporter
+	 * @param outputFolder The folder for the CSV files
+	 */
+	public Neo4JCsvExporter(File outputFolder){
+		this.outputFolder=outputFolder;
+	}
+
+	/**
+	 * Parse the text files with many threads
+	 * @param parallelism The number of parsing threads
+	 */
+	public void setParallelism(int parallelism){
+		this.parallelism=parallelism;
+	}
+
+	/**
+	 * Export the RDF data from the DBPedia turtle (.ttl) files
+	 * @param turtleFiles The DBPedia turtle files e.g. infobox_properties_en.ttl
+	 */
+	public void export(File... turtleFiles){
+		try{
+			outputFolder.mkdirs();
+			for(File turtleFile:turtleFiles){
+				// The bad lines are skipped & reported instead of stopping.
+				// If the file was converted into a triple cache, that is read instead.
+				dictionary=UriDictionary.forDataFile(turtleFile);
+				TripleCache cache=TripleCache.find(turtleFile);
+				if(cache!=null)
+					cache.read(this);
+				else
+					new IngestPipeline(this, dictionary, parallelism).read(turtleFile);
+				dictionary.save();
+				dictionary.release();
+				dictionary=null;
+			}
+			for(String type:relationships.keySet())
+				writeRelationships(type);
+			List<String> nodeFiles=writeNodes();
+			writeArgs(nodeFiles);
+			logger.info("Exported {} nodes in {} files & {} relationships of {} types", nodes.size(), nodeFiles.size(), relationshipCount, relationshipFiles.size());
+			logger.info("Import with: neo4j-admin import --f {}", new File(outputFolder, ARGS_FILE_NAME).getAbsolutePath());
+		}catch(IOException e){
+			// Something went wrong with the files.
+			logger.error("Cannot load the data from the file due to file issue:" + e.getMessage());
+		}finally{
+			// The dictionary is only kept in memory during the load
+			if(dictionary!=null){
+				dictionary.release();
+				dictionary=null;
+			}
+		}
+	}
+
+	@Override
+	public void triple(TripleCache.Term s, TripleCache.Term p, TripleCache.Term term) {
+		// Get the cleaned subject & predicate URIs (There are no blank nodes in DBpedia)
+		String subject = s.getCleaned();
+		String predicate = p.getCleaned();
+		if(!nodes.containsKey(subject))
+			nodes.put(subject, null);
+
+		if(term.isURI()){
+			// The predicate is the relationship
+			String object=term.getCleaned();
+			if(!nodes.containsKey(object))
+				nodes.put(object, null);
+			List<String[]> rows=relationships.get(predicate);
+			if(rows==null){
+				rows=new ArrayList<>();
+				relationships.put(predicate, rows);
+			}
+			rows.add(new String[]{subject, object});
+			relationshipCount++;
+			if(rows.size()>=RELATIONSHIP_BUFFER)
+				writeRelationships(predicate);
+		}else{
+			// The same property & value as the loader, with an array for many values
+			Node object = term.getNode();
+			Map.Entry<String, Object> property=DBpedia2Neo4JLoader.property(predicate, object);
+			Map<String,Object> properties=nodes.get(subject);
+			if(properties==null){
+				properties=new HashMap<>(4);
+				nodes.put(subject, properties);
+			}
+			DBpedia2Neo4JLoader.addValue(properties, property.getKey(), property.getValue());
+		}
+	}
+
+	/**
+	 * Append the buffered relationships of the type to its file
+	 * @param type The relationship type
+	 */
+	private void writeRelationships(String type){
+		List<String[]> rows=relationships.get(type);
+		if(rows.isEmpty())
+			return;
+		boolean exists=relationshipFiles.containsKey(type);
+		if(!exists)
+			relationshipFiles.put(type, relationshipFiles.size());
+		File file=relationshipFile(type);
+		try(CSVWriter csvWriter=new CSVWriter(new FileWriter(file, exists))){
+			if(!exists)
+				csvWriter.writeNext(new String[]{":START_ID(Thing)", ":END_ID(Thing)"}, false);
+			for(String[] row:rows)
+				csvWriter.writeNext(row, false);
+		}catch(IOException e){
+			// Something went wrong with the files.
+			logger.error("Cannot write the relationships due to file issue:" + e.getMessage());
+		}
+		rows.clear();
+	}
+
+	/**
+	 * Write the nodes, grouped by their properties
+	 * @return The node files
+	 */
+	private List<String> writeNodes() throws IOException{
+		// Group the nodes by their (sorted) properties, so that similar nodes are next to each other
+		Map<String,List<String>> groups=new TreeMap<>();
+		for(Map.Entry<String,Map<String,Object>> node:nodes.entrySet()){
+			String signature="";
+			if(node.getValue()!=null){
+				String[] properties=node.getValue().keySet().toArray(new String[0]);
+				Arrays.sort(properties);
+				signature=String.join(",", properties);
+			}
+			List<String> group=groups.get(signature);
+			if(group==null){
+				group=new ArrayList<>();
+				groups.put(signature, group);
+			}
+			group.add(node.getKey());
+		}
+
+		// Pack the groups into files, until the file has too many columns
+		List<String> nodeFiles=new ArrayList<>();
+		List<String> ids=new ArrayList<>();
+		Set<String> columns=new HashSet<>();
+		for(Map.Entry<String,List<String>> group:groups.entrySet()){
+			Set<String> groupColumns=new HashSet<>();
+			if(!group.getKey().isEmpty())
+				groupColumns.addAll(Arrays.asList(group.getKey().split(",")));
+			Set<String> union=new HashSet<>(columns);
+			union.addAll(groupColumns);
+			if(!ids.isEmpty() && union.size()>MAX_COLUMNS){
+				nodeFiles.add(writeNodeFile(nodeFiles.size(), ids, columns));
+				ids.clear();
+				union=groupColumns;
+			}
+			ids.addAll(group.getValue());
+			columns=union;
+		}
+		if(!ids.isEmpty())
+			nodeFiles.add(writeNodeFile(nodeFiles.size(), ids, columns));
+		return nodeFiles;
+	}
+
+	/**
+	 * Write a node file. A column is a double if all its values in the file are numbers, otherwise a string,
+	 * & an array if a node has many values.
+	 * @param index The index of the file
+	 * @param ids The cleaned ids of the nodes
+	 * @param columns The properties of the nodes
+	 * @return The path of the file
+	 */
+	private String writeNodeFile(int index, List<String> ids, Set<String> columns) throws IOException{
+		String[] properties=columns.toArray(new String[0]);
+		Arrays.sort(properties);
+		String[] header=new String[properties.length+1];
+		header[0]="id:ID(Thing)";
+		boolean[] isDouble=new boolean[properties.length];
+		boolean[] isArray=new boolean[properties.length];
+		for(int i=0;i<properties.length;i++){
+			isDouble[i]=true;
+			for(String id:ids){
+				Map<String,Object> values=nodes.get(id);
+				Object value=values==null?null:values.get(properties[i]);
+				if(value instanceof List){
+					isArray[i]=true;
+					for(Object element:(List<?>)value)
+						isDouble[i]&=element instanceof Double;
+				}else if(value!=null && !(value instanceof Double)){
+					isDouble[i]=false;
+				}
+			}
+			header[i+1]=properties[i] + (isDouble[i]?":double":":string") + (isArray[i]?"[]":"");
+		}
+
+		File file=new File(outputFolder, "nodes_" + index + ".csv");
+		try(CSVWriter csvWriter=new CSVWriter(new FileWriter(file))){
+			csvWriter.writeNext(header, false);
+			String[] row=new String[header.length];
+			for(String id:ids){
+				Map<String,Object> values=nodes.get(id);
+				row[0]=id;
+				for(int i=0;i<properties.length;i++){
+					// Missing properties are empty (null)
+					Object value=values==null?null:values.get(properties[i]);
+					row[i+1]=value==null?"":isArray[i]?toArray(value):value.toString();
+				}
+				csvWriter.writeNext(row, false);
+			}
+		}
+		return file.getAbsolutePath();
+	}
+
+	/**
+	 * The value of an array column
+	 */
+	private static String toArray(Object value){
+		if(!(value instanceof List))
+			return value.toString().replace(ARRAY_DELIMITER, ' ');
+		StringBuilder array=new StringBuilder();
+		for(Object element:(List<?>)value){
+			if(array.length()>0)
+				array.append(ARRAY_DELIMITER);
+			array.append(element.toString().replace(ARRAY_DELIMITER, ' '));
+		}
+		return array.toString();
+	}
+
+	/**
+	 * Write the arguments for neo4j-admin import
+	 * @param nodeFiles The node files
+	 */
+	private void writeArgs(List<String> nodeFiles) throws IOException{
+		try(PrintWriter writer=new PrintWriter(new FileWriter(new File(outputFolder, ARGS_FILE_NAME)))){
+			writer.println("--id-type STRING");
+			writer.println("--multiline-fields true");
+			writer.println("--array-delimiter TAB");
+			for(String nodeFile:nodeFiles)
+				writer.println("--nodes:Thing \"" + nodeFile + "\"");
+			for(String type:relationshipFiles.keySet())
+				writer.println("--relationships:" + type + " \"" + relationshipFile(type).getAbsolutePath() + "\"");
+		}
+	}
+
+	private File relationshipFile(String type){
+		return new File(outputFolder, "relationships_" + relationshipFiles.get(type) + ".csv");
+	}
+
+	/**
+	 * Export the infobox properties for neo4j-admin import
+	 * @param args
+	 */
+	public static void main(String[] args){
+		Neo4JCsvExporter exporter = new Neo4JCsvExporter(new File("/Users/rparundekar/dataspace/dbpedia2016/neo4jImport/"));
+		exporter.setParallelism(Runtime.getRuntime().availableProcessors());
+		exporter.export(new File("/Users/rparundekar/dataspace/dbpedia2016/infobox_properties_en.ttl"));
+	}
+}
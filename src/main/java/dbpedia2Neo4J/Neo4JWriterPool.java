@@ -0,0 +1,392 @@
+package dbpedia2Neo4J;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Many writers to Neo4J, that don't deadlock on the same nodes.
+ * The triples are partitioned by the hash of the subject, so each node is only MERGEd by the writer that owns it.
+ * A relationship between nodes of two partitions can't be created by either writer, so each writer only MERGEs
+ * its node, & the relationship is created in a second phase, once all the nodes exist.
+ * The second phase is one writer in the order of the subjects. Deadlocks are retried by the batches.
+ * The relationships for the second phase wait on disk, in sorted runs, & are merged in order when they are written.
+ * If a writer fails, the pool fails: the next batch sent, or the close, throws the failure.
+ * @author rparundekar
+ */
+public class Neo4JWriterPool {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(Neo4JWriterPool.class);
+
+	// The number of full batches waiting for each writer
+	private static final int QUEUE_CAPACITY=4;
+	// How often a wait for a writer checks if the pool failed, in ms
+	private static final long FAILURE_CHECK_INTERVAL=100;
+	// The number of relationships between partitions kept in memory, before they are sorted & written as a run on disk
+	private static final int LINK_RUN_SIZE=100000;
+	// Orders the relationships between partitions: type, subject, object
+	private static final Comparator<String[]> LINK_ORDER=(a,b) -> {
+		for(int i=0;i<3;i++){
+			int c=a[i].compareTo(b[i]);
+			if(c!=0)
+				return c;
+		}
+		return 0;
+	};
+
+	/**
+	 * A writer, with the batches of its partition
+	 */
+	public static class Worker implements Runnable{
+		private final String name;
+		private final Session session;
+		private final Neo4JWriterPool pool;
+		private final BlockingQueue<WriteBatch> queue=new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		private WriteBatch batch;
+		private volatile long count=0;
+		private volatile long busyNanos=0;
+
+		private Worker(String name, Session session, NodeIdCache nodeIds, Neo4JWriterPool pool){
+			this.name=name;
+			this.session=session;
+			this.pool=pool;
+			batch=new WriteBatch(nodeIds);
+		}
+
+		@Override
+		public void run() {
+			try{
+				while(true){
+					WriteBatch next=queue.take();
+					if(next==END)
+						break;
+					long start=System.nanoTime();
+					pool.write(next, session);
+					busyNanos+=System.nanoTime()-start;
+					count+=next.size();
+				}
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}catch(Throwable e){
+				// e.g. the database is unavailable. The pool stops feeding the writers & throws this.
+				logger.error("{} failed: {}", name, e.getMessage());
+				pool.failure=e;
+			}finally{
+				session.close();
+			}
+		}
+
+		/**
+		 * @return The name of the writer
+		 */
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 * @return The number of rows written
+		 */
+		public long getCount(){
+			return count;
+		}
+
+		/**
+		 * @return The rows written per second of writing
+		 */
+		public double getThroughput(){
+			return busyNanos==0?0:count*1e9/busyNanos;
+		}
+
+		@Override
+		public String toString(){
+			return String.format("%s: %d rows (%.0f/s)", name, count, getThroughput());
+		}
+	}
+
+	// Marks the end of the batches
+	private static final WriteBatch END=new WriteBatch(null);
+
+	private final Driver driver;
+	private final int batchSize;
+	private final NodeIdCache nodeIds;
+	private final List<Worker> workers=new ArrayList<>();
+	private final List<Thread> threads=new ArrayList<>();
+	// The relationships between partitions, for the second phase: [type, subject, object], & the sorted runs of them on disk
+	private final List<String[]> links=new ArrayList<>();
+	private final List<File> linkRuns=new ArrayList<>();
+	private long linkCount=0;
+	private final long start=System.currentTimeMillis();
+	// A failure of a writer, which stops the writes
+	private volatile Throwable failure;
+	// The rows whose statements failed & were skipped
+	private final AtomicLong failedCount=new AtomicLong();
+
+	/**
+	 * Create & start the writers
+	 * @param driver The driver
+	 * @param workers The number of writers
+	 * @param batchSize The number of rows in a batch
+	 * @param nodeIds The cache of the node ids, or null
+	 */
+	Neo4JWriterPool(Driver driver, int workers, int batchSize, NodeIdCache nodeIds){
+		this.driver=driver;
+		this.batchSize=Math.max(1, batchSize);
+		this.nodeIds=nodeIds;
+		for(int i=0;i<workers;i++){
+			Worker worker=new Worker("writer-" + i, driver.session(), nodeIds, this);
+			Thread thread=new Thread(worker, worker.getName());
+			thread.setDaemon(true);
+			thread.start();
+			this.workers.add(worker);
+			threads.add(thread);
+		}
+	}
+
+	private Worker partition(String id){
+		return workers.get((id.hashCode() & Integer.MAX_VALUE) % workers.size());
+	}
+
+	/**
+	 * Write a relationship
+	 * @param relationship The relationship type
+	 * @param subject The cleaned subject
+	 * @param object The cleaned object
+	 */
+	public void addRelationship(String relationship, String subject, String object){
+		Worker owner=partition(subject);
+		Worker objectOwner=partition(object);
+		if(owner==objectOwner){
+			owner.batch.addRelationship(relationship, subject, object);
+			full(owner);
+			return;
+		}
+		// Each owner creates its node, & the relationship is created later
+		owner.batch.addNode(subject);
+		full(owner);
+		objectOwner.batch.addNode(object);
+		full(objectOwner);
+		links.add(new String[]{relationship, subject, object});
+		linkCount++;
+		if(links.size()>=LINK_RUN_SIZE)
+			spillLinks();
+	}
+
+	/**
+	 * Sort the relationships between partitions in memory & write them as a run on disk
+	 */
+	private void spillLinks(){
+		if(links.isEmpty())
+			return;
+		Collections.sort(links, LINK_ORDER);
+		try{
+			File run=File.createTempFile("links", ".run");
+			run.deleteOnExit();
+			try(DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1<<16))){
+				out.writeInt(links.size());
+				for(String[] link:links)
+					for(String value:link)
+						out.writeUTF(value);
+			}
+			linkRuns.add(run);
+		}catch(IOException e){
+			throw new IllegalStateException("Cannot write the relationships between partitions to disk", e);
+		}
+		links.clear();
+	}
+
+	/**
+	 * Reads a sorted run of relationships from disk
+	 */
+	private static class LinkRun implements AutoCloseable{
+		private final DataInputStream in;
+		private int left;
+		private String[] current;
+
+		private LinkRun(File file) throws IOException{
+			in=new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1<<16));
+			left=in.readInt();
+		}
+
+		/**
+		 * @return False if the run is done
+		 */
+		private boolean next() throws IOException{
+			if(left==0){
+				current=null;
+				return false;
+			}
+			current=new String[]{in.readUTF(), in.readUTF(), in.readUTF()};
+			left--;
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException{
+			in.close();
+		}
+	}
+
+	/**
+	 * Write the properties of a node
+	 * @param subject The cleaned subject
+	 * @param properties The properties
+	 */
+	public void addProperties(String subject, Map<String,Object> properties){
+		Worker owner=partition(subject);
+		owner.batch.addProperties(subject, properties);
+		full(owner);
+	}
+
+	private void full(Worker worker){
+		if(worker.batch.size()>=batchSize)
+			send(worker);
+	}
+
+	private void send(Worker worker){
+		if(worker.batch.size()==0)
+			return;
+		put(worker, worker.batch);
+		worker.batch=new WriteBatch(nodeIds);
+	}
+
+	/**
+	 * Give a batch to a writer, waiting if the writer is behind
+	 * @throws IllegalStateException Thrown if a writer failed
+	 */
+	private void put(Worker worker, WriteBatch batch){
+		try{
+			checkFailure();
+			while(!worker.queue.offer(batch, FAILURE_CHECK_INTERVAL, TimeUnit.MILLISECONDS))
+				checkFailure();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for " + worker.getName(), e);
+		}
+	}
+
+	private void checkFailure(){
+		if(failure!=null)
+			throw new IllegalStateException("Writing to the database failed", failure);
+	}
+
+	/**
+	 * Write the rest of the batches, wait for the writers & then create the relationships between the partitions
+	 */
+	public void close(){
+		// First phase: the nodes, properties & relationships inside the partitions
+		try{
+			for(Worker worker:workers){
+				send(worker);
+				put(worker, END);
+			}
+		}finally{
+			// Stop the writers still running if one failed
+			if(failure!=null)
+				for(Thread thread:threads)
+					thread.interrupt();
+			for(Thread thread:threads){
+				try{
+					thread.join();
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		checkFailure();
+		for(Worker worker:workers)
+			logger.info("{}", worker);
+		logger.info("First phase done in {} ms, {} relationships between partitions left", System.currentTimeMillis()-start, linkCount);
+
+		// Second phase: the relationships between partitions, in the order of the subjects
+		long phaseStart=System.currentTimeMillis();
+		spillLinks();
+		List<LinkRun> runs=new ArrayList<>();
+		try(Session session=driver.session()){
+			// Merge the sorted runs, so the relationships are written by type & in the order of the subjects
+			PriorityQueue<LinkRun> next=new PriorityQueue<>((a,b) -> LINK_ORDER.compare(a.current, b.current));
+			for(File file:linkRuns){
+				LinkRun run=new LinkRun(file);
+				runs.add(run);
+				if(run.next())
+					next.add(run);
+			}
+			WriteBatch batch=new WriteBatch(nodeIds);
+			String type=null;
+			while(!next.isEmpty()){
+				LinkRun run=next.poll();
+				String[] link=run.current;
+				// One type in each batch
+				if(type!=null && (!type.equals(link[0]) || batch.size()>=batchSize)){
+					write(batch, session);
+					batch=new WriteBatch(nodeIds);
+				}
+				type=link[0];
+				batch.addLink(link[0], link[1], link[2]);
+				if(run.next())
+					next.add(run);
+			}
+			write(batch, session);
+		}catch(IOException e){
+			throw new IllegalStateException("Cannot read the relationships between partitions from disk", e);
+		}finally{
+			for(LinkRun run:runs){
+				try{
+					run.close();
+				}catch(IOException e){
+					// Closing anyway
+				}
+			}
+			for(File file:linkRuns)
+				file.delete();
+			linkRuns.clear();
+		}
+		long elapsed=System.currentTimeMillis()-phaseStart;
+		logger.info("Second phase: {} relationships in {} ms ({}/s)", linkCount, elapsed, elapsed==0?linkCount:linkCount*1000/elapsed);
+	}
+
+	/**
+	 * Write a batch. A wrong statement is logged & skipped, since the writes of the pool aren't checkpointed,
+	 * so one bad triple doesn't stop the load.
+	 */
+	private void write(WriteBatch batch, Session session){
+		try{
+			batch.write(session);
+		}catch(ClientException e){
+			failedCount.addAndGet(batch.failedCount());
+		}
+	}
+
+	/**
+	 * @return The number of rows that failed to be written & were skipped
+	 */
+	public long getFailedCount(){
+		return failedCount.get();
+	}
+
+	/**
+	 * @return The writers, e.g. for their throughput
+	 */
+	public List<Worker> getWorkers(){
+		return Collections.unmodifiableList(workers);
+	}
+}
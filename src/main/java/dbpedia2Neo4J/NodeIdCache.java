@@ -0,0 +1,103 @@
+package dbpedia2Neo4J;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the Neo4J internal node ids, by cleaned DBpedia id, so that the loader doesn't need to MERGE
+ * the nodes it already knows. The ids are kept in a long array & evicted with the CLOCK algorithm:
+ * the hand clears the referenced bit of the entries it passes & evicts the first entry that wasn't referenced.
+ * Only ids of committed nodes should be put, since the cached nodes are matched by id.
+ * @author rparundekar
+ */
+class NodeIdCache {
+	public static final long MISSING=-1;
+
+	private final Map<String,Integer> slots;
+	// The slot indexes, boxed once
+	private final Integer[] indexes;
+	private final String[] keys;
+	private final long[] nodeIds;
+	private final boolean[] referenced;
+	private int size=0;
+	private int hand=0;
+	private long hits=0;
+	private long misses=0;
+
+	/**
+	 * Create the cache
+	 * @param capacity The maximum number of ids
+	 */
+	NodeIdCache(int capacity){
+		slots=new HashMap<>(capacity*4/3+1);
+		indexes=new Integer[capacity];
+		keys=new String[capacity];
+		nodeIds=new long[capacity];
+		referenced=new boolean[capacity];
+		for(int i=0;i<capacity;i++)
+			indexes[i]=i;
+	}
+
+	/**
+	 * Get the node id
+	 * @param id The cleaned DBpedia id
+	 * @return The Neo4J node id, or MISSING
+	 */
+	synchronized long get(String id){
+		Integer slot=slots.get(id);
+		if(slot==null){
+			misses++;
+			return MISSING;
+		}
+		hits++;
+		referenced[slot]=true;
+		return nodeIds[slot];
+	}
+
+	/**
+	 * Add the node id, evicting another id if the cache is full
+	 * @param id The cleaned DBpedia id
+	 * @param nodeId The Neo4J node id
+	 */
+	synchronized void put(String id, long nodeId){
+		Integer slot=slots.get(id);
+		if(slot==null){
+			if(size<keys.length){
+				slot=indexes[size++];
+			}else{
+				// Move the hand until an entry that wasn't referenced since the last pass
+				while(referenced[hand]){
+					referenced[hand]=false;
+					hand=(hand+1)%keys.length;
+				}
+				slot=indexes[hand];
+				slots.remove(keys[hand]);
+				hand=(hand+1)%keys.length;
+			}
+			keys[slot]=id;
+			slots.put(id, slot);
+		}
+		nodeIds[slot]=nodeId;
+		referenced[slot]=false;
+	}
+
+	/**
+	 * @return The number of ids
+	 */
+	synchronized int size(){
+		return size;
+	}
+
+	/**
+	 * @return The fraction of the lookups that found the id
+	 */
+	synchronized double getHitRate(){
+		long lookups=hits+misses;
+		return lookups==0?0:(double)hits/lookups;
+	}
+
+	@Override
+	public synchronized String toString(){
+		return String.format("%d node ids cached, %.1f%% hit rate (%d hits, %d misses)", size, 100*getHitRate(), hits, misses);
+	}
+}
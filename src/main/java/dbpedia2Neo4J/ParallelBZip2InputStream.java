@@ -0,0 +1,281 @@
+package dbpedia2Neo4J;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Input stream that decompresses a bzip2 file using many threads.
+ * A scanner thread looks for the 48 bit block magic at every bit position. Each candidate block is
+ * decoded on a fork-join pool & the blocks are returned in order. Since the magic can also appear by
+ * chance inside the compressed data, only the candidates that start exactly where the previous block
+ * ended are used. Files with many concatenated streams (e.g. from pbzip2) are supported.
+ * @author rparundekar
+ */
+public class ParallelBZip2InputStream extends InputStream{
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(ParallelBZip2InputStream.class);
+
+	private static final long NO_MORE_CANDIDATES=-1;
+	private static final long BLOCK_MAGIC_MASK=0xffffffffffffL;
+	// Blocks are decoded before their stream header is known, so use the largest size
+	private static final int MAX_BLOCK_SIZE=900000;
+
+	private final File file;
+	private final FileChannel channel;
+	private final long fileLength;
+	private final ForkJoinPool pool;
+	private final int maxInFlight;
+
+	// Candidate block starts (in bits) found by the scanner
+	private final BlockingQueue<Long> candidates;
+	private final Thread scanner;
+	private volatile IOException scannerError;
+
+	// Blocks being decoded, in the order of the candidates
+	private final Deque<Long> inFlightStarts=new ArrayDeque<>();
+	private final Deque<Future<BZip2BlockDecoder.Block>> inFlight=new ArrayDeque<>();
+	private boolean noMoreCandidates=false;
+
+	// The stream being read
+	private long expectedBit;
+	private int combinedCrc;
+	private boolean finished=false;
+
+	// The current decoded block
+	private byte[] current=new byte[0];
+	private int currentPosition=0;
+	private int currentLength=0;
+	private long blockCount=0;
+
+	/**
+	 * Open the bzip2 file
+	 * @param file The .bz2 file
+	 * @param parallelism The number of threads used for decoding
+	 * @throws IOException Thrown if the file cannot be read or is not a bzip2 file
+	 */
+	public ParallelBZip2InputStream(File file, int parallelism) throws IOException{
+		this.file=file;
+		this.channel=FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.fileLength=channel.size();
+		this.pool=new ForkJoinPool(parallelism);
+		this.maxInFlight=parallelism*2;
+		this.candidates=new ArrayBlockingQueue<>(1024);
+		startStream(0);
+		this.scanner=new Thread(this::scan, "bzip2-scanner-" + file.getName());
+		this.scanner.setDaemon(true);
+		this.scanner.start();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(currentPosition>=currentLength && !nextBlock())
+			return -1;
+		return current[currentPosition++]&0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len==0)
+			return 0;
+		if(currentPosition>=currentLength && !nextBlock())
+			return -1;
+		int n=Math.min(len, currentLength-currentPosition);
+		System.arraycopy(current, currentPosition, b, off, n);
+		currentPosition+=n;
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		finished=true;
+		scanner.interrupt();
+		pool.shutdownNow();
+		channel.close();
+	}
+
+	/**
+	 * Read the stream header at the byte position & expect the first block after it
+	 */
+	private void startStream(long position) throws IOException{
+		byte[] header=readBytes(position, 4);
+		if(header.length<4 || header[0]!='B' || header[1]!='Z' || header[2]!='h' || header[3]<'1' || header[3]>'9')
+			throw new IOException(file.getName() + " is not a bzip2 file");
+		expectedBit=(position+4)*8;
+		combinedCrc=0;
+	}
+
+	/**
+	 * Move to the next decoded block
+	 * @return False if there are no more blocks
+	 */
+	private boolean nextBlock() throws IOException{
+		while(!finished){
+			// What's at the expected position: another block or the end of the stream?
+			long magic=readBits(expectedBit, 48);
+			if(magic==BZip2BlockDecoder.END_OF_STREAM_MAGIC){
+				endStream();
+				continue;
+			}
+			if(magic!=BZip2BlockDecoder.BLOCK_MAGIC)
+				throw new IOException("Corrupt bzip2 data in " + file.getName() + " at bit " + expectedBit);
+
+			// Find the candidate that starts at the expected position
+			fill();
+			while(!inFlightStarts.isEmpty() && inFlightStarts.peekFirst()<expectedBit){
+				// Magic found by chance inside a block
+				inFlightStarts.pollFirst();
+				inFlight.pollFirst().cancel(false);
+				fill();
+			}
+			if(inFlightStarts.isEmpty() || inFlightStarts.peekFirst()!=expectedBit)
+				throw new IOException("Missing bzip2 block in " + file.getName() + " at bit " + expectedBit);
+			inFlightStarts.pollFirst();
+			BZip2BlockDecoder.Block block;
+			try{
+				block=inFlight.pollFirst().get();
+			}catch(ExecutionException e){
+				throw new IOException("Cannot decode bzip2 block in " + file.getName() + ": " + e.getCause().getMessage(), e.getCause());
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while decoding " + file.getName());
+			}
+			fill();
+			expectedBit=block.endBit;
+			combinedCrc=BZip2BlockDecoder.combineCrc(combinedCrc, block.crc);
+			blockCount++;
+			if(block.length==0)
+				continue;
+			current=block.data;
+			currentLength=block.length;
+			currentPosition=0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check the stream CRC & look for a concatenated stream
+	 */
+	private void endStream() throws IOException{
+		int streamCrc=(int)readBits(expectedBit+48, 32);
+		if(streamCrc!=combinedCrc)
+			throw new IOException("bzip2 stream CRC mismatch in " + file.getName());
+		long next=(expectedBit+48+32+7)/8;
+		if(next+4<=fileLength && readBytes(next, 1)[0]=='B'){
+			startStream(next);
+		}else{
+			logger.debug("Decoded {} bzip2 blocks from {}", blockCount, file.getName());
+			finished=true;
+		}
+	}
+
+	/**
+	 * Submit candidates for decoding, keeping a bounded number in flight
+	 */
+	private void fill() throws IOException{
+		while(inFlight.size()<maxInFlight && !noMoreCandidates){
+			Long start;
+			try{
+				// Only wait for the scanner if nothing is being decoded
+				start=inFlight.isEmpty()?candidates.take():candidates.poll();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while scanning " + file.getName());
+			}
+			if(start==null)
+				return;
+			if(start==NO_MORE_CANDIDATES){
+				noMoreCandidates=true;
+				if(scannerError!=null)
+					throw scannerError;
+				return;
+			}
+			final long bitStart=start;
+			inFlightStarts.addLast(bitStart);
+			inFlight.addLast(pool.submit(() -> decode(bitStart)));
+		}
+	}
+
+	/**
+	 * Decode the candidate block. Runs on the pool.
+	 */
+	private BZip2BlockDecoder.Block decode(long bitStart) throws IOException{
+		// Worst case is 20 bits per symbol, plus the tables
+		int window=(int)Math.min(fileLength-(bitStart>>>3), (long)(MAX_BLOCK_SIZE+1)*20/8+65536);
+		byte[] data=readBytes(bitStart>>>3, window);
+		BZip2BlockDecoder.Block block=BZip2BlockDecoder.decode(data, data.length, bitStart&7, MAX_BLOCK_SIZE);
+		// The end is relative to the window
+		block.endBit+=(bitStart>>>3)<<3;
+		return block;
+	}
+
+	/**
+	 * Scan the file for the block magic at every bit position. Runs on the scanner thread.
+	 */
+	private void scan(){
+		try(InputStream in=new BufferedInputStream(new FileInputStream(file), 1<<20)){
+			long bits=0;
+			long bitPosition=0;
+			int b;
+			while((b=in.read())!=-1){
+				bits=(bits<<8)|b;
+				bitPosition+=8;
+				// Check the 8 bit alignments ending in this byte, in file order
+				for(int shift=7;shift>=0;shift--){
+					if(((bits>>>shift)&BLOCK_MAGIC_MASK)==BZip2BlockDecoder.BLOCK_MAGIC && bitPosition-shift>=48)
+						candidates.put(bitPosition-shift-48);
+				}
+			}
+		}catch(IOException e){
+			scannerError=e;
+		}catch(InterruptedException e){
+			// Closed
+			return;
+		}
+		try{
+			candidates.put(NO_MORE_CANDIDATES);
+		}catch(InterruptedException e){
+			// Closed
+		}
+	}
+
+	private long readBits(long bitPosition, int n) throws IOException{
+		byte[] bytes=readBytes(bitPosition>>>3, 8);
+		long value=0;
+		for(int i=0;i<8;i++)
+			value=(value<<8)|(i<bytes.length?bytes[i]&0xff:0);
+		value<<=(bitPosition&7);
+		return value>>>(64-n);
+	}
+
+	private byte[] readBytes(long position, int length) throws IOException{
+		length=(int)Math.max(0, Math.min(length, fileLength-position));
+		ByteBuffer buffer=ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()){
+			if(channel.read(buffer, position+buffer.position())<0)
+				break;
+		}
+		if(buffer.hasRemaining()){
+			byte[] bytes=new byte[buffer.position()];
+			System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+			return bytes;
+		}
+		return buffer.array();
+	}
+}
@@ -0,0 +1,175 @@
+package dbpedia2Neo4J;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.jena.riot.system.StreamRDF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parallel version of the NTriplesReader. The file is split into newline aligned byte ranges,
+ * which are mapped & parsed on a fork-join pool. Each range sends its triples to its own partial
+ * sink, so the sinks don't need to be thread safe. The caller merges the partial sinks at the end,
+ * which are in the order of their ranges, so merging them in order sees the triples in the order of the file.
+
+ * @author rparundekar
+ */
+public class ParallelNTriplesReader<S extends StreamRDF> {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(ParallelNTriplesReader.class);
+
+	// Ranges smaller than this are not worth splitting further
+	private static final long MIN_RANGE_SIZE=16*1024*1024;
+	// Number of ranges per thread, so that threads finishing early can pick up more work
+	private static final int RANGES_PER_THREAD=4;
+	private static final int PROGRESS_INTERVAL=100000;
+
+	private final Supplier<S> partials;
+	private final int parallelism;
+	private Supplier<NTriplesReader.SubjectFilter> subjectFilters;
+	private final AtomicLong errorCount=new AtomicLong();
+
+	/**
+	 * Create the parallel reader
+	 * @param partials Creates an empty partial sink for each range
+	 * @param parallelism The number of threads
+	 */
+	public ParallelNTriplesReader(Supplier<S> partials, int parallelism){
+		this.partials=partials;
+		this.parallelism=parallelism;
+	}
+
+	/**
+	 * Set the filter for the subjects. Each worker thread gets its own filter.
+	 * @param subjectFilters Creates the filter for each range
+	 */
+	public void setSubjectFilter(Supplier<NTriplesReader.SubjectFilter> subjectFilters){
+		this.subjectFilters=subjectFilters;
+	}
+
+	/**
+	 * Read all the triples in the file
+	 * @param file The DBpedia turtle file e.g. infobox_properties_en.ttl
+	 * @return The partial sinks, one for each range in the order of the file
+	 * @throws IOException Thrown if there's a problem reading the file
+	 */
+	public List<S> read(File file) throws IOException{
+		if(NTriplesReader.isCompressed(file)){
+			// Compressed files cannot be split, but the decompression itself uses many threads
+			logger.info("Reading compressed {} on one parsing thread.", file.getName());
+			S sink=partials.get();
+			NTriplesReader reader=new NTriplesReader(sink);
+			reader.setSubjectFilter(subjectFilters==null?null:subjectFilters.get());
+			reader.read(file);
+			errorCount.addAndGet(reader.getErrorCount());
+			return Collections.singletonList(sink);
+		}
+		final AtomicLong lineCount=new AtomicLong();
+		final ThreadLocal<NTriplesReader.SubjectFilter> localFilter=ThreadLocal.withInitial(() -> subjectFilters==null?null:subjectFilters.get());
+
+		List<S> all;
+		ForkJoinPool pool=new ForkJoinPool(parallelism);
+		try(RandomAccessFile raf=new RandomAccessFile(file, "r")){
+			final FileChannel channel=raf.getChannel();
+			long[] boundaries=split(raf, parallelism*RANGES_PER_THREAD);
+			logger.info("Reading {} in {} ranges on {} threads.", file.getName(), boundaries.length-1, parallelism);
+
+			// The sink of each range, set by its task
+			final List<S> sinks=new ArrayList<>(Collections.nCopies(boundaries.length-1, (S)null));
+			all=sinks;
+			List<Callable<Void>> tasks=new ArrayList<>();
+			for(int i=0;i<boundaries.length-1;i++){
+				final int range=i;
+				final long start=boundaries[i];
+				final long end=boundaries[i+1];
+				tasks.add(() -> {
+					S sink=partials.get();
+					sinks.set(range, sink);
+					NTriplesReader reader=new NTriplesReader(sink);
+					reader.setProgress(PROGRESS_INTERVAL, lines -> {
+						long total=lineCount.addAndGet(PROGRESS_INTERVAL);
+						logger.info("{} lines parsed.", total);
+					});
+					reader.setSubjectFilter(localFilter.get());
+					reader.read(channel, start, end);
+					errorCount.addAndGet(reader.getErrorCount());
+					return null;
+				});
+			}
+			for(Future<Void> future:pool.invokeAll(tasks)){
+				try{
+					future.get();
+				}catch(ExecutionException e){
+					if(e.getCause() instanceof IOException)
+						throw (IOException)e.getCause();
+					throw new IOException(e.getCause());
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while reading " + file.getName());
+				}
+			}
+		}finally{
+			pool.shutdown();
+		}
+		if(errorCount.get()>0)
+			logger.warn("{} lines could not be parsed & were skipped.", errorCount.get());
+		return all;
+	}
+
+	/**
+	 * @return The number of lines skipped due to errors
+	 */
+	public long getErrorCount(){
+		return errorCount.get();
+	}
+
+	/**
+	 * Split the file into ranges that start at the beginning of a line
+	 * @param raf The file
+	 * @param ranges The number of ranges wanted
+	 * @return The boundaries of the ranges, starting with 0 and ending with the file length
+	 * @throws IOException Thrown if there's a problem reading the file
+	 */
+	private static long[] split(RandomAccessFile raf, int ranges) throws IOException{
+		long length=raf.length();
+		ranges=(int)Math.max(1, Math.min(ranges, length/MIN_RANGE_SIZE));
+		List<Long> boundaries=new ArrayList<>();
+		boundaries.add(0L);
+		for(int i=1;i<ranges;i++){
+			long position=nextLineStart(raf, i*(length/ranges));
+			if(position>boundaries.get(boundaries.size()-1) && position<length)
+				boundaries.add(position);
+		}
+		boundaries.add(length);
+		long[] result=new long[boundaries.size()];
+		for(int i=0;i<result.length;i++)
+			result[i]=boundaries.get(i);
+		return result;
+	}
+
+	/**
+	 * Find the start of the line after the position
+	 */
+	private static long nextLineStart(RandomAccessFile raf, long position) throws IOException{
+		raf.seek(position);
+		int b;
+		while((b=raf.read())!=-1){
+			position++;
+			if(b=='\n')
+				break;
+		}
+		return position;
+	}
+}
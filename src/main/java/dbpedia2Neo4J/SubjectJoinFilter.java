@@ -0,0 +1,103 @@
+package dbpedia2Neo4J;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Subject filter for the inner join on the instances, applied before a line is parsed.
+ * Many raw IRIs clean to the same id, so the raw IRIs can't be listed up front. Instead the cleaning done by
+ * DBpediaHelper.stripClean is repeated on the raw bytes of the subject, which are hashed into a fingerprint
+ * & checked against the fingerprints of the cleaned ids. Nothing is allocated per line.
+ * A fingerprint collision only means a line is parsed & then dropped by the join check in the loader.
+ * @author rparundekar
+ */
+public class SubjectJoinFilter implements NTriplesReader.SubjectFilter{
+	private static final long FNV_OFFSET=0xcbf29ce484222325L;
+	private static final long FNV_PRIME=0x100000001b3L;
+	private static final byte[][] PREFIXES=new byte[DBpediaHelper.PREFIXES.length][];
+	static{
+		for(int i=0;i<PREFIXES.length;i++)
+			PREFIXES[i]=DBpediaHelper.PREFIXES[i].getBytes(StandardCharsets.US_ASCII);
+	}
+
+	// The fingerprints of the cleaned ids of the instances to keep
+	private final LongHashSet fingerprints;
+
+	/**
+	 * Create the filter
+	 * @param instances The cleaned ids of the instances to keep
+	 */
+	public SubjectJoinFilter(Set<String> instances){
+		fingerprints=new LongHashSet(instances.size());
+		for(String instance:instances){
+			long h=FNV_OFFSET;
+			for(int i=0;i<instance.length();i++)
+				h=(h^instance.charAt(i))*FNV_PRIME;
+			fingerprints.add(h);
+		}
+	}
+
+	@Override
+	public boolean accept(ByteBuffer buffer, int start, int end) {
+		// Strip the prefixes, in the same order as stripClean
+		for(byte[] prefix:PREFIXES){
+			if(startsWith(buffer, start, end, prefix))
+				start+=prefix.length;
+		}
+
+		// Hash the cleaned characters. stripClean's regex works on the decoded code points,
+		// so each multi-byte character becomes one '_'.
+		long h=FNV_OFFSET;
+		for(int i=start;i<end;i++){
+			int b=buffer.get(i)&0xff;
+			int continuation;
+			if(b<0x80){
+				// IRIs with escapes are left to the parser & the join check in the loader
+				if(b=='\\')
+					return true;
+				boolean alphanumeric=(b>='A' && b<='Z') || (b>='a' && b<='z') || (b>='0' && b<='9');
+				h=(h^(alphanumeric?b:'_'))*FNV_PRIME;
+				continue;
+			}else if(b>=0xc2 && b<0xe0){
+				continuation=1;
+			}else if(b>=0xe0 && b<0xf0){
+				continuation=2;
+			}else if(b>=0xf0 && b<0xf5){
+				continuation=3;
+			}else{
+				// Not valid UTF-8, so leave it to the parser
+				return true;
+			}
+			if(i+continuation>=end || !validContinuation(buffer, i, b, continuation))
+				return true;
+			h=(h^'_')*FNV_PRIME;
+			i+=continuation;
+		}
+		return fingerprints.contains(h);
+	}
+
+	/**
+	 * Check the continuation bytes of a UTF-8 sequence, including the ranges that rule out overlong & surrogate encodings
+	 */
+	private static boolean validContinuation(ByteBuffer buffer, int lead, int b, int continuation){
+		int second=buffer.get(lead+1)&0xff;
+		if((b==0xe0 && second<0xa0) || (b==0xed && second>=0xa0) || (b==0xf0 && second<0x90) || (b==0xf4 && second>=0x90))
+			return false;
+		for(int i=1;i<=continuation;i++){
+			if((buffer.get(lead+i)&0xc0)!=0x80)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean startsWith(ByteBuffer buffer, int start, int end, byte[] prefix){
+		if(end-start<prefix.length)
+			return false;
+		for(int i=0;i<prefix.length;i++){
+			if(buffer.get(start+i)!=prefix[i])
+				return false;
+		}
+		return true;
+	}
+}
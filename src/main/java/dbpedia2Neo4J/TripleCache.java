@@ -0,0 +1,499 @@
+package dbpedia2Neo4J;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.jena.datatypes.DatatypeFormatException;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary cache of a DBpedia turtle file, so that repeat runs don't parse & clean the text again.
+ * The URIs are encoded as their ids in the shared UriDictionary, which also has their cleaned form,
+ * & the triples are stored as ints. The cache is memory-mapped & each triple is sent to a Handler.
+ * The cache lives next to the turtle file (e.g. infobox_properties_en.ttl.triples) & is only used while
+ * the size & modification time of the turtle file are the same as when it was converted.
+ *
+ * Layout: header | triples
+ * The header has the length of the whole cache, so a truncated cache is found before any triple is read.
+ * Each triple is the subject, predicate & object ids. An object that isn't a URI has the id -1, followed by the length
+ * & the encoded literal (or blank node).
+ * @author rparundekar
+ */
+public class TripleCache {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(TripleCache.class);
+
+	public static final String EXTENSION=".triples";
+
+	private static final int MAGIC=0x44425443;
+	private static final int VERSION=3;
+	private static final int HEADER_SIZE=64;
+	private static final int NOT_A_URI=-1;
+	private static final byte LITERAL=0;
+	private static final byte BLANK_NODE=1;
+	private static final int PROGRESS_INTERVAL=1000000;
+
+	/**
+	 * Handler for the triples, with the terms already cleaned
+	 */
+	public interface Handler{
+		/**
+		 * Handle a triple. The terms are only valid during the call.
+		 * @param subject The subject
+		 * @param predicate The predicate
+		 * @param object The object
+		 */
+		void triple(Term subject, Term predicate, Term object);
+	}
+
+	/**
+	 * A subject, predicate or object. The cleaned URI & the Jena node are only made when needed.
+	 */
+	public static class Term{
+		private String uri;
+		private String cleaned;
+		private int id=-1;
+		private Node node;
+		// The encoded literal in the cache
+		private ByteBuffer buffer;
+		private int position;
+
+		/**
+		 * Create the term for a parsed node
+		 * @param node The node
+		 */
+		public Term(Node node){
+			this.node=node;
+			this.uri=node.isURI()?node.getURI():null;
+		}
+
+		/**
+		 * Create the canonical term for a URI in the dictionary
+		 */
+		Term(String uri, String cleaned, int id){
+			this.uri=uri;
+			this.cleaned=cleaned;
+			this.id=id;
+		}
+
+		private Term(){
+		}
+
+		/**
+		 * @return True if the term is a URI
+		 */
+		public boolean isURI(){
+			return uri!=null;
+		}
+
+		/**
+		 * @return The URI, or null if the term isn't a URI
+		 */
+		public String getURI(){
+			return uri;
+		}
+
+		/**
+		 * @return The id of the URI in the dictionary, or -1 if the term isn't from the dictionary
+		 */
+		public int getId(){
+			return id;
+		}
+
+		/**
+		 * @return The cleaned URI, or null if the term isn't a URI
+		 */
+		public String getCleaned(){
+			if(cleaned==null && uri!=null)
+				cleaned=DBpediaHelper.stripClean(uri);
+			return cleaned;
+		}
+
+		/**
+		 * @return The Jena node e.g. to get the value of a literal
+		 */
+		public Node getNode(){
+			if(node==null){
+				if(uri!=null)
+					node=NodeFactory.createURI(uri);
+				else
+					node=decode(buffer, position);
+			}
+			return node;
+		}
+	}
+
+	// The cache file, its header & the dictionary for the ids
+	private final File file;
+	private final long tripleCount;
+	private final int termCount;
+	private final UriDictionary dictionary;
+
+	private TripleCache(File file, long tripleCount, int termCount, UriDictionary dictionary){
+		this.file=file;
+		this.tripleCount=tripleCount;
+		this.termCount=termCount;
+		this.dictionary=dictionary;
+	}
+
+	/**
+	 * @param turtleFile The DBpedia turtle file
+	 * @return The cache file for the turtle file
+	 */
+	public static File getCacheFile(File turtleFile){
+		return new File(turtleFile.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Find an up to date cache for the turtle file
+	 * @param turtleFile The DBpedia turtle file e.g. infobox_properties_en.ttl
+	 * @return The cache, or null if there is no cache or it is out of date
+	 * @throws IOException Thrown if there's a problem reading the cache
+	 */
+	public static TripleCache find(File turtleFile) throws IOException{
+		File cacheFile=getCacheFile(turtleFile);
+		if(!cacheFile.exists())
+			return null;
+		try(RandomAccessFile raf=new RandomAccessFile(cacheFile, "r")){
+			if(raf.length()<HEADER_SIZE || raf.readInt()!=MAGIC || raf.readInt()!=VERSION){
+				logger.warn("Ignoring {}, which is not a triple cache of this version.", cacheFile.getName());
+				return null;
+			}
+			long sourceLength=raf.readLong();
+			long sourceModified=raf.readLong();
+			if(sourceLength!=turtleFile.length() || sourceModified!=turtleFile.lastModified()){
+				logger.warn("Ignoring {}, since {} has changed.", cacheFile.getName(), turtleFile.getName());
+				return null;
+			}
+			long tripleCount=raf.readLong();
+			int termCount=raf.readInt();
+			long dictionaryUid=raf.readLong();
+			if(raf.readLong()!=raf.length()){
+				logger.warn("Ignoring {}, which is truncated.", cacheFile.getName());
+				return null;
+			}
+			// The cache keeps the dictionary to read the triples, without using it for a load
+			UriDictionary dictionary=UriDictionary.forDataFile(turtleFile);
+			dictionary.release();
+			if(dictionaryUid!=dictionary.getUid() || termCount>dictionary.savedSize()){
+				logger.warn("Ignoring {}, since it was written with another {}.", cacheFile.getName(), UriDictionary.FILE_NAME);
+				return null;
+			}
+			logger.info("Using the triple cache {} with {} triples.", cacheFile.getName(), tripleCount);
+			return new TripleCache(cacheFile, tripleCount, termCount, dictionary);
+		}
+	}
+
+	/**
+	 * Read all the triples in the cache
+	 * @param handler The handler for the triples
+	 * @throws IOException Thrown if there's a problem reading the cache
+	 */
+	public void read(Handler handler) throws IOException{
+		read(handler, 0);
+	}
+
+	/**
+	 * Read the triples in the cache, from a triple, e.g. to resume a load. The triples before are skipped without decoding them.
+	 * @param handler The handler for the triples
+	 * @param firstTriple The index of the first triple to handle
+	 * @throws IOException Thrown if there's a problem reading the cache
+	 */
+	public void read(Handler handler, long firstTriple) throws IOException{
+		try(FileChannel channel=FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			Term[] terms=dictionary.getTerms(termCount);
+			MappedInput in=new MappedInput(channel, HEADER_SIZE, channel.size());
+			Term literal=new Term();
+			for(long t=0;t<tripleCount;t++){
+				in.ensure(12);
+				if(t<firstTriple){
+					in.buffer.position(in.buffer.position()+8);
+					if(in.buffer.getInt()==NOT_A_URI){
+						in.ensure(4);
+						int length=in.buffer.getInt();
+						in.ensure(length);
+						in.buffer.position(in.buffer.position()+length);
+					}
+					continue;
+				}
+				Term subject=terms[in.buffer.getInt()];
+				Term predicate=terms[in.buffer.getInt()];
+				int o=in.buffer.getInt();
+				Term object;
+				if(o==NOT_A_URI){
+					in.ensure(4);
+					int length=in.buffer.getInt();
+					in.ensure(length);
+					literal.buffer=in.buffer;
+					literal.position=in.buffer.position();
+					literal.node=null;
+					in.buffer.position(in.buffer.position()+length);
+					object=literal;
+				}else{
+					object=terms[o];
+				}
+				try{
+					handler.triple(subject, predicate, object);
+				}catch(DatatypeFormatException|NumberFormatException de){
+					logger.error("Illegal data format in cached triple {} : {}", t, de.getMessage());
+				}
+				if((t+1)%PROGRESS_INTERVAL==0)
+					logger.info("{} cached triples read.", t+1);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of triples in the cache
+	 */
+	public long getTripleCount(){
+		return tripleCount;
+	}
+
+	/**
+	 * @return The number of URIs in the dictionary when the cache was written
+	 */
+	public int getTermCount(){
+		return termCount;
+	}
+
+	/**
+	 * Convert the turtle file into a cache next to it
+	 * @param turtleFile The DBpedia turtle file e.g. infobox_properties_en.ttl
+	 * @return The cache file
+	 * @throws IOException Thrown if there's a problem reading the turtle file or writing the cache
+	 */
+	public static File convert(File turtleFile) throws IOException{
+		File cacheFile=getCacheFile(turtleFile);
+		File temporaryFile=new File(cacheFile.getPath() + ".tmp");
+		UriDictionary dictionary=UriDictionary.forDataFile(turtleFile);
+		try(Writer writer=new Writer(temporaryFile, dictionary)){
+			NTriplesReader reader=new NTriplesReader(writer);
+			reader.setProgress(PROGRESS_INTERVAL, lines -> logger.info("{} lines converted.", lines));
+			try{
+				reader.read(turtleFile);
+			}catch(UncheckedIOException e){
+				throw e.getCause();
+			}
+			writer.finish(turtleFile);
+			logger.info("Converted {} triples from {}. {} triples with non URI subjects or predicates were skipped.", writer.tripleCount, turtleFile.getName(), writer.skipCount);
+		}finally{
+			dictionary.release();
+		}
+		Files.move(temporaryFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return cacheFile;
+	}
+
+	/**
+	 * Writes the triples from the reader into the cache file
+	 */
+	private static class Writer implements StreamRDF, AutoCloseable{
+		private final File file;
+		private final DataOutputStream out;
+		private final UriDictionary dictionary;
+		private long tripleCount=0;
+		private long skipCount=0;
+
+		private Writer(File file, UriDictionary dictionary) throws IOException{
+			this.file=file;
+			this.dictionary=dictionary;
+			this.out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16));
+			// Room for the header, written at the end
+			out.write(new byte[HEADER_SIZE]);
+		}
+
+		@Override
+		public void triple(Triple triple) {
+			Node subject=triple.getMatchSubject();
+			Node predicate=triple.getMatchPredicate();
+			if(!subject.isURI() || !predicate.isURI()){
+				skipCount++;
+				return;
+			}
+			try{
+				out.writeInt(id(subject.getURI()));
+				out.writeInt(id(predicate.getURI()));
+				Node object=triple.getMatchObject();
+				if(object.isURI()){
+					out.writeInt(id(object.getURI()));
+				}else{
+					out.writeInt(NOT_A_URI);
+					byte[] encoded=encode(object);
+					out.writeInt(encoded.length);
+					out.write(encoded);
+				}
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+			tripleCount++;
+		}
+
+		private int id(String uri){
+			return dictionary.term(uri).getId();
+		}
+
+		/**
+		 * Save the new URIs in the dictionary & write the header
+		 */
+		private void finish(File turtleFile) throws IOException{
+			out.flush();
+			dictionary.save();
+			try(RandomAccessFile raf=new RandomAccessFile(file, "rw")){
+				raf.writeInt(MAGIC);
+				raf.writeInt(VERSION);
+				raf.writeLong(turtleFile.length());
+				raf.writeLong(turtleFile.lastModified());
+				raf.writeLong(tripleCount);
+				raf.writeInt(dictionary.savedSize());
+				raf.writeLong(dictionary.getUid());
+				raf.writeLong(raf.length());
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+		@Override
+		public void start() {
+			// Do Nothing
+		}
+
+		@Override
+		public void base(String base) {
+			// Do Nothing
+		}
+
+		@Override
+		public void prefix(String prefix, String iri) {
+			// Do Nothing
+		}
+
+		@Override
+		public void quad(Quad quad) {
+			// Do Nothing
+		}
+
+		@Override
+		public void finish() {
+			// Do Nothing
+		}
+	}
+
+	/**
+	 * Encode a literal or blank node as its kind, followed by the lexical form, datatype & language (or the label)
+	 */
+	private static byte[] encode(Node node) throws IOException{
+		ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+		DataOutputStream out=new DataOutputStream(bytes);
+		if(node.isBlank()){
+			out.writeByte(BLANK_NODE);
+			writeString(out, node.getBlankNodeLabel());
+		}else{
+			out.writeByte(LITERAL);
+			String language=node.getLiteralLanguage();
+			writeString(out, node.getLiteralLexicalForm());
+			writeString(out, language.isEmpty()?node.getLiteralDatatypeURI():"");
+			writeString(out, language);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decode a literal or blank node
+	 */
+	private static Node decode(ByteBuffer buffer, int position){
+		ByteBuffer in=buffer.duplicate();
+		in.position(position);
+		if(in.get()==BLANK_NODE)
+			return NodeFactory.createBlankNode(getString(in));
+		String lexicalForm=getString(in);
+		String datatypeURI=getString(in);
+		String language=getString(in);
+		if(!language.isEmpty())
+			return NodeFactory.createLiteral(lexicalForm, language);
+		if(!datatypeURI.isEmpty())
+			return NodeFactory.createLiteral(lexicalForm, TypeMapper.getInstance().getSafeTypeByName(datatypeURI));
+		return NodeFactory.createLiteral(lexicalForm);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException{
+		byte[] bytes=s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String getString(ByteBuffer in){
+		byte[] bytes=new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Sequential reader over a memory-mapped section of the cache, mapped one segment at a time
+	 */
+	private static class MappedInput{
+		private final FileChannel channel;
+		private final long end;
+		private long base;
+		private ByteBuffer buffer;
+
+		private MappedInput(FileChannel channel, long start, long end){
+			this.channel=channel;
+			this.end=end;
+			this.base=start;
+			this.buffer=ByteBuffer.allocate(0);
+		}
+
+		/**
+		 * Make sure the next n bytes are mapped
+		 */
+		private void ensure(int n) throws IOException{
+			if(buffer.remaining()>=n)
+				return;
+			long position=base+buffer.position();
+			long size=Math.min(Math.max(MappedLineScanner.SEGMENT_SIZE, n), end-position);
+			if(size<n)
+				throw new EOFException("Truncated triple cache");
+			buffer=channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+			base=position;
+		}
+	}
+
+	/**
+	 * Convert the turtle files into caches
+	 * @param args The DBpedia turtle files
+	 */
+	public static void main(String[] args){
+		for(String arg:args){
+			try{
+				File cacheFile=convert(new File(arg));
+				logger.info("Wrote {}", cacheFile);
+			}catch(IOException e){
+				// Something went wrong with the files.
+				logger.error("Cannot load the data from the file due to file issue:" + e.getMessage());
+			}
+		}
+	}
+}
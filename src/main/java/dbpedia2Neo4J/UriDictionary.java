@@ -0,0 +1,245 @@
+package dbpedia2Neo4J;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jena.graph.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dictionary of the URIs in the DBpedia files, shared by all the loaders & the triple caches.
+ * Each URI gets a dense int id & its cleaned form (from DBpediaHelper.stripClean) is computed once.
+ * The terms are canonical, so all the loaders share the same cleaned Strings.
+ * The dictionary is kept next to the DBpedia files (uris.dictionary) & grows as new URIs are seen.
+ * Ids never change, so new URIs are appended to the file when it is saved.
+ * A load gets the dictionary with forDataFile & releases it when it's done, so the dictionary is only kept in memory
+ * while some load uses it. The loads that drop triples check them with cleaned first, so only the URIs they keep are added.
+ * @author rparundekar
+ */
+public class UriDictionary {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(UriDictionary.class);
+
+	public static final String FILE_NAME="uris.dictionary";
+
+	private static final int MAGIC=0x44425544;
+	private static final int VERSION=1;
+	private static final int HEADER_SIZE=16;
+
+	// One dictionary per folder, while it's used
+	private static final Map<File,UriDictionary> dictionaries=new HashMap<>();
+
+	private final File folder;
+	private final File file;
+	// The number of loads using the dictionary
+	private int users=0;
+	private long uid;
+	private final Map<String,TripleCache.Term> terms=new ConcurrentHashMap<>();
+	private TripleCache.Term[] byId=new TripleCache.Term[1024];
+	private int size=0;
+
+	// What's in the file
+	private int savedSize=0;
+	private long savedLength=0;
+
+	private UriDictionary(File folder){
+		this.folder=folder;
+		this.file=new File(folder, FILE_NAME);
+	}
+
+	/**
+	 * Get the dictionary for the folder of the DBpedia file, loading it from disk if no load is using it.
+	 * Release it once the load is done.
+	 * @param dataFile A DBpedia file e.g. infobox_properties_en.ttl
+	 * @return The dictionary
+	 * @throws IOException Thrown if there's a problem reading the dictionary
+	 */
+	public static synchronized UriDictionary forDataFile(File dataFile) throws IOException{
+		File folder=dataFile.getAbsoluteFile().getParentFile();
+		UriDictionary dictionary=dictionaries.get(folder);
+		if(dictionary==null){
+			dictionary=new UriDictionary(folder);
+			dictionary.load();
+			dictionaries.put(folder, dictionary);
+		}
+		dictionary.users++;
+		return dictionary;
+	}
+
+	/**
+	 * Release the dictionary, once the load that got it is done. When no load uses it, it's dropped from memory,
+	 * so save it first to keep its new URIs.
+	 */
+	public void release(){
+		synchronized(UriDictionary.class){
+			if(--users==0 && dictionaries.get(folder)==this)
+				dictionaries.remove(folder);
+		}
+	}
+
+	/**
+	 * Load the dictionary. A partly written entry at the end is ignored & overwritten by the next save.
+	 */
+	private void load() throws IOException{
+		if(!file.exists() || file.length()<HEADER_SIZE){
+			uid=new Random().nextLong();
+			return;
+		}
+		try(DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1<<16))){
+			if(in.readInt()!=MAGIC || in.readInt()!=VERSION)
+				throw new IOException(file.getName() + " is not a URI dictionary of this version");
+			uid=in.readLong();
+			savedLength=HEADER_SIZE;
+			while(true){
+				byte[] uri;
+				byte[] cleaned;
+				try{
+					uri=readBytes(in);
+					cleaned=readBytes(in);
+				}catch(EOFException e){
+					break;
+				}
+				add(new String(uri, StandardCharsets.UTF_8), new String(cleaned, StandardCharsets.UTF_8));
+				savedLength+=8+uri.length+cleaned.length;
+			}
+		}
+		savedSize=size;
+		logger.info("Loaded {} URIs from {}", size, file);
+	}
+
+	/**
+	 * Get the term for a node. URIs get their canonical term, other nodes a new term.
+	 * @param node The node
+	 * @return The term
+	 */
+	public TripleCache.Term term(Node node){
+		if(!node.isURI())
+			return new TripleCache.Term(node);
+		return term(node.getURI());
+	}
+
+	/**
+	 * Get the cleaned form of a node without adding it, e.g. to check a triple before its URIs are added
+	 * @param node The node
+	 * @return The cleaned URI, or null if the node isn't a URI
+	 */
+	public String cleaned(Node node){
+		if(!node.isURI())
+			return null;
+		TripleCache.Term term=terms.get(node.getURI());
+		return term!=null?term.getCleaned():DBpediaHelper.stripClean(node.getURI());
+	}
+
+	/**
+	 * Get the canonical term for the URI, adding it if it is new
+	 * @param uri The URI
+	 * @return The term, with its id & cleaned form
+	 */
+	public TripleCache.Term term(String uri){
+		TripleCache.Term term=terms.get(uri);
+		if(term!=null)
+			return term;
+		synchronized(this){
+			term=terms.get(uri);
+			if(term==null)
+				term=add(uri, DBpediaHelper.stripClean(uri));
+			return term;
+		}
+	}
+
+	private synchronized TripleCache.Term add(String uri, String cleaned){
+		if(size==byId.length)
+			byId=Arrays.copyOf(byId, byId.length*2);
+		TripleCache.Term term=new TripleCache.Term(uri, cleaned, size);
+		byId[size++]=term;
+		terms.put(uri, term);
+		return term;
+	}
+
+	/**
+	 * Get the terms for the ids, e.g. to decode many triples
+	 * @param count The number of ids needed
+	 * @return The terms, indexed by id
+	 */
+	synchronized TripleCache.Term[] getTerms(int count){
+		if(count>size)
+			throw new IllegalArgumentException("The dictionary only has " + size + " URIs");
+		return Arrays.copyOf(byId, count);
+	}
+
+	/**
+	 * @return The number of URIs
+	 */
+	public synchronized int size(){
+		return size;
+	}
+
+	/**
+	 * @return The number of URIs saved in the file
+	 */
+	public synchronized int savedSize(){
+		return savedSize;
+	}
+
+	/**
+	 * @return The unique id of the dictionary, so that the triple caches can check they belong to it
+	 */
+	public long getUid(){
+		return uid;
+	}
+
+	/**
+	 * Append the new URIs to the file
+	 * @throws IOException Thrown if there's a problem writing the dictionary
+	 */
+	public synchronized void save() throws IOException{
+		if(savedSize==size && savedLength>0)
+			return;
+		if(savedLength==0){
+			// New file
+			try(DataOutputStream out=new DataOutputStream(new FileOutputStream(file))){
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(uid);
+			}
+			savedLength=HEADER_SIZE;
+		}
+		try(RandomAccessFile raf=new RandomAccessFile(file, "rw")){
+			raf.setLength(savedLength);
+		}
+		try(DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1<<16))){
+			for(int i=savedSize;i<size;i++){
+				byte[] uri=byId[i].getURI().getBytes(StandardCharsets.UTF_8);
+				byte[] cleaned=byId[i].getCleaned().getBytes(StandardCharsets.UTF_8);
+				out.writeInt(uri.length);
+				out.write(uri);
+				out.writeInt(cleaned.length);
+				out.write(cleaned);
+				savedLength+=8+uri.length+cleaned.length;
+			}
+		}
+		logger.info("Saved {} new URIs to {}", size-savedSize, file);
+		savedSize=size;
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException{
+		byte[] bytes=new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,294 @@
+package dbpedia2Neo4J;
+import static org.neo4j.driver.v1.Values.parameters;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.neo4j.driver.v1.exceptions.TransientException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A batch of writes to Neo4J. The rows are grouped by relationship type & the properties of the nodes are set together,
+ * so that each group is written with one UNWIND statement & the batch in one transaction.
+ * With a node id cache, the nodes already known are matched by id instead of being MERGEd,
+ * & the statements that MERGE return the ids of their nodes for the cache.
+ * The relationships are CREATEd, or MERGEd when the batch may have been committed before, e.g. when a load is resumed.
+ * @author rparundekar
+ */
+class WriteBatch {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(WriteBatch.class);
+
+	// Transient errors (e.g. deadlocks between writers) are retried, waiting a little longer each time
+	private static final int MAX_RETRIES=5;
+	private static final long RETRY_DELAY=100;
+
+	// The rows for each statement
+	private final Map<String,List<Map<String,Object>>> statements=new LinkedHashMap<>();
+	private int size=0;
+	// The rows of the statements that failed on their own
+	private int failedCount=0;
+	// The node ids of the MERGEd nodes (may be null)
+	private final NodeIdCache nodeIds;
+	// MERGE the relationships, so that writing them again doesn't duplicate them
+	private final boolean mergeRelationships;
+
+	/**
+	 * Create a batch
+	 * @param nodeIds The cache of the node ids, or null
+	 */
+	WriteBatch(NodeIdCache nodeIds){
+		this(nodeIds, false);
+	}
+
+	/**
+	 * Create a batch
+	 * @param nodeIds The cache of the node ids, or null
+	 * @param mergeRelationships True to MERGE the relationships instead of CREATEing them, if they may exist already
+	 */
+	WriteBatch(NodeIdCache nodeIds, boolean mergeRelationships){
+		this.nodeIds=nodeIds;
+		this.mergeRelationships=mergeRelationships;
+	}
+
+	/**
+	 * Add a relationship, creating the nodes if needed
+	 * @param relationship The relationship type
+	 * @param subject The cleaned subject
+	 * @param object The cleaned object
+	 */
+	void addRelationship(String relationship, String subject, String object){
+		if(!addById(relationship, subject, object))
+			add("UNWIND {rows} AS row MERGE (s:Thing {id:row.s}) MERGE (o:Thing {id:row.o})" + relationship(relationship) + returnIds(true), subject, object);
+	}
+
+	/**
+	 * Add a relationship between nodes that already exist
+	 * @param relationship The relationship type
+	 * @param subject The cleaned subject
+	 * @param object The cleaned object
+	 */
+	void addLink(String relationship, String subject, String object){
+		if(!addById(relationship, subject, object))
+			add("UNWIND {rows} AS row MATCH (s:Thing {id:row.s}) MATCH (o:Thing {id:row.o})" + relationship(relationship), subject, object);
+	}
+
+	/**
+	 * Add the properties of a node, creating the node if needed. Each property counts as a row of the batch.
+	 * @param subject The cleaned subject
+	 * @param properties The properties
+	 */
+	void addProperties(String subject, Map<String,Object> properties){
+		long nodeId=nodeIds==null?NodeIdCache.MISSING:nodeIds.get(subject);
+		if(nodeId!=NodeIdCache.MISSING)
+			add("UNWIND {rows} AS row MATCH (s) WHERE id(s) = row.s SET s += row.o", nodeId, properties);
+		else
+			add("UNWIND {rows} AS row MERGE (s:Thing {id:row.s}) SET s += row.o" + returnIds(false), subject, properties);
+		size+=properties.size()-1;
+	}
+
+	/**
+	 * Add a node
+	 * @param id The cleaned id
+	 */
+	void addNode(String id){
+		// Known nodes exist already
+		if(nodeIds!=null && nodeIds.get(id)!=NodeIdCache.MISSING)
+			return;
+		add("UNWIND {rows} AS row MERGE (s:Thing {id:row.s})" + returnIds(false), id, null);
+	}
+
+	/**
+	 * Add the relationship between the known nodes by their ids
+	 * @return False if a node isn't known
+	 */
+	private boolean addById(String relationship, String subject, String object){
+		if(nodeIds==null)
+			return false;
+		long subjectId=nodeIds.get(subject);
+		if(subjectId==NodeIdCache.MISSING)
+			return false;
+		long objectId=nodeIds.get(object);
+		if(objectId==NodeIdCache.MISSING)
+			return false;
+		add("UNWIND {rows} AS row MATCH (s) WHERE id(s) = row.s MATCH (o) WHERE id(o) = row.o" + relationship(relationship), subjectId, objectId);
+		return true;
+	}
+
+	/**
+	 * The clause for the relationship between s & o
+	 */
+	private String relationship(String relationship){
+		return (mergeRelationships?" MERGE":" CREATE") + " (s)-[r:" + relationship + "]->(o)";
+	}
+
+	/**
+	 * The RETURN for the ids of the MERGEd nodes, if they are cached
+	 */
+	private String returnIds(boolean withObject){
+		if(nodeIds==null)
+			return "";
+		return withObject?" RETURN row.s AS s, id(s) AS sid, row.o AS o, id(o) AS oid":" RETURN row.s AS s, id(s) AS sid";
+	}
+
+	private void add(String statement, Object subject, Object o){
+		List<Map<String, Object>> rows=statements.get(statement);
+		if(rows==null){
+			rows=new ArrayList<>();
+			statements.put(statement, rows);
+		}
+		Map<String, Object> row=new LinkedHashMap<>(4);
+		row.put("s", subject);
+		if(o!=null)
+			row.put("o", o);
+		rows.add(row);
+		size++;
+	}
+
+	/**
+	 * @return The number of rows
+	 */
+	int size(){
+		return size;
+	}
+
+	/**
+	 * @return The number of rows that weren't written, since their statement failed on its own
+	 */
+	int failedCount(){
+		return failedCount;
+	}
+
+	/**
+	 * @return The number of statements
+	 */
+	int statementCount(){
+		return statements.size();
+	}
+
+	/**
+	 * @return The rows for each statement
+	 */
+	Map<String,List<Map<String,Object>>> getStatements(){
+		return statements;
+	}
+
+	/**
+	 * Split the batch into a batch for each statement, e.g. to retry them one by one
+	 * @return The batches
+	 */
+	List<WriteBatch> split(){
+		List<WriteBatch> batches=new ArrayList<>();
+		for(Map.Entry<String, List<Map<String, Object>>> statement:statements.entrySet()){
+			WriteBatch single=new WriteBatch(nodeIds, mergeRelationships);
+			single.statements.put(statement.getKey(), statement.getValue());
+			single.size=statement.getValue().size();
+			batches.add(single);
+		}
+		return batches;
+	}
+
+	/**
+	 * Collect the ids of the MERGEd nodes returned by a statement
+	 * @param statement The statement
+	 * @param record A record of the result
+	 * @param ids The cleaned ids
+	 * @param merged The Neo4J node ids
+	 */
+	void collect(String statement, Record record, List<String> ids, List<Long> merged){
+		if(nodeIds==null || !statement.contains(" RETURN "))
+			return;
+		ids.add(record.get("s").asString());
+		merged.add(record.get("sid").asLong());
+		if(statement.contains(" AS oid")){
+			ids.add(record.get("o").asString());
+			merged.add(record.get("oid").asLong());
+		}
+	}
+
+	/**
+	 * Cache the ids of the MERGEd nodes, once the transaction is committed
+	 * @param ids The cleaned ids
+	 * @param merged The Neo4J node ids
+	 */
+	void cache(List<String> ids, List<Long> merged){
+		for(int i=0;i<ids.size();i++)
+			nodeIds.put(ids.get(i), merged.get(i));
+	}
+
+	/**
+	 * Write the batch in one transaction.
+	 * If the transaction fails, each statement is retried in its own transaction, so that one bad group doesn't lose the batch.
+	 * The batch is only written when this returns, so e.g. a checkpoint after it is only saved then.
+	 * @param session The session
+	 * @throws ClientException Thrown if a statement still fails on its own, after the other statements are written (see failedCount)
+	 * @throws TransientException Thrown if the transient errors don't stop after the retries
+	 */
+	void write(Session session){
+		if(size==0)
+			return;
+		try{
+			run(session);
+		}catch (ClientException e) {
+			logger.warn("Error in inserting batch into database, retrying each statement: {}",  e.getMessage());
+			ClientException failed=null;
+			for(WriteBatch single:split()){
+				try{
+					single.run(session);
+				}catch (ClientException ce) {
+					logger.error("Error in inserting {} rows into database: {}", single.size(), ce.getMessage());
+					failedCount+=single.size();
+					failed=ce;
+				}
+			}
+			if(failed!=null)
+				throw failed;
+		}
+	}
+
+	/**
+	 * Run the statements in one transaction, retrying on transient errors. 
+	 * The ids of the MERGEd nodes are cached once the transaction is committed.
+	 * @throws ClientException Thrown if a statement is wrong
+	 * @throws TransientException Thrown if the transient errors don't stop after the retries
+	 */
+	private void run(Session session){
+		for(int attempt=1;;attempt++){
+			List<String> ids=new ArrayList<>();
+			List<Long> merged=new ArrayList<>();
+			try (Transaction tx = session.beginTransaction())
+			{
+				for(Map.Entry<String, List<Map<String, Object>>> statement:statements.entrySet()){
+					StatementResult result=tx.run(statement.getKey(), parameters("rows", statement.getValue()));
+					while(nodeIds!=null && result.hasNext())
+						collect(statement.getKey(), result.next(), ids, merged);
+				}
+				tx.success();
+			}catch (TransientException e) {
+				if(attempt==MAX_RETRIES){
+					logger.error("Error in inserting into database after {} attempts: {}", attempt, e.getMessage());
+					throw e;
+				}
+				logger.debug("Transient error in inserting into database, retrying: {}", e.getMessage());
+				try{
+					Thread.sleep(RETRY_DELAY*attempt);
+				}catch(InterruptedException ie){
+					// The batch isn't written
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+				continue;
+			}
+			cache(ids, merged);
+			return;
+		}
+	}
+}
@@ -0,0 +1,384 @@
+package randomWalks;
+
+import java.io.IOException;
+
+/**
+ * The rows of the relationships compressed with gaps & varints, as in WebGraph.
+ * The rows of a node are the number of groups & then a group for each predicate: the gap from the predicate before,
+ * the number of other nodes, the number of bytes of the other nodes (if there are more than 1) & then the other nodes, sorted. The first other node is the (zigzag) difference
+ * from the node & the others are the gaps from the one before. Most gaps are small, so most other nodes take 1 or 2 bytes
+ * instead of 8 (predicate & other node), & the hubs with many neighbors compress best.
+ * The length of the group lets a reader skip to a predicate without decoding the other nodes before it.
+ * A group with more than SKIP_INTERVAL other nodes starts with a skip index: for every SKIP_INTERVAL-th other node, 
+ * the node & the position after it (4 bytes each), so a random other node of a hub is decoded from the nearest entry
+ * instead of from the start of the group. The length of the group includes the skip index.
+ * The bytes are packed into ints (little endian), so they are on the heap or off it like the other arrays.
+ * @author rparundekar
+ */
+class CompressedRows extends CsrGraph.Rows {
+	// The other nodes between the entries of the skip index
+	static final int SKIP_INTERVAL=16;
+	// The bytes of an entry: the other node & the position after it
+	private static final int SKIP_ENTRY_BYTES=8;
+
+	// The offset of the bytes of each node
+	final IntArray offsets;
+	// The bytes, 4 to an int
+	final IntArray data;
+	private final int total;
+
+	CompressedRows(IntArray offsets, IntArray data, int total){
+		this.offsets=offsets;
+		this.data=data;
+		this.total=total;
+	}
+
+	/**
+	 * Encode the rows
+	 * @param name The name of the rows, for the files of the arrays
+	 * @param nodeCount The number of nodes
+	 * @param rowOffsets The offset of the rows of each node
+	 * @param keys The rows, sorted by node, predicate & other node: the predicate in the high int & the other node in the low int
+	 * @param builder The builder, which allocates the arrays
+	 * @return The compressed rows
+	 * @throws IOException Thrown if there's a problem mapping the files of the arrays
+	 */
+	static CompressedRows encode(String name, int nodeCount, int[] rowOffsets, long[] keys, CsrGraphBuilder builder) throws IOException{
+		// First count the bytes, then write them
+		long bytes=0;
+		for(int node=0;node<nodeCount;node++)
+			bytes+=encode(node, rowOffsets, keys, null);
+		if(bytes>Integer.MAX_VALUE)
+			throw new IllegalStateException("The compressed rows have more than 2GB");
+		IntArray offsets=builder.allocate(name + "_offsets", nodeCount+1);
+		IntArray data=builder.allocate(name + "_data", (int)((bytes+3)/4));
+		offsets.set(0, 0);
+		Writer writer=new Writer(data);
+		for(int node=0;node<nodeCount;node++){
+			encode(node, rowOffsets, keys, writer);
+			offsets.set(node+1, writer.position);
+		}
+		writer.flush();
+		return new CompressedRows(offsets, data, rowOffsets[nodeCount]);
+	}
+
+	/**
+	 * Encode the rows of a node
+	 * @param writer The writer, or null to only count the bytes
+	 * @return The number of bytes
+	 */
+	private static int encode(int node, int[] rowOffsets, long[] keys, Writer writer){
+		int start=rowOffsets[node];
+		int end=rowOffsets[node+1];
+		int groups=0;
+		for(int i=start;i<end;i++)
+			if(i==start || predicate(keys[i])!=predicate(keys[i-1]))
+				groups++;
+		int bytes=putVarint(writer, groups);
+		int previousPredicate=0;
+		for(int i=start;i<end;){
+			int predicate=predicate(keys[i]);
+			int groupEnd=i;
+			while(groupEnd<end && predicate(keys[groupEnd])==predicate)
+				groupEnd++;
+			// The bytes of the skip index & the other nodes
+			int length=skips(groupEnd-i)*SKIP_ENTRY_BYTES+putTargets(null, node, keys, i, groupEnd);
+			bytes+=putVarint(writer, predicate-previousPredicate);
+			bytes+=putVarint(writer, groupEnd-i);
+			if(groupEnd-i>1)
+				bytes+=putVarint(writer, length);
+			bytes+=putSkips(writer, node, keys, i, groupEnd);
+			bytes+=putTargets(writer, node, keys, i, groupEnd);
+			previousPredicate=predicate;
+			i=groupEnd;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @param count The number of other nodes of a group
+	 * @return The number of entries in the skip index of the group
+	 */
+	private static int skips(int count){
+		return count>SKIP_INTERVAL?(count-1)/SKIP_INTERVAL:0;
+	}
+
+	/**
+	 * Write the skip index of a group: for every SKIP_INTERVAL-th other node, the node & the position after it, from the start of the other nodes
+	 * @param writer The writer, or null to only count the bytes
+	 * @return The number of bytes
+	 */
+	private static int putSkips(Writer writer, int node, long[] keys, int start, int end){
+		int skips=skips(end-start);
+		if(skips==0)
+			return 0;
+		if(writer!=null){
+			int bytes=0;
+			int previous=0;
+			for(int i=start;i<end;i++){
+				int target=(int)keys[i];
+				if(i==start){
+					int difference=target-node;
+					bytes+=putVarint(null, (difference<<1)^(difference>>31));
+				}else{
+					bytes+=putVarint(null, target-previous-1);
+				}
+				previous=target;
+				if(i>start && (i-start)%SKIP_INTERVAL==0 && (i-start)/SKIP_INTERVAL<=skips){
+					writer.putInt(target);
+					writer.putInt(bytes);
+				}
+			}
+		}
+		return skips*SKIP_ENTRY_BYTES;
+	}
+
+	private static int putTargets(Writer writer, int node, long[] keys, int start, int end){
+		int bytes=0;
+		int previous=0;
+		for(int i=start;i<end;i++){
+			int target=(int)keys[i];
+			if(i==start){
+				int difference=target-node;
+				bytes+=putVarint(writer, (difference<<1)^(difference>>31));
+			}else{
+				// The other nodes are sorted without repeats, so the gaps are at least 1
+				bytes+=putVarint(writer, target-previous-1);
+			}
+			previous=target;
+		}
+		return bytes;
+	}
+
+	private static int predicate(long key){
+		return (int)(key>>>32);
+	}
+
+	/**
+	 * Write a varint: 7 bits in each byte, with the high bit set if more bytes follow
+	 * @param writer The writer, or null to only count the bytes
+	 * @return The number of bytes
+	 */
+	private static int putVarint(Writer writer, int value){
+		int bytes=1;
+		while((value & ~0x7F)!=0){
+			if(writer!=null)
+				writer.put((value & 0x7F) | 0x80);
+			value>>>=7;
+			bytes++;
+		}
+		if(writer!=null)
+			writer.put(value);
+		return bytes;
+	}
+
+	/**
+	 * Writes the bytes into the ints
+	 */
+	private static class Writer{
+		private final IntArray data;
+		private int position=0;
+		private int word=0;
+
+		private Writer(IntArray data){
+			this.data=data;
+		}
+
+		private void put(int b){
+			word|=(b & 0xFF)<<((position & 3)<<3);
+			position++;
+			if((position & 3)==0){
+				data.set((position>>>2)-1, word);
+				word=0;
+			}
+		}
+
+		private void putInt(int value){
+			for(int i=0;i<4;i++)
+				put(value>>>(i<<3));
+		}
+
+		private void flush(){
+			if((position & 3)!=0)
+				data.set(position>>>2, word);
+		}
+	}
+
+	/**
+	 * Reads the varints of a node
+	 */
+	private class Reader{
+		private int position;
+		// The int with the bytes at the position
+		private int word;
+		private int wordIndex=-1;
+
+		private Reader(int node){
+			position=offsets.get(node);
+		}
+		private int get(){
+			int index=position>>>2;
+			if(index!=wordIndex){
+				word=data.get(index);
+				wordIndex=index;
+			}
+			int b=(word>>>((position & 3)<<3)) & 0xFF;
+			position++;
+			return b;
+		}
+
+		/**
+		 * Skip the other nodes of a group
+		 */
+		private void skip(int count){
+			if(count>1){
+				int length=getVarint();
+				position+=length;
+			}else
+				getVarint();
+		}
+
+		private int getInt(){
+			int value=0;
+			for(int i=0;i<4;i++)
+				value|=get()<<(i<<3);
+			return value;
+		}
+
+		private int getVarint(){
+			int b=get();
+			int value=b & 0x7F;
+			for(int shift=7;(b & 0x80)!=0;shift+=7){
+				b=get();
+				value|=(b & 0x7F)<<shift;
+			}
+			return value;
+		}
+	}
+
+	@Override
+	int size(int node){
+		Reader reader=new Reader(node);
+		int groups=reader.getVarint();
+		int size=0;
+		for(int g=0;g<groups;g++){
+			reader.getVarint();
+			int count=reader.getVarint();
+			size+=count;
+			// Skip the other nodes
+			reader.skip(count);
+		}
+		return size;
+	}
+
+	@Override
+	int predicateCount(int node){
+		return new Reader(node).getVarint();
+	}
+
+	@Override
+	int total(){
+		return total;
+	}
+
+	@Override
+	long bytes(){
+		return 4L*(offsets.length()+data.length());
+	}
+
+	@Override
+	int read(int node, int[] predicates, int[] targets){
+		Reader reader=new Reader(node);
+		int groups=reader.getVarint();
+		int size=0;
+		int predicate=0;
+		for(int g=0;g<groups;g++){
+			predicate+=reader.getVarint();
+			int count=reader.getVarint();
+			if(targets==null){
+				reader.skip(count);
+			}else{
+				if(count>1)
+					reader.getVarint();
+				reader.position+=skips(count)*SKIP_ENTRY_BYTES;
+				int zigzag=reader.getVarint();
+				int target=node+((zigzag>>>1)^-(zigzag & 1));
+				targets[size]=target;
+				for(int i=1;i<count;i++){
+					target+=reader.getVarint()+1;
+					targets[size+i]=target;
+				}
+			}
+			for(int i=0;i<count;i++)
+				predicates[size+i]=predicate;
+			size+=count;
+		}
+		return size;
+	}
+
+	/**
+	 * The position of a run is the position of its skip index, followed by the bytes of its other nodes
+	 */
+	@Override
+	int readRuns(int node, int[] predicates, int[] positions, int[] counts){
+		Reader reader=new Reader(node);
+		int groups=reader.getVarint();
+		int predicate=0;
+		for(int g=0;g<groups;g++){
+			predicate+=reader.getVarint();
+			int count=reader.getVarint();
+			int length=count>1?reader.getVarint():-1;
+			predicates[g]=predicate;
+			positions[g]=reader.position;
+			counts[g]=count;
+			if(length<0)
+				reader.getVarint();
+			else
+				reader.position+=length;
+		}
+		return groups;
+	}
+
+	@Override
+	int target(int node, int position, int count, int index){
+		// Decode the other nodes of the run up to the index, from the nearest entry of the skip index before it
+		Reader reader=new Reader(node);
+		int skips=skips(count);
+		int targets=position+skips*SKIP_ENTRY_BYTES;
+		int skip=Math.min(index/SKIP_INTERVAL, skips);
+		int target;
+		if(skip==0){
+			reader.position=targets;
+			int zigzag=reader.getVarint();
+			target=node+((zigzag>>>1)^-(zigzag & 1));
+		}else{
+			reader.position=position+(skip-1)*SKIP_ENTRY_BYTES;
+			target=reader.getInt();
+			reader.position=targets+reader.getInt();
+		}
+		for(int i=skip*SKIP_INTERVAL;i<index;i++)
+			target+=reader.getVarint()+1;
+		return target;
+	}
+
+	@Override
+	int predicate(int node, int index){
+		Reader reader=new Reader(node);
+		int groups=reader.getVarint();
+		int predicate=0;
+		for(int g=0;g<groups;g++){
+			predicate+=reader.getVarint();
+			int count=reader.getVarint();
+			if(index<count)
+				return predicate;
+			index-=count;
+			reader.skip(count);
+		}
+		throw new IndexOutOfBoundsException("The node has no row " + index);
+	}
+
+	@Override
+	boolean isOffHeap(){
+		return offsets instanceof OffHeapIntArray;
+	}
+}
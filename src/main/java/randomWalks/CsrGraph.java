@@ -0,0 +1,585 @@
+package randomWalks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The graph in memory in compressed sparse rows (CSR). The nodes & the predicates are ints, & each direction of the
+ * relationships is an array of offsets (one for each node) into arrays of the predicates & the other nodes,
+ * sorted by (node, predicate, other node). The attributes are a sorted array of predicates for each node, in the same way.
+ * The nodes are numbered in the order of their ids, so a node is found by a binary search.
+ * This takes a few ints for each edge instead of hundreds of bytes of maps & sets, & the walks read the arrays in order.
+ * The arrays of the rows can be on the heap or outside it (in direct memory or mapped files), with the same traversal.
+ * The rows of the relationships can also be compressed (see CompressedRows).
+ * Build it with a CsrGraphBuilder, or open a snapshot saved earlier.
+ * @author rparundekar
+ */
+public class CsrGraph implements GraphBackend {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(CsrGraph.class);
+
+	// The snapshot: a header with the sizes & modification times of the input files, the ids of the nodes & the predicates,
+	// & then the rows, each as its kind, its total & its arrays, each array as its length & its ints, 8 byte aligned
+	// so they can be mapped. All little endian.
+	private static final int MAGIC=0x43535247;
+	private static final int VERSION=3;
+	private static final int ARRAY_ROWS=0;
+	private static final int COMPRESSED_ROWS=1;
+	private static final int BUFFER_SIZE=1<<20;
+	/**
+	 * The rows of one kind (attributes, outgoing or incoming relationships): the predicates & the other nodes of each node
+	 */
+	abstract static class Rows{
+		/**
+		 * @return The number of rows of the node
+		 */
+		abstract int size(int node);
+
+		/**
+		 * @return The number of distinct predicates of the node
+		 */
+		abstract int predicateCount(int node);
+
+		/**
+		 * @return The number of rows of all the nodes
+		 */
+		abstract int total();
+
+		/**
+		 * @return The size of the arrays, in bytes
+		 */
+		abstract long bytes();
+
+		/**
+		 * Read the rows of a node, sorted by predicate & other node
+		 * @param node The node
+		 * @param predicates The predicates, at least size(node) long
+		 * @param targets The other nodes, at least size(node) long, or null to skip them
+		 * @return The number of rows
+		 */
+		abstract int read(int node, int[] predicates, int[] targets);
+
+		/**
+		 * Read the runs of a node: the rows of each predicate
+		 * @param node The node
+		 * @param predicates The predicate of each run, at least predicateCount(node) long
+		 * @param positions The position of each run, to read its other nodes with target
+		 * @param counts The number of other nodes of each run
+		 * @return The number of runs
+		 */
+		abstract int readRuns(int node, int[] predicates, int[] positions, int[] counts);
+
+		/**
+		 * @param node The node
+		 * @param position The position of a run of the node (see readRuns)
+		 * @param count The number of other nodes of the run
+		 * @param index The index of the other node in the run
+		 * @return The other node
+		 */
+		abstract int target(int node, int position, int count, int index);
+
+		/**
+		 * @param node The node
+		 * @param index The index of a row of the node
+		 * @return The predicate of the row
+		 */
+		abstract int predicate(int node, int index);
+
+		/**
+		 * @return True if the arrays are outside the heap
+		 */
+		abstract boolean isOffHeap();
+	}
+
+	/**
+	 * The rows as arrays: the offsets of each node & the predicates & the other nodes (absent for attributes)
+	 */
+	static class ArrayRows extends Rows{
+		final IntArray offsets;
+		final IntArray predicates;
+		final IntArray targets;
+
+		ArrayRows(IntArray offsets, IntArray predicates, IntArray targets){
+			this.offsets=offsets;
+			this.predicates=predicates;
+			this.targets=targets;
+		}
+
+		@Override
+		int size(int node){
+			return offsets.get(node+1)-offsets.get(node);
+		}
+
+		@Override
+		int predicateCount(int node){
+			int count=0;
+			int start=offsets.get(node);
+			int end=offsets.get(node+1);
+			for(int i=start;i<end;i++)
+				if(i==start || predicates.get(i)!=predicates.get(i-1))
+					count++;
+			return count;
+		}
+
+		@Override
+		int total(){
+			return predicates.length();
+		}
+
+		@Override
+		long bytes(){
+			return 4L*(offsets.length()+predicates.length()+(targets==null?0:targets.length()));
+		}
+
+		@Override
+		int read(int node, int[] predicates, int[] targets){
+			int start=offsets.get(node);
+			int end=offsets.get(node+1);
+			for(int i=start;i<end;i++){
+				predicates[i-start]=this.predicates.get(i);
+				if(targets!=null)
+					targets[i-start]=this.targets.get(i);
+			}
+			return end-start;
+		}
+
+		@Override
+		int readRuns(int node, int[] predicates, int[] positions, int[] counts){
+			int start=offsets.get(node);
+			int end=offsets.get(node+1);
+			int runs=0;
+			for(int i=start;i<end;i++){
+				int predicate=this.predicates.get(i);
+				if(i==start || predicate!=predicates[runs-1]){
+					predicates[runs]=predicate;
+					positions[runs]=i;
+					counts[runs]=0;
+					runs++;
+				}
+				counts[runs-1]++;
+			}
+			return runs;
+		}
+
+		@Override
+		int target(int node, int position, int count, int index){
+			return targets.get(position+index);
+		}
+
+		@Override
+		int predicate(int node, int index){
+			return predicates.get(offsets.get(node)+index);
+		}
+
+		@Override
+		boolean isOffHeap(){
+			return offsets instanceof OffHeapIntArray;
+		}
+	}
+
+	// The ids of the nodes, sorted, & the predicates
+	private final String[] nodes;
+	private final String[] predicates;
+	private final Rows attributes;
+	private final Rows outgoing;
+	private final Rows incoming;
+	// The number of attribute triples, with repeats
+	private final long attributeTripleCount;
+
+	CsrGraph(String[] nodes, String[] predicates, Rows attributes, Rows outgoing, Rows incoming, long attributeTripleCount){
+		this.nodes=nodes;
+		this.predicates=predicates;
+		this.attributes=attributes;
+		this.outgoing=outgoing;
+		this.incoming=incoming;
+		this.attributeTripleCount=attributeTripleCount;
+	}
+
+	/**
+	 * Find a node
+	 * @param id The id of the node
+	 * @return The node, or -1 if it isn't in the graph
+	 */
+	public int getNode(String id){
+		int node=Arrays.binarySearch(nodes, id);
+		return node<0?-1:node;
+	}
+
+	/**
+	 * @param node The node
+	 * @return The id of the node
+	 */
+	public String getId(int node){
+		return nodes[node];
+	}
+
+	/**
+	 * @return The number of nodes
+	 */
+	public int getNodeCount(){
+		return nodes.length;
+	}
+
+	/**
+	 * @return The number of predicates
+	 */
+	public int getPredicateCount(){
+		return predicates.length;
+	}
+
+	/**
+	 * @param predicate The predicate
+	 * @return The name of the predicate
+	 */
+	public String getPredicate(int predicate){
+		return predicates[predicate];
+	}
+
+	/**
+	 * @return The number of relationships (without repeats)
+	 */
+	public int getRelationshipCount(){
+		return outgoing.total();
+	}
+
+	/**
+	 * @return The rows of the attributes
+	 */
+	Rows getAttributeRows(){
+		return attributes;
+	}
+
+	/**
+	 * @return The rows of the outgoing relationships
+	 */
+	Rows getOutgoingRows(){
+		return outgoing;
+	}
+
+	/**
+	 * @return The rows of the incoming relationships
+	 */
+	Rows getIncomingRows(){
+		return incoming;
+	}
+
+	/**
+	 * @return The size of the rows of the relationships (both directions), in bytes
+	 */
+	public long getRelationshipBytes(){
+		return outgoing.bytes()+incoming.bytes();
+	}
+
+	/**
+	 * @return The number of attribute triples (with repeats)
+	 */
+	public long getAttributeTripleCount(){
+		return attributeTripleCount;
+	}
+
+	/**
+	 * @param node The node
+	 * @return The number of distinct attributes of the node
+	 */
+	public int getAttributeCount(int node){
+		return attributes.size(node);
+	}
+
+	/**
+	 * @param node The node
+	 * @return The number of outgoing relationships of the node
+	 */
+	public int getOutDegree(int node){
+		return outgoing.size(node);
+	}
+
+	/**
+	 * @param node The node
+	 * @return The number of distinct types of the outgoing relationships of the node
+	 */
+	public int getOutTypeCount(int node){
+		return outgoing.predicateCount(node);
+	}
+
+	/**
+	 * @param node The node
+	 * @return The number of incoming relationships of the node
+	 */
+	public int getInDegree(int node){
+		return incoming.size(node);
+	}
+
+	/**
+	 * @param node The node
+	 * @return The number of distinct types of the incoming relationships of the node
+	 */
+	public int getInTypeCount(int node){
+		return incoming.predicateCount(node);
+	}
+
+	@Override
+	public List<String> getAttributes(String id) {
+		int node=getNode(id);
+		if(node<0)
+			return Collections.emptyList();
+		int[] itsPredicates=new int[attributes.size(node)];
+		int size=attributes.read(node, itsPredicates, null);
+		List<String> itsAttributes=new ArrayList<>(size);
+		for(int i=0;i<size;i++)
+			itsAttributes.add(predicates[itsPredicates[i]]);
+		return itsAttributes;
+	}
+
+	@Override
+	public Map<String, List<String>> getRelationships(String id) {
+		return relationships(outgoing, getNode(id));
+	}
+
+	@Override
+	public Map<String, List<String>> getIncomingRelationships(String id) {
+		return relationships(incoming, getNode(id));
+	}
+
+	private Map<String, List<String>> relationships(Rows rows, int node){
+		if(node<0)
+			return Collections.emptyMap();
+		Map<String, List<String>> relationships=new LinkedHashMap<>();
+		List<String> others=null;
+		int[] itsPredicates=new int[rows.size(node)];
+		int[] targets=new int[itsPredicates.length];
+		int size=rows.read(node, itsPredicates, targets);
+		for(int i=0;i<size;i++){
+			// The rows are sorted by predicate, so each predicate is one run
+			if(i==0 || itsPredicates[i]!=itsPredicates[i-1]){
+				others=new ArrayList<>();
+				relationships.put(predicates[itsPredicates[i]], others);
+			}
+			others.add(nodes[targets[i]]);
+		}
+		return relationships;
+	}
+
+	/**
+	 * Save a snapshot of the graph, to open it instead of loading the graph again
+	 * @param file The snapshot file
+	 * @param inputs The files the graph was loaded from. The snapshot is out of date if their size or modification time change.
+	 * @throws IOException Thrown if there's a problem writing the snapshot, or an input file doesn't exist
+	 */
+	public void save(File file, File... inputs) throws IOException{
+		// A missing file would match again on the next run, so the snapshot couldn't tell it changed
+		for(File input:inputs){
+			if(!input.isFile())
+				throw new IOException("Cannot save a snapshot of the missing file " + input.getName());
+		}
+		// Written to a temporary file & renamed, so there is never half a snapshot
+		File temporary=new File(file.getPath() + ".tmp");
+		try(FileChannel channel=FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+			Output out=new Output(channel);
+			out.ensure(12+16*inputs.length+8);
+			out.buffer.putInt(MAGIC).putInt(VERSION).putInt(inputs.length);
+			for(File input:inputs)
+				out.buffer.putLong(input.length()).putLong(input.lastModified());
+			out.buffer.putLong(attributeTripleCount);
+			out.putStrings(nodes);
+			out.putStrings(predicates);
+			for(Rows rows:new Rows[]{attributes, outgoing, incoming}){
+				out.ensure(8);
+				if(rows instanceof CompressedRows){
+					CompressedRows compressed=(CompressedRows)rows;
+					out.buffer.putInt(COMPRESSED_ROWS).putInt(compressed.total());
+					out.putInts(compressed.offsets);
+					out.putInts(compressed.data);
+				}else{
+					ArrayRows array=(ArrayRows)rows;
+					out.buffer.putInt(ARRAY_ROWS).putInt(array.total());
+					out.putInts(array.offsets);
+					out.putInts(array.predicates);
+					out.putInts(array.targets);
+				}
+			}
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		logger.info("Snapshot of the graph saved to {}.", file.getName());
+	}
+
+	/**
+	 * Open a snapshot of the graph. The rows are mapped from the file, so only the ids are read.
+	 * @param file The snapshot file
+	 * @param inputs The files the graph was loaded from
+	 * @return The graph, or null if there is no snapshot, it is of another version, or the input files changed since
+	 * @throws IOException Thrown if there's a problem reading the snapshot
+	 */
+	public static CsrGraph open(File file, File... inputs) throws IOException{
+		if(!file.exists())
+			return null;
+		try(FileChannel channel=FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			Input in=new Input(channel);
+			in.ensure(12);
+			if(in.buffer.getInt()!=MAGIC || in.buffer.getInt()!=VERSION || in.buffer.getInt()!=inputs.length){
+				logger.warn("Ignoring {}, which is not a snapshot of this version.", file.getName());
+				return null;
+			}
+			in.ensure(16*inputs.length+8);
+			for(File input:inputs){
+				if(in.buffer.getLong()!=input.length() || in.buffer.getLong()!=input.lastModified()){
+					logger.warn("Ignoring {}, since {} has changed.", file.getName(), input.getName());
+					return null;
+				}
+			}
+			long attributeTripleCount=in.buffer.getLong();
+			String[] nodes=in.getStrings();
+			String[] predicates=in.getStrings();
+			Rows[] rows=new Rows[3];
+			for(int i=0;i<rows.length;i++){
+				in.ensure(8);
+				int kind=in.buffer.getInt();
+				int total=in.buffer.getInt();
+				if(kind==COMPRESSED_ROWS)
+					rows[i]=new CompressedRows(in.getInts(), in.getInts(), total);
+				else
+					rows[i]=new ArrayRows(in.getInts(), in.getInts(), in.getInts());
+			}
+			logger.info("Opened the snapshot {} with {} nodes.", file.getName(), nodes.length);
+			return new CsrGraph(nodes, predicates, rows[0], rows[1], rows[2], attributeTripleCount);
+		}
+	}
+
+	/**
+	 * Writes the snapshot through a buffer
+	 */
+	private static class Output{
+		private final FileChannel channel;
+		private final ByteBuffer buffer=ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		private long position=0;
+
+		private Output(FileChannel channel){
+			this.channel=channel;
+		}
+
+		private void ensure(int bytes) throws IOException{
+			if(buffer.remaining()<bytes)
+				flush();
+		}
+
+		private void flush() throws IOException{
+			buffer.flip();
+			while(buffer.hasRemaining())
+				position+=channel.write(buffer);
+			buffer.clear();
+		}
+
+		private void putStrings(String[] strings) throws IOException{
+			ensure(4);
+			buffer.putInt(strings.length);
+			for(String string:strings){
+				byte[] bytes=string.getBytes(StandardCharsets.UTF_8);
+				ensure(4);
+				buffer.putInt(bytes.length);
+				for(int i=0;i<bytes.length;){
+					ensure(1);
+					int length=Math.min(buffer.remaining(), bytes.length-i);
+					buffer.put(bytes, i, length);
+					i+=length;
+				}
+			}
+		}
+
+		/**
+		 * Write an array, aligned to 8 bytes, or a length of -1 if there is none
+		 */
+		private void putInts(IntArray ints) throws IOException{
+			ensure(12);
+			while((position+buffer.position()+4)%8!=0)
+				buffer.put((byte)0);
+			buffer.putInt(ints==null?-1:ints.length());
+			if(ints==null)
+				return;
+			for(int i=0;i<ints.length();i++){
+				ensure(4);
+				buffer.putInt(ints.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Reads the snapshot through a buffer, & maps the rows
+	 */
+	private static class Input{
+		private final FileChannel channel;
+		private final ByteBuffer buffer=ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		// The position in the file of the start of the buffer
+		private long position=0;
+
+		private Input(FileChannel channel){
+			this.channel=channel;
+			buffer.limit(0);
+		}
+
+		private void ensure(int bytes) throws IOException{
+			if(buffer.remaining()>=bytes)
+				return;
+			position+=buffer.position();
+			buffer.compact();
+			while(buffer.position()<bytes){
+				if(channel.read(buffer, position+buffer.position())<0)
+					throw new IOException("The snapshot is truncated");
+			}
+			buffer.flip();
+		}
+
+		private String[] getStrings() throws IOException{
+			ensure(4);
+			String[] strings=new String[buffer.getInt()];
+			byte[] bytes=new byte[256];
+			for(int s=0;s<strings.length;s++){
+				ensure(4);
+				int length=buffer.getInt();
+				if(length>bytes.length)
+					bytes=new byte[length];
+				for(int i=0;i<length;){
+					ensure(1);
+					int chunk=Math.min(buffer.remaining(), length-i);
+					buffer.get(bytes, i, chunk);
+					i+=chunk;
+				}
+				strings[s]=new String(bytes, 0, length, StandardCharsets.UTF_8);
+			}
+			return strings;
+		}
+
+		private IntArray getInts() throws IOException{
+			// Only the padding & the length are read, since an empty array can end the file
+			int padding=(int)((8-(position+buffer.position()+4)%8)%8);
+			ensure(padding+4);
+			buffer.position(buffer.position()+padding);
+			int length=buffer.getInt();
+			if(length<0)
+				return null;
+			long start=position+buffer.position();
+			if(start+4L*length>channel.size())
+				throw new IOException("The snapshot is truncated");
+			// Skip the ints, which are mapped instead of read
+			position=start+4L*length;
+			buffer.limit(0);
+			return OffHeapIntArray.map(channel, start, length);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package randomWalks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the compressed rows of the relationships with the arrays: their size & the time to read the rows,
+ * of all the nodes in order & of random nodes, & the time to read a random other node of a random run (as the walks do).
+ * The graph is random & skewed like DBpedia, with a few hubs that have most of the incoming relationships.
+ * @author rparundekar
+ */
+public class CsrGraphBenchmark {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(CsrGraphBenchmark.class);
+
+	private static final int ROUNDS=5;
+	// The other nodes read from each node & from each hub, when timing the random reads
+	private static final int TARGETS_PER_NODE=4;
+	private static final int TARGETS_PER_HUB=256;
+	// The nodes with the most incoming relationships
+	private static final int HUBS=1000;
+
+	/**
+	 * Build a random graph
+	 * @param nodes The number of nodes
+	 * @param relationships The number of relationships
+	 * @param predicates The number of predicates
+	 * @param compressed True to compress the rows
+	 * @return The graph
+	 * @throws IOException Thrown if there's a problem building the graph
+	 */
+	private static CsrGraph build(int nodes, int relationships, int predicates, boolean compressed) throws IOException{
+		CsrGraphBuilder builder=new CsrGraphBuilder();
+		builder.setCompressed(compressed);
+		Random random=new Random(42);
+		for(int i=0;i<relationships;i++){
+			// The objects are skewed towards the first nodes (e.g. countries & years), the subjects are uniform
+			int object=(int)(nodes*Math.pow(random.nextDouble(), 4));
+			builder.addRelationship("n" + random.nextInt(nodes), "p" + (int)(predicates*Math.pow(random.nextDouble(), 2)), "n" + object);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Time reading the rows
+	 * @param rows The rows
+	 * @param nodes The nodes to read
+	 * @return The time in ns for each row
+	 */
+	private static double time(CsrGraph.Rows rows, int[] nodes){
+		int[] predicates=new int[1024];
+		int[] targets=new int[1024];
+		long sum=0;
+		long count=0;
+		long start=System.nanoTime();
+		for(int node:nodes){
+			int size=rows.size(node);
+			if(size>predicates.length){
+				predicates=new int[size];
+				targets=new int[size];
+			}
+			int read=rows.read(node, predicates, targets);
+			for(int i=0;i<read;i++)
+				sum+=targets[i];
+			count+=read;
+		}
+		long elapsed=System.nanoTime()-start;
+		// Use the sum, so the reads aren't optimized away
+		if(sum==42)
+			logger.debug("{}", sum);
+		return count==0?0:elapsed*1.0/count;
+	}
+
+	/**
+	 * Time reading random other nodes, one at a time, from the runs of the nodes (the runs are read before the timing, as the step table does)
+	 * @param rows The rows
+	 * @param nodes The nodes to read
+	 * @param targetsPerNode The other nodes read from each node, as the walks that pass through it
+	 * @param random The random numbers
+	 * @return The time in ns for each other node
+	 */
+	private static double timeTargets(CsrGraph.Rows rows, int[] nodes, int targetsPerNode, Random random){
+		int[] stepNodes=new int[nodes.length*targetsPerNode];
+		int[] stepPositions=new int[stepNodes.length];
+		int[] stepCounts=new int[stepNodes.length];
+		int[] stepIndexes=new int[stepNodes.length];
+		int steps=0;
+		int[] predicates=new int[1024];
+		int[] positions=new int[1024];
+		int[] counts=new int[1024];
+		for(int node:nodes){
+			int runs=rows.predicateCount(node);
+			if(runs==0)
+				continue;
+			if(runs>predicates.length){
+				predicates=new int[runs];
+				positions=new int[runs];
+				counts=new int[runs];
+			}
+			rows.readRuns(node, predicates, positions, counts);
+			for(int i=0;i<targetsPerNode;i++){
+				int run=random.nextInt(runs);
+				stepNodes[steps]=node;
+				stepPositions[steps]=positions[run];
+				stepCounts[steps]=counts[run];
+				stepIndexes[steps]=random.nextInt(counts[run]);
+				steps++;
+			}
+		}
+		long sum=0;
+		long start=System.nanoTime();
+		for(int i=0;i<steps;i++)
+			sum+=rows.target(stepNodes[i], stepPositions[i], stepCounts[i], stepIndexes[i]);
+		long elapsed=System.nanoTime()-start;
+		// Use the sum, so the reads aren't optimized away
+		if(sum==42)
+			logger.debug("{}", sum);
+		return steps==0?0:elapsed*1.0/steps;
+	}
+
+	private static void report(String name, CsrGraph graph, int[] inOrder, int[] randomOrder, int[] hubs){
+		for(int round=1;round<=ROUNDS;round++){
+			double outgoing=time(graph.getOutgoingRows(), inOrder);
+			double incoming=time(graph.getIncomingRows(), inOrder);
+			double random=time(graph.getIncomingRows(), randomOrder);
+			double randomTargets=timeTargets(graph.getIncomingRows(), randomOrder, TARGETS_PER_NODE, new Random(round));
+			double hubTargets=timeTargets(graph.getIncomingRows(), hubs, TARGETS_PER_HUB, new Random(round));
+			if(round==ROUNDS){
+				logger.info("{}: {} MB, {} bytes per relationship (both directions); {} ns per row outgoing, {} ns per row incoming, {} ns per row incoming of random nodes",
+						name, graph.getRelationshipBytes()>>20, String.format("%.2f", graph.getRelationshipBytes()*1.0/graph.getRelationshipCount()),
+						String.format("%.1f", outgoing), String.format("%.1f", incoming), String.format("%.1f", random));
+				logger.info("{}: {} ns per random incoming other node of random nodes, {} ns of the hubs",
+						name, String.format("%.1f", randomTargets), String.format("%.1f", hubTargets));
+			}
+		}
+	}
+
+	/**
+	 * Run the benchmark
+	 * @param args The number of nodes, relationships & predicates (default 1000000, 10000000, 1000)
+	 * @throws IOException Thrown if there's a problem building the graph
+	 */
+	public static void main(String[] args) throws IOException{
+		int nodes=args.length>0?Integer.parseInt(args[0]):1000000;
+		int relationships=args.length>1?Integer.parseInt(args[1]):10000000;
+		int predicates=args.length>2?Integer.parseInt(args[2]):1000;
+		logger.info("Building graphs with {} nodes, {} relationships & {} predicates...", nodes, relationships, predicates);
+		CsrGraph arrays=build(nodes, relationships, predicates, false);
+		CsrGraph compressed=build(nodes, relationships, predicates, true);
+
+		int[] inOrder=new int[arrays.getNodeCount()];
+		for(int i=0;i<inOrder.length;i++)
+			inOrder[i]=i;
+		int[] randomOrder=new int[inOrder.length];
+		Random random=new Random(7);
+		for(int i=0;i<randomOrder.length;i++)
+			randomOrder[i]=random.nextInt(randomOrder.length);
+
+		// The hubs are the nodes with the most incoming relationships, the same in both graphs
+		Integer[] byDegree=new Integer[arrays.getNodeCount()];
+		for(int i=0;i<byDegree.length;i++)
+			byDegree[i]=i;
+		Arrays.sort(byDegree, (a, b) -> Integer.compare(arrays.getIncomingRows().size(b), arrays.getIncomingRows().size(a)));
+		int[] hubs=new int[Math.min(HUBS, byDegree.length)];
+		for(int i=0;i<hubs.length;i++)
+			hubs[i]=byDegree[i];
+
+		report("Arrays", arrays, inOrder, randomOrder, hubs);
+		report("Compressed", compressed, inOrder, randomOrder, hubs);
+	}
+}
@@ -0,0 +1,399 @@
+package randomWalks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds a CsrGraph from the triples. The triples are kept as ints in growing arrays while loading,
+ * & then sorted into the rows of the graph. The rows are on the heap, or outside it (see setOffHeap).
+ * With two passes over the triples (see setTwoPass), the first pass only counts the rows of each node,
+ * & the second fills arrays of exactly the right size, so nothing grows & is copied.
+ * The predicates are numbered in the order of their names when the graph is built, like the nodes, so the graph is the same
+ * whatever order the triples are added in, e.g. by files read at the same time.
+ * @author rparundekar
+ */
+public class CsrGraphBuilder {
+	// The ids of the nodes & the predicates, in the order they are seen
+	private Map<String,Integer> nodeIds=new HashMap<>();
+	private final Map<String,Integer> predicateIds=new HashMap<>();
+	// Where the rows are kept: on the heap, or off the heap in direct memory or in files mapped from the folder
+	private boolean offHeap=false;
+	private File folder;
+	// Compress the rows of the relationships
+	private boolean compressed=false;
+
+	// The attributes: node, predicate
+	private int[] attributes=new int[1024];
+	private int attributeCount=0;
+	// The relationships: subject, predicate, object
+	private int[] relationships=new int[1536];
+	private int relationshipCount=0;
+
+	// Two passes: the number of rows of each node (by the id it was seen with) in the first pass,
+	// & the nodes in order, the offsets of their rows (by their order) & the rows being filled in the second
+	private boolean twoPass=false;
+	private boolean secondPass=false;
+	private int[] attributeDegrees;
+	private int[] outDegrees;
+	private int[] inDegrees;
+	private String[] nodes;
+	private int[] order;
+	// The number of each predicate (by the id it was seen with) in the order of the names, when the graph is built
+	private int[] predicateOrder;
+	private Fill attributeFill;
+	private Fill outgoingFill;
+	private Fill incomingFill;
+
+	/**
+	 * The rows of one kind, filled in the second pass
+	 */
+	private static class Fill{
+		private final int[] offsets;
+		private final int[] next;
+		private final long[] keys;
+
+		private Fill(int[] degrees, int[] order){
+			offsets=new int[order.length+1];
+			for(int i=0;i<order.length;i++)
+				offsets[order[i]+1]=degrees[i];
+			for(int i=0;i<order.length;i++)
+				offsets[i+1]+=offsets[i];
+			next=Arrays.copyOf(offsets, order.length);
+			keys=new long[offsets[order.length]];
+		}
+
+		private void add(int node, long key){
+			if(next[node]==offsets[node+1])
+				throw new IllegalStateException("The triples changed between the passes");
+			keys[next[node]++]=key;
+		}
+	}
+
+	/**
+	 * Compress the rows of the relationships with gaps & varints (see CompressedRows), to hold bigger graphs in less memory.
+	 * Reading the rows of a node then decodes them, instead of reading the arrays.
+	 * @param compressed True to compress the rows
+	 */
+	public void setCompressed(boolean compressed){
+		this.compressed=compressed;
+	}
+
+	/**
+	 * Keep the rows of the graph outside the heap, so the garbage collector doesn't scan them & the graph can be bigger than the heap.
+	 * @param folder The folder for the files of the rows, which are mapped so the OS can page them,
+	 * or null for direct memory
+	 */
+	public void setOffHeap(File folder){
+		this.offHeap=true;
+		this.folder=folder;
+		if(folder!=null)
+			folder.mkdirs();
+	}
+
+	/**
+	 * Set the number of nodes expected, e.g. the instances of the inner join, so the ids of the nodes don't need rehashing
+	 * @param expectedNodes The number of nodes
+	 */
+	public void setExpectedNodes(int expectedNodes){
+		if(nodeIds.isEmpty())
+			nodeIds=new HashMap<>((int)(expectedNodes/0.75f)+1);
+	}
+
+	/**
+	 * Build the graph in two passes over the triples: the first counts the rows of each node
+	 * & the second (after startSecondPass) fills arrays of exactly the right size.
+	 * This needs less memory at the peak & doesn't copy growing arrays, but the triples are read twice.
+	 * @param twoPass True to build in two passes
+	 */
+	public void setTwoPass(boolean twoPass){
+		this.twoPass=twoPass;
+		if(twoPass){
+			attributes=null;
+			relationships=null;
+			attributeDegrees=new int[1024];
+			outDegrees=new int[1024];
+			inDegrees=new int[1024];
+		}
+	}
+
+	/**
+	 * @return True if the graph is built in two passes over the triples
+	 */
+	public boolean isTwoPass(){
+		return twoPass;
+	}
+
+	/**
+	 * Start the second pass over the triples. The nodes are numbered & the arrays for the rows are allocated.
+	 * The same triples must then be added again.
+	 */
+	public void startSecondPass(){
+		if(!twoPass || secondPass)
+			throw new IllegalStateException("Not in the first of two passes");
+		number();
+		attributeFill=new Fill(attributeDegrees, order);
+		attributeDegrees=null;
+		outgoingFill=new Fill(outDegrees, order);
+		outDegrees=null;
+		incomingFill=new Fill(inDegrees, order);
+		inDegrees=null;
+		secondPass=true;
+	}
+
+	/**
+	 * Number the nodes in the order of their ids
+	 */
+	private void number(){
+		nodes=new String[nodeIds.size()];
+		for(Map.Entry<String,Integer> node:nodeIds.entrySet())
+			nodes[node.getValue()]=node.getKey();
+		Arrays.sort(nodes);
+		order=new int[nodes.length];
+		for(int i=0;i<nodes.length;i++)
+			order[nodeIds.get(nodes[i])]=i;
+	}
+
+	/**
+	 * Count a row of a node, in the first of two passes
+	 */
+	private static int[] count(int[] degrees, int node){
+		if(node>=degrees.length)
+			degrees=Arrays.copyOf(degrees, Math.max(node+1, degrees.length*2));
+		degrees[node]++;
+		return degrees;
+	}
+
+	/**
+	 * Get the id of a node. In the second of two passes, the node must have been seen in the first.
+	 */
+	private int node(String node){
+		if(!secondPass)
+			return id(nodeIds, node);
+		Integer id=nodeIds.get(node);
+		if(id==null)
+			throw new IllegalStateException("The triples changed between the passes: " + node + " is new");
+		return id;
+	}
+
+	/**
+	 * Add an attribute of a node
+	 * @param subject The id of the node
+	 * @param attribute The name of the attribute
+	 */
+	public void addAttribute(String subject, String attribute){
+		addAttribute(node(subject), id(predicateIds, attribute));
+	}
+
+	private void addAttribute(int subject, int attribute){
+		if(secondPass){
+			attributeFill.add(order[subject], key(attribute, 0));
+			return;
+		}
+		if(twoPass){
+			attributeDegrees=count(attributeDegrees, subject);
+			attributeCount++;
+			return;
+		}
+		if(2*(attributeCount+1)>attributes.length)
+			attributes=Arrays.copyOf(attributes, attributes.length*2);
+		attributes[2*attributeCount]=subject;
+		attributes[2*attributeCount+1]=attribute;
+		attributeCount++;
+	}
+
+	/**
+	 * Add a relationship
+	 * @param subject The id of the subject
+	 * @param relationship The relationship type
+	 * @param object The id of the object
+	 */
+	public void addRelationship(String subject, String relationship, String object){
+		addRelationship(node(subject), id(predicateIds, relationship), node(object));
+	}
+
+	private void addRelationship(int subject, int relationship, int object){
+		if(secondPass){
+			outgoingFill.add(order[subject], key(relationship, order[object]));
+			incomingFill.add(order[object], key(relationship, order[subject]));
+			return;
+		}
+		if(twoPass){
+			outDegrees=count(outDegrees, subject);
+			inDegrees=count(inDegrees, object);
+			relationshipCount++;
+			return;
+		}
+		if(3*(relationshipCount+1)>relationships.length)
+			relationships=Arrays.copyOf(relationships, relationships.length*2);
+		relationships[3*relationshipCount]=subject;
+		relationships[3*relationshipCount+1]=relationship;
+		relationships[3*relationshipCount+2]=object;
+		relationshipCount++;
+	}
+
+	private static int id(Map<String,Integer> ids, String name){
+		Integer id=ids.get(name);
+		if(id==null){
+			id=ids.size();
+			ids.put(name, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Build the graph. The builder can't be used after.
+	 * @return The graph
+	 * @throws IOException Thrown if there's a problem mapping the files of the rows
+	 */
+	public CsrGraph build() throws IOException{
+		if(twoPass && !secondPass)
+			throw new IllegalStateException("The second pass hasn't started");
+		if(!twoPass)
+			number();
+		nodeIds.clear();
+
+		String[] predicates=predicateIds.keySet().toArray(new String[predicateIds.size()]);
+		Arrays.sort(predicates);
+		predicateOrder=new int[predicates.length];
+		for(int i=0;i<predicates.length;i++)
+			predicateOrder[predicateIds.get(predicates[i])]=i;
+		predicateIds.clear();
+
+		long attributeTripleCount=attributeCount;
+		CsrGraph.Rows attributeRows;
+		CsrGraph.Rows outgoing;
+		CsrGraph.Rows incoming;
+		if(twoPass){
+			attributeRows=rows("attributes", attributeFill, false);
+			attributeFill=null;
+			outgoing=rows("outgoing", outgoingFill, true);
+			outgoingFill=null;
+			incoming=rows("incoming", incomingFill, true);
+			incomingFill=null;
+		}else{
+			long[] keys=new long[attributeCount];
+			int[] nodesOfKeys=new int[attributeCount];
+			for(int i=0;i<attributeCount;i++){
+				nodesOfKeys[i]=order[attributes[2*i]];
+				keys[i]=key(attributes[2*i+1], 0);
+			}
+			attributeRows=rows("attributes", nodes.length, nodesOfKeys, keys, false);
+			attributes=null;
+
+			keys=new long[relationshipCount];
+			nodesOfKeys=new int[relationshipCount];
+			for(int i=0;i<relationshipCount;i++){
+				nodesOfKeys[i]=order[relationships[3*i]];
+				keys[i]=key(relationships[3*i+1], order[relationships[3*i+2]]);
+			}
+			outgoing=rows("outgoing", nodes.length, nodesOfKeys, keys, true);
+			for(int i=0;i<relationshipCount;i++){
+				nodesOfKeys[i]=order[relationships[3*i+2]];
+				keys[i]=key(relationships[3*i+1], order[relationships[3*i]]);
+			}
+			incoming=rows("incoming", nodes.length, nodesOfKeys, keys, true);
+			relationships=null;
+		}
+		CsrGraph graph=new CsrGraph(nodes, predicates, attributeRows, outgoing, incoming, attributeTripleCount);
+		nodes=null;
+		order=null;
+		predicateOrder=null;
+		return graph;
+	}
+
+	private static long key(int predicate, int other){
+		return ((long)predicate<<32) | (other & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Allocate an array for the rows
+	 * @param name The name of the array, for its file
+	 * @param length The number of ints
+	 * @return The array
+	 */
+	IntArray allocate(String name, int length) throws IOException{
+		if(!offHeap)
+			return IntArray.onHeap(length);
+		if(folder==null)
+			return OffHeapIntArray.allocate(length);
+		return OffHeapIntArray.map(new File(folder, name + ".bin"), length);
+	}
+
+	/**
+	 * Sort the keys (predicate & other node) into the rows of their nodes, without repeats
+	 * @param name The name of the rows
+	 * @param nodeCount The number of nodes
+	 * @param nodesOfKeys The node of each key
+	 * @param keys The keys
+	 * @param withTargets True if the keys have other nodes
+	 * @return The rows
+	 */
+	private CsrGraph.Rows rows(String name, int nodeCount, int[] nodesOfKeys, long[] keys, boolean withTargets) throws IOException{
+		// Counting sort by node
+		int[] offsets=new int[nodeCount+1];
+		for(int node:nodesOfKeys)
+			offsets[node+1]++;
+		for(int i=0;i<nodeCount;i++)
+			offsets[i+1]+=offsets[i];
+		long[] sorted=new long[keys.length];
+		int[] next=Arrays.copyOf(offsets, nodeCount);
+		for(int i=0;i<keys.length;i++)
+			sorted[next[nodesOfKeys[i]]++]=keys[i];
+		return compact(name, nodeCount, offsets, sorted, withTargets);
+	}
+
+	/**
+	 * Make the rows filled in the second pass
+	 * @param name The name of the rows
+	 * @param fill The rows filled
+	 * @param withTargets True if the keys have other nodes
+	 * @return The rows
+	 */
+	private CsrGraph.Rows rows(String name, Fill fill, boolean withTargets) throws IOException{
+		int nodeCount=fill.next.length;
+		for(int node=0;node<nodeCount;node++)
+			if(fill.next[node]!=fill.offsets[node+1])
+				throw new IllegalStateException("The triples changed between the passes");
+		return compact(name, nodeCount, fill.offsets, fill.keys, withTargets);
+	}
+
+	/**
+	 * Number the predicates of the keys in the order of their names, sort each row of keys & remove the repeats, in place
+	 * @param name The name of the rows
+	 * @param nodeCount The number of nodes
+	 * @param offsets The offset of the keys of each node
+	 * @param sorted The keys, in the order of their nodes
+	 * @param withTargets True if the keys have other nodes
+	 * @return The rows
+	 */
+	private CsrGraph.Rows compact(String name, int nodeCount, int[] offsets, long[] sorted, boolean withTargets) throws IOException{
+		int[] compacted=new int[nodeCount+1];
+		int size=0;
+		for(int i=0;i<offsets[nodeCount];i++)
+			sorted[i]=key(predicateOrder[(int)(sorted[i]>>>32)], (int)sorted[i]);
+		for(int node=0;node<nodeCount;node++){
+			Arrays.sort(sorted, offsets[node], offsets[node+1]);
+			for(int i=offsets[node];i<offsets[node+1];i++){
+				if(i==offsets[node] || sorted[i]!=sorted[i-1])
+					sorted[size++]=sorted[i];
+			}
+			compacted[node+1]=size;
+		}
+		if(withTargets && compressed)
+			return CompressedRows.encode(name, nodeCount, compacted, sorted, this);
+		IntArray rowOffsets=allocate(name + "_offsets", nodeCount+1);
+		for(int i=0;i<=nodeCount;i++)
+			rowOffsets.set(i, compacted[i]);
+		IntArray predicates=allocate(name + "_predicates", size);
+		IntArray targets=withTargets?allocate(name + "_targets", size):null;
+		for(int i=0;i<size;i++){
+			predicates.set(i, (int)(sorted[i]>>>32));
+			if(withTargets)
+				targets.set(i, (int)sorted[i]);
+		}
+		return new CsrGraph.ArrayRows(rowOffsets, predicates, targets);
+	}
+}
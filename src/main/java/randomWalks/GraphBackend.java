@@ -0,0 +1,32 @@
+package randomWalks;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Access to the neighborhood of a node, for the random walks.
+ * The nodes are the cleaned DBpedia ids, e.g. the same ids in Neo4J & in memory.
+ * @author rparundekar
+ */
+public interface GraphBackend {
+	/**
+	 * Get the attributes of a node
+	 * @param id The id of the node
+	 * @return The names of the attributes (may have repeats), or an empty collection if the node isn't known
+	 */
+	Collection<String> getAttributes(String id);
+
+	/**
+	 * Get the outgoing relationships of a node
+	 * @param id The id of the node
+	 * @return The ids of the other nodes for each relationship type, or an empty map if the node isn't known
+	 */
+	Map<String, ? extends Collection<String>> getRelationships(String id);
+
+	/**
+	 * Get the incoming relationships of a node
+	 * @param id The id of the node
+	 * @return The ids of the other nodes for each relationship type, or an empty map if the node isn't known
+	 */
+	Map<String, ? extends Collection<String>> getIncomingRelationships(String id);
+}
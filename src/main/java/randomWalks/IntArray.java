@@ -0,0 +1,60 @@
+package randomWalks;
+
+/**
+ * An array of ints, on the heap or outside it (see OffHeapIntArray), so the graph doesn't care where its rows live.
+ * @author rparundekar
+ */
+public interface IntArray {
+	/**
+	 * @param index The index
+	 * @return The int at the index
+	 */
+	int get(int index);
+
+	/**
+	 * Set the int at an index
+	 * @param index The index
+	 * @param value The int
+	 */
+	void set(int index, int value);
+
+	/**
+	 * @return The number of ints
+	 */
+	int length();
+
+	/**
+	 * Create an array on the heap
+	 * @param length The number of ints
+	 * @return The array
+	 */
+	static IntArray onHeap(int length){
+		return new HeapIntArray(new int[length]);
+	}
+
+	/**
+	 * An array on the heap
+	 */
+	class HeapIntArray implements IntArray{
+		private final int[] values;
+
+		HeapIntArray(int[] values){
+			this.values=values;
+		}
+
+		@Override
+		public int get(int index) {
+			return values[index];
+		}
+
+		@Override
+		public void set(int index, int value) {
+			values[index]=value;
+		}
+
+		@Override
+		public int length() {
+			return values.length;
+		}
+	}
+}
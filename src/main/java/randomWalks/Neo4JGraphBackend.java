@@ -0,0 +1,68 @@
+package randomWalks;
+
+import static org.neo4j.driver.v1.Values.parameters;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+
+/**
+ * The graph in Neo4J, read over a session. Good for exploring, as the queries are one round trip each.
+ * @author rparundekar
+ */
+public class Neo4JGraphBackend implements GraphBackend {
+	private final Session session;
+
+	/**
+	 * Create the backend
+	 * @param session The session, which is used by one thread at a time
+	 */
+	public Neo4JGraphBackend(Session session){
+		this.session=session;
+	}
+
+	@Override
+	public Collection<String> getAttributes(String id) {
+		List<String> attributes=new ArrayList<>();
+		StatementResult result = session.run("MATCH (t:Thing {id:{id}}) return keys(t) AS keys", parameters("id", id));
+		if(result.hasNext()){
+			for(Object key:result.next().get("keys").asList()){
+				if(!key.equals("id"))
+					attributes.add(key.toString());
+			}
+		}
+		return attributes;
+	}
+
+	@Override
+	public Map<String, List<String>> getRelationships(String id) {
+		return relationships("MATCH (t:Thing {id:{id}})-[r]->(o:Thing) return type(r) AS type, o.id AS other", id);
+	}
+
+	@Override
+	public Map<String, List<String>> getIncomingRelationships(String id) {
+		return relationships("MATCH (o:Thing)-[r]->(t:Thing {id:{id}}) return type(r) AS type, o.id AS other", id);
+	}
+
+	private Map<String, List<String>> relationships(String query, String id){
+		Map<String, List<String>> relationships=new HashMap<>();
+		StatementResult result = session.run(query, parameters("id", id));
+		while(result.hasNext()){
+			Record record = result.next();
+			String type=record.get("type").asString();
+			List<String> others=relationships.get(type);
+			if(others==null){
+				others=new ArrayList<>();
+				relationships.put(type, others);
+			}
+			others.add(record.get("other").asObject().toString());
+		}
+		return relationships;
+	}
+}
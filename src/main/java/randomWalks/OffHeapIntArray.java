@@ -0,0 +1,111 @@
+package randomWalks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An array of ints outside the heap, so the garbage collector doesn't scan or move it.
+ * It is in direct memory, or mapped from a file so the OS can page it in & out. 
+ * A buffer has at most 2GB, so the array is split into segments of 1GB.
+ * The ints are little endian, so the files are the same on any machine.
+ * @author rparundekar
+ */
+public class OffHeapIntArray implements IntArray {
+	// The ints in a segment: 2^28, i.e. 1GB
+	private static final int SEGMENT_BITS=28;
+	private static final int SEGMENT_MASK=(1<<SEGMENT_BITS)-1;
+
+	private final IntBuffer[] segments;
+	private final int length;
+
+	private OffHeapIntArray(IntBuffer[] segments, int length){
+		this.segments=segments;
+		this.length=length;
+	}
+
+	/**
+	 * Allocate an array in direct memory
+	 * @param length The number of ints
+	 * @return The array, filled with 0s
+	 */
+	public static OffHeapIntArray allocate(int length){
+		IntBuffer[] segments=new IntBuffer[segmentCount(length)];
+		for(int i=0;i<segments.length;i++)
+			segments[i]=ByteBuffer.allocateDirect(4*segmentLength(length, i)).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		return new OffHeapIntArray(segments, length);
+	}
+
+	/**
+	 * Map an array from a file. The file is created or resized to the length, & the writes go to the file.
+	 * @param file The file
+	 * @param length The number of ints
+	 * @return The array
+	 * @throws IOException Thrown if there's a problem mapping the file
+	 */
+	public static OffHeapIntArray map(File file, int length) throws IOException{
+		try(RandomAccessFile randomAccessFile=new RandomAccessFile(file, "rw")){
+			randomAccessFile.setLength(4L*length);
+			return map(randomAccessFile.getChannel(), FileChannel.MapMode.READ_WRITE, 0, length);
+		}
+	}
+
+	/**
+	 * Map an existing file as an array, to read it
+	 * @param file The file
+	 * @return The array
+	 * @throws IOException Thrown if there's a problem mapping the file
+	 */
+	public static OffHeapIntArray open(File file) throws IOException{
+		try(RandomAccessFile randomAccessFile=new RandomAccessFile(file, "r")){
+			return map(randomAccessFile.getChannel(), FileChannel.MapMode.READ_ONLY, 0, (int)(randomAccessFile.length()/4));
+		}
+	}
+
+	/**
+	 * Map a part of a file as an array, to read it
+	 * @param channel The channel of the file
+	 * @param position The position of the first int
+	 * @param length The number of ints
+	 * @return The array
+	 * @throws IOException Thrown if there's a problem mapping the file
+	 */
+	static OffHeapIntArray map(FileChannel channel, long position, int length) throws IOException{
+		return map(channel, FileChannel.MapMode.READ_ONLY, position, length);
+	}
+
+	private static OffHeapIntArray map(FileChannel channel, FileChannel.MapMode mode, long position, int length) throws IOException{
+		// The mappings stay valid after the channel is closed
+		IntBuffer[] segments=new IntBuffer[segmentCount(length)];
+		for(int i=0;i<segments.length;i++)
+			segments[i]=channel.map(mode, position+(4L*i<<SEGMENT_BITS), 4L*segmentLength(length, i)).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		return new OffHeapIntArray(segments, length);
+	}
+
+	private static int segmentCount(int length){
+		return Math.max(1, (int)(((long)length+SEGMENT_MASK)>>>SEGMENT_BITS));
+	}
+
+	private static int segmentLength(int length, int segment){
+		return (int)Math.min(1L<<SEGMENT_BITS, length-((long)segment<<SEGMENT_BITS));
+	}
+
+	@Override
+	public int get(int index) {
+		return segments[index>>>SEGMENT_BITS].get(index & SEGMENT_MASK);
+	}
+
+	@Override
+	public void set(int index, int value) {
+		segments[index>>>SEGMENT_BITS].put(index & SEGMENT_MASK, value);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+}
@@ -0,0 +1,228 @@
+package randomWalks;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates the random walks of many instances at the same time, spread over a fork-join pool.
+ * Each instance gets its own SplittableRandom, seeded from the seed & the index of the instance, so the walks are the same
+ * for any number of threads. The ids of the walks are assigned concurrently & then renumbered in the order the walks
+ * are first seen (by instance, then by walk), which is the order of walking the instances one by one.
+ * @author rparundekar
+ */
+public class ParallelWalkGenerator {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(ParallelWalkGenerator.class);
+
+	// The number of instances walked by a task, without splitting it
+	private static final int INSTANCES_PER_TASK=64;
+	// Spreads the seeds of the instances (the golden ratio, as in SplittableRandom)
+	private static final long SEED_GAMMA=0x9E3779B97F4A7C15L;
+
+	/**
+	 * Gets the walks of an instance
+	 */
+	public interface Walker{
+		/**
+		 * @param id The id of the instance
+		 * @param random The random number generator of the instance
+		 * @return The walks for each dataset (parameter combination)
+		 */
+		Map<String, Set<String>> getWalks(String id, SplittableRandom random);
+	}
+
+	/**
+	 * The walks of a dataset: the ids of the walks, & the walks of each instance
+	 */
+	public static class Dataset{
+		// The walks & their ids, first as they are assigned & then in the order they are first seen
+		private final Map<String,Walk> walks=new ConcurrentHashMap<>();
+		private final AtomicInteger nextId=new AtomicInteger(1);
+		// The ids of the walks of each instance, by index
+		private final int[][] walksOfInstances;
+
+		private Map<String,int[]> walksById;
+		private Map<String,Integer> walkIds;
+
+		private Dataset(int instanceCount){
+			walksOfInstances=new int[instanceCount][];
+		}
+
+		/**
+		 * Add the walks of an instance
+		 * @param index The index of the instance
+		 * @param instanceWalks The walks
+		 */
+		private void add(int index, Set<String> instanceWalks){
+			int[] ids=new int[instanceWalks.size()];
+			int position=0;
+			for(String instanceWalk:instanceWalks){
+				// The order the walk is first seen in: by instance, then by its position in the walks of the instance
+				long seen=((long)index<<32) | position;
+				Walk walk=walks.computeIfAbsent(instanceWalk, w -> new Walk(nextId.getAndIncrement(), seen));
+				walk.seen(seen);
+				ids[position++]=walk.id;
+			}
+			walksOfInstances[index]=ids;
+		}
+
+		/**
+		 * Renumber the walks in the order they are first seen
+		 * @param ids The ids of the instances
+		 */
+		private void finish(List<String> ids){
+			List<Map.Entry<String,Walk>> ordered=new ArrayList<>(walks.entrySet());
+			ordered.sort(Comparator.comparingLong(walk -> walk.getValue().firstSeen));
+			int[] renumbered=new int[nextId.get()];
+			walkIds=new LinkedHashMap<>();
+			for(Map.Entry<String,Walk> walk:ordered){
+				renumbered[walk.getValue().id]=walkIds.size()+1;
+				walkIds.put(walk.getKey(), walkIds.size()+1);
+			}
+			walks.clear();
+			walksById=new LinkedHashMap<>();
+			for(int i=0;i<walksOfInstances.length;i++){
+				int[] instanceWalks=walksOfInstances[i];
+				if(instanceWalks==null)
+					continue;
+				for(int j=0;j<instanceWalks.length;j++)
+					instanceWalks[j]=renumbered[instanceWalks[j]];
+				walksById.put(ids.get(i), instanceWalks);
+				walksOfInstances[i]=null;
+			}
+		}
+
+		/**
+		 * @return The ids of the walks of each instance with walks
+		 */
+		public Map<String,int[]> getWalks(){
+			return walksById;
+		}
+
+		/**
+		 * @return The id of each walk, from 1
+		 */
+		public Map<String,Integer> getWalkIds(){
+			return walkIds;
+		}
+
+		/**
+		 * @return The next id of a walk, i.e. the number of walks + 1
+		 */
+		public int getWalkCounter(){
+			return walkIds.size()+1;
+		}
+	}
+
+	/**
+	 * A walk's id, as it is assigned, & when it was first seen
+	 */
+	private static class Walk{
+		private final int id;
+		private long firstSeen;
+
+		private Walk(int id, long seen){
+			this.id=id;
+			this.firstSeen=seen;
+		}
+
+		private synchronized void seen(long seen){
+			if(seen<firstSeen)
+				firstSeen=seen;
+		}
+	}
+
+	private final int parallelism;
+	private final long seed;
+
+	/**
+	 * Create the generator
+	 * @param parallelism The number of threads
+	 * @param seed The seed of the random numbers
+	 */
+	public ParallelWalkGenerator(int parallelism, long seed){
+		this.parallelism=Math.max(1, parallelism);
+		this.seed=seed;
+	}
+
+	/**
+	 * Walk from each instance
+	 * @param ids The ids of the instances, in the order of the rows
+	 * @param walker Gets the walks of an instance, from any of the threads
+	 * @return The walks of each dataset (parameter combination)
+	 */
+	public Map<String,Dataset> walk(List<String> ids, Walker walker){
+		Map<String,Dataset> datasets=new ConcurrentHashMap<>();
+		AtomicLong walked=new AtomicLong();
+		long start=System.currentTimeMillis();
+		ForkJoinPool pool=new ForkJoinPool(parallelism);
+		try{
+			pool.invoke(new WalkTask(ids, walker, datasets, walked, start, 0, ids.size()));
+		}finally{
+			pool.shutdown();
+		}
+		for(Dataset dataset:datasets.values())
+			dataset.finish(ids);
+		logger.info("{} instances walked in {} ms with {} thread(s).", ids.size(), System.currentTimeMillis()-start, parallelism);
+		return datasets;
+	}
+
+	/**
+	 * Walks from the instances in a range, splitting the range while it is big
+	 */
+	private class WalkTask extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		private final List<String> ids;
+		private final Walker walker;
+		private final Map<String,Dataset> datasets;
+		private final AtomicLong walked;
+		private final long start;
+		private final int from;
+		private final int to;
+
+		private WalkTask(List<String> ids, Walker walker, Map<String,Dataset> datasets, AtomicLong walked, long start, int from, int to){
+			this.ids=ids;
+			this.walker=walker;
+			this.datasets=datasets;
+			this.walked=walked;
+			this.start=start;
+			this.from=from;
+			this.to=to;
+		}
+
+		@Override
+		protected void compute(){
+			if(to-from>INSTANCES_PER_TASK){
+				int middle=(from+to)>>>1;
+				invokeAll(new WalkTask(ids, walker, datasets, walked, start, from, middle),
+						new WalkTask(ids, walker, datasets, walked, start, middle, to));
+				return;
+			}
+			for(int index=from;index<to;index++){
+				SplittableRandom random=new SplittableRandom(seed + index*SEED_GAMMA);
+				Map<String, Set<String>> allWalks=walker.getWalks(ids.get(index), random);
+				for(Map.Entry<String, Set<String>> walks:allWalks.entrySet()){
+					if(walks.getValue().isEmpty())
+						continue;
+					datasets.computeIfAbsent(walks.getKey(), dataset -> new Dataset(ids.size())).add(index, walks.getValue());
+				}
+				long count=walked.incrementAndGet();
+				if(count%10000==0)
+					logger.info("{} of {} instances walked in {} ms.", count, ids.size(), System.currentTimeMillis()-start);
+			}
+		}
+	}
+}
@@ -0,0 +1,397 @@
+package randomWalks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generates the random walks from a node, over any graph backend (e.g. Neo4J or in memory).
+ * A walk is a string of steps. The steps that stay on a node (has_, hasRel_, hasInRel_) are in lexicographic order,
+ * & the steps to other nodes (rel-> & rel<-) are in the order they are walked.
+ * Over the graph in memory, the steps are read from its step table (see StepTable); over other graphs, the steps of each node
+ * are listed when it's first walked from an instance.
+ * By default the steps to other nodes are the ones of the first walkers of each graph; see setRandomNeighbors.
+ * @author rparundekar
+ */
+public class RandomWalkGenerator {
+	/**
+	 * The steps available from a node
+	 */
+	private static class Steps{
+		private final String[] labels;
+		// The other nodes for each step, or null if the step stays on the node
+		private final String[][] nextNodes;
+
+		/**
+		 * @param steps The steps & the other nodes they go to (null to stay on the node)
+		 * @param stepPerNode True to make a step for each of the other nodes, false to make one step for all of them
+		 */
+		private Steps(Map<String, List<String>> steps, boolean stepPerNode){
+			int size=0;
+			for(List<String> others:steps.values())
+				size+=others==null || !stepPerNode?1:others.size();
+			labels=new String[size];
+			nextNodes=new String[size][];
+			int i=0;
+			for(Map.Entry<String, List<String>> step:steps.entrySet()){
+				if(step.getValue()==null || !stepPerNode){
+					labels[i]=step.getKey();
+					nextNodes[i]=step.getValue()==null?null:step.getValue().toArray(new String[step.getValue().size()]);
+					i++;
+				}else{
+					for(String other:step.getValue()){
+						labels[i]=step.getKey();
+						nextNodes[i]=new String[]{other};
+						i++;
+					}
+				}
+			}
+		}
+	}
+
+	private final GraphBackend graph;
+	// The graph in memory, whose steps are read from the step tables, or null to list the steps of each node as it's walked
+	private final CsrGraph csrGraph;
+	// The step table of the graph in memory, built the first time it's walked
+	private StepTable stepTable;
+	// The types of steps walked, by the types of steps allowed & if the relationships are walked
+	private final Map<Integer, StepTable.Selection> selections=new ConcurrentHashMap<>();
+	// Only the relationships with bins are walked, & the walks that end on another node end with its id
+	private RelationshipLoadChecker binner;
+	// Pick the length of each walk, shorter walks more often, instead of walking the max length
+	private boolean variableLength=false;
+	// Walk to a random other node of each type of relationship, out & in, on every graph, instead of the steps of the first walkers
+	private boolean randomNeighbors=false;
+
+	/**
+	 * Create the generator
+	 * @param graph The graph
+	 */
+	public RandomWalkGenerator(GraphBackend graph){
+		this.graph=graph;
+		this.csrGraph=null;
+	}
+
+	/**
+	 * Create the generator over the graph in memory. The steps of its nodes are read from a step table,
+	 * built the first time they are walked & shared by all the walks.
+	 * @param graph The graph
+	 */
+	public RandomWalkGenerator(CsrGraph graph){
+		this.graph=graph;
+		this.csrGraph=graph;
+	}
+
+	/**
+	 * Set the binner for the relationships
+	 * @param binner The binner, or null to walk all the relationships
+	 */
+	public void setBinner(RelationshipLoadChecker binner){
+		this.binner=binner;
+		// The binner decides the relationships walked
+		selections.clear();
+	}
+
+	/**
+	 * Set the strategy for the length of the walks
+	 * @param variableLength True to pick the length of each walk (length i is picked max length-i+1 times as often),
+	 * false to walk the max length
+	 */
+	public void setVariableLength(boolean variableLength){
+		this.variableLength=variableLength;
+	}
+
+	/**
+	 * Set how the steps to other nodes are walked. By default they are the ones of the first walkers of each graph:
+	 * in memory, each type of relationship, out & in, is one step to the first of its other nodes that isn't the start;
+	 * over other graphs (e.g. Neo4J), each outgoing relationship is one step, & the incoming relationships aren't walked.
+	 * @param randomNeighbors True to make each type of relationship, out & in, one step to a random other node
+	 * that isn't the start, on every graph
+	 */
+	public void setRandomNeighbors(boolean randomNeighbors){
+		this.randomNeighbors=randomNeighbors;
+	}
+
+	/**
+	 * Get the random walks
+	 * @param id The instance id to start on
+	 * @param allowedTypes The allowed type of steps
+	 * @param maxLengths The max lengths to be extracted
+	 * @param numbersOfWalks The number of walks
+	 * @return The random walks for each parameter combination
+	 */
+	public Map<String, Set<String>> getWalks(String id, List<StepType> allowedTypes, List<Integer> maxLengths, List<Integer> numbersOfWalks) {
+		return getWalks(id, allowedTypes, maxLengths, numbersOfWalks, new SplittableRandom());
+	}
+
+	/**
+	 * Get the random walks, with the random numbers from the generator given, e.g. one seeded for the instance so the walks can be reproduced
+	 * @param id The instance id to start on
+	 * @param allowedTypes The allowed type of steps
+	 * @param maxLengths The max lengths to be extracted
+	 * @param numbersOfWalks The number of walks
+	 * @param random The random number generator, used only by this thread
+	 * @return The random walks for each parameter combination
+	 */
+	public Map<String, Set<String>> getWalks(String id, List<StepType> allowedTypes, List<Integer> maxLengths, List<Integer> numbersOfWalks, SplittableRandom random) {
+		if(csrGraph!=null)
+			return getTableWalks(id, allowedTypes, maxLengths, numbersOfWalks, random);
+		Map<String, Set<String>> allWalks = new HashMap<>();
+		// Repeat for each length and number of walks
+		for(Integer maxLength:maxLengths){
+			// Cache to help with faster listing the random walks available
+			// Only walk to other nodes if the walks are longer than 1. Else it is same as the relationship presence.
+			Map<String, Steps> stepsCache = new HashMap<>();
+			boolean walkRelationships = maxLength>1;
+			List<Integer> lengthList = new ArrayList<>();
+			for(int i=1;i<=maxLength;i++)
+				for(int j=maxLength;j>=i;j--)
+					lengthList.add(i);
+			for(Integer numberOfWalks:numbersOfWalks){
+				Set<String> walks=new HashSet<>();
+				for(int eachWalk=0;eachWalk<numberOfWalks;eachWalk++){
+					int lengthOfWalk = variableLength?lengthList.get(random.nextInt(lengthList.size())):maxLength;
+
+					// Starting at the current node, note the steps
+					String currentNodeId=id;
+
+					// While still at the current node, order steps lexicographically
+					Set<String> stepsAtNode = new TreeSet<>();
+
+					// The walk feature
+					StringBuilder walk=new StringBuilder();
+
+					// For each step
+					for(int step=0;step<lengthOfWalk;step++){
+						Steps steps=stepsCache.get(currentNodeId);
+						if(steps==null){
+							steps=getSteps(id, currentNodeId, allowedTypes, walkRelationships);
+							stepsCache.put(currentNodeId, steps);
+						}
+						if(steps.labels.length==0){
+							//Stay on same node if no available steps
+							continue;
+						}
+
+						// Pick one step randomly
+						int index=random.nextInt(steps.labels.length);
+						String s=steps.labels[index];
+						String[] nextNodes=steps.nextNodes[index];
+
+						if(nextNodes==null){
+							//If we are on same node add to lexicographic order of steps
+							stepsAtNode.add(s);
+						}else{
+							//Else pop the lexicographic order of steps and append to the walk
+							for(String st:stepsAtNode)
+								walk.append(st);
+							stepsAtNode.clear();
+							walk.append(s);
+							currentNodeId=nextNodes[random.nextInt(nextNodes.length)];
+						}
+					}
+					// Pop any remaining lexicographic order of steps and append to the walk
+					for(String st:stepsAtNode)
+						walk.append(st);
+					stepsAtNode.clear();
+
+					// Cleanup
+					String w = walk.toString().trim();
+					if(w.endsWith(","))
+						w=w.substring(0, w.length()-1);
+					else if((w.endsWith("->") || w.endsWith("<-")) && binner!=null)
+						w+="id="+currentNodeId;
+
+					if(!w.isEmpty())
+						walks.add(w);
+				}
+				// Add to the walks
+				allWalks.put(maxLength+ "x" + numberOfWalks, walks);
+			}
+		}
+		return allWalks;
+	}
+
+	/**
+	 * Get the random walks over the graph in memory, reading the steps from the step tables
+	 */
+	private Map<String, Set<String>> getTableWalks(String id, List<StepType> allowedTypes, List<Integer> maxLengths, List<Integer> numbersOfWalks, SplittableRandom random) {
+		Map<String, Set<String>> allWalks = new HashMap<>();
+		int start=csrGraph.getNode(id);
+		if(start<0)
+			return allWalks;
+		// The tokens of the steps at the current node, to order lexicographically
+		int[] stepsAtNode=new int[16];
+		for(Integer maxLength:maxLengths){
+			StepTable table=getStepTable();
+			StepTable.Selection selection=getSelection(allowedTypes, maxLength>1);
+			List<Integer> lengthList = new ArrayList<>();
+			for(int i=1;i<=maxLength;i++)
+				for(int j=maxLength;j>=i;j--)
+					lengthList.add(i);
+			for(Integer numberOfWalks:numbersOfWalks){
+				Set<String> walks=new HashSet<>();
+				for(int eachWalk=0;eachWalk<numberOfWalks;eachWalk++){
+					int lengthOfWalk = variableLength?lengthList.get(random.nextInt(lengthList.size())):maxLength;
+					int currentNode=start;
+					int stepsAtNodeCount=0;
+					StringBuilder walk=new StringBuilder();
+					for(int step=0;step<lengthOfWalk;step++){
+						long s=table.pickStep(selection, currentNode, start, random);
+						if(s<0){
+							//Stay on same node if no available steps
+							continue;
+						}
+						if(!table.isMove(s)){
+							//If we are on same node add to lexicographic order of steps
+							if(stepsAtNodeCount==stepsAtNode.length)
+								stepsAtNode=Arrays.copyOf(stepsAtNode, stepsAtNode.length*2);
+							stepsAtNode[stepsAtNodeCount++]=table.getToken(s);
+						}else{
+							//Else pop the lexicographic order of steps and append to the walk
+							appendSteps(walk, table, stepsAtNode, stepsAtNodeCount);
+							stepsAtNodeCount=0;
+							walk.append(table.getLabel(table.getToken(s)));
+							currentNode=randomNeighbors?table.pickTarget(s, currentNode, start, random):table.firstTarget(s, currentNode, start);
+						}
+					}
+					// Pop any remaining lexicographic order of steps and append to the walk
+					appendSteps(walk, table, stepsAtNode, stepsAtNodeCount);
+
+					// Cleanup
+					String w = walk.toString().trim();
+					if(w.endsWith(","))
+						w=w.substring(0, w.length()-1);
+					else if((w.endsWith("->") || w.endsWith("<-")) && binner!=null)
+						w+="id="+csrGraph.getId(currentNode);
+
+					if(!w.isEmpty())
+						walks.add(w);
+				}
+				// Add to the walks
+				allWalks.put(maxLength+ "x" + numberOfWalks, walks);
+			}
+		}
+		return allWalks;
+	}
+
+	/**
+	 * Append the steps at a node in lexicographic order (the order of their tokens), without repeats
+	 */
+	private static void appendSteps(StringBuilder walk, StepTable table, int[] tokens, int count){
+		Arrays.sort(tokens, 0, count);
+		for(int i=0;i<count;i++)
+			if(i==0 || tokens[i]!=tokens[i-1])
+				walk.append(table.getLabel(tokens[i]));
+	}
+
+	/**
+	 * Get the step table of the graph in memory, building it the first time
+	 * @return The step table
+	 */
+	private synchronized StepTable getStepTable(){
+		if(stepTable==null)
+			stepTable=new StepTable(csrGraph);
+		return stepTable;
+	}
+
+	/**
+	 * Get the types of steps walked
+	 * @param allowedTypes The allowed type of steps
+	 * @param walkRelationships True if the steps to other nodes are allowed
+	 * @return The types of steps walked
+	 */
+	private StepTable.Selection getSelection(List<StepType> allowedTypes, boolean walkRelationships){
+		int key=walkRelationships?1:0;
+		for(StepType allowedType:allowedTypes)
+			key|=2<<allowedType.ordinal();
+		return selections.computeIfAbsent(key, k -> new StepTable.Selection(csrGraph, allowedTypes, walkRelationships, binner));
+	}
+
+	/**
+	 * List the steps available from a node
+	 * @param id The instance id the walks start on, which isn't walked back to
+	 * @param currentNodeId The node
+	 * @param allowedTypes The allowed type of steps
+	 * @param walkRelationships True if the steps to other nodes are allowed
+	 * @return The steps
+	 */
+	private Steps getSteps(String id, String currentNodeId, List<StepType> allowedTypes, boolean walkRelationships){
+		// The steps & the other nodes they go to (null to stay on the node)
+		Map<String, List<String>> steps=new LinkedHashMap<>();
+
+		// Add all attribute presence as available steps
+		if(allowedTypes.contains(StepType.HAS_ATTRIBUTE)){
+			for(String attr:graph.getAttributes(currentNodeId))
+				steps.put("has_" + attr+",", null);
+		}
+
+		// Add all relationship presence and outgoing relationships available steps
+		if(allowedTypes.contains(StepType.HAS_RELATIONSHIP)||allowedTypes.contains(StepType.RELATIONSHIP_STEP)){
+			addRelationshipSteps(steps, id, graph.getRelationships(currentNodeId), "hasRel_", "->",
+					allowedTypes.contains(StepType.HAS_RELATIONSHIP), allowedTypes.contains(StepType.RELATIONSHIP_STEP) && walkRelationships);
+		}
+
+		// Add all incoming relationship presence and incoming relationships available steps
+		boolean incomingStep=allowedTypes.contains(StepType.RELATIONSHIP_STEP) && walkRelationships && randomNeighbors;
+		if(allowedTypes.contains(StepType.HAS_INCOMING_RELATIONSHIP)||incomingStep){
+			addRelationshipSteps(steps, id, graph.getIncomingRelationships(currentNodeId), "hasInRel_", "<-",
+					allowedTypes.contains(StepType.HAS_INCOMING_RELATIONSHIP), incomingStep);
+		}
+		return new Steps(steps, !randomNeighbors);
+	}
+
+	/**
+	 * Add the presence of the relationships & the steps along them.
+	 * With random neighbors, each relationship type is one step, & the other node (except the start) is picked when it is walked;
+	 * else all the other nodes are kept, for a step per relationship.
+	 */
+	private void addRelationshipSteps(Map<String, List<String>> steps, String id, Map<String, ? extends Collection<String>> relationships,
+			String presence, String direction, boolean hasRelationship, boolean relationshipStep){
+		for(Map.Entry<String, ? extends Collection<String>> relationship:relationships.entrySet()){
+			if(hasRelationship)
+				steps.put(presence + relationship.getKey() +",", null);
+			if(!relationshipStep || (binner!=null && !binner.canBin(relationship.getKey())))
+				continue;
+			// Don't walk back to the start
+			List<String> others=new ArrayList<>();
+			for(String other:relationship.getValue()){
+				if(!randomNeighbors || !other.equals(id))
+					others.add(other);
+			}
+			if(!others.isEmpty())
+				steps.put(relationship.getKey() + direction, others);
+		}
+	}
+
+	/**
+	 * Get all the walks available of length 1 and allowed types
+	 * @param id The id of the instance
+	 * @param allowedTypes The list of allowed types
+	 * @return All the walks available
+	 */
+	public Map<String,Set<String>> getAll(String id, List<StepType> allowedTypes) {
+		Set<String> walks=new HashSet<>();
+		for(String walk:getSteps(id, id, allowedTypes, false).labels){
+			// Cleanup
+			String w = walk.trim();
+			if(w.endsWith(","))
+				w=w.substring(0, w.length()-1);
+			if(!w.isEmpty())
+				walks.add(w);
+		}
+		// Add all the available walks and return
+		Map<String, Set<String>> returnObject =  new HashMap<>();
+		returnObject.put("1xall", walks);
+		return returnObject;
+	}
+}
@@ -0,0 +1,375 @@
+package randomWalks;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The steps available from each node of a CsrGraph, read from its rows & shared by all the walks.
+ * The relationships are indexed by their runs: for each node & predicate, the position of its other nodes in the rows
+ * (see CsrGraph.Rows.readRuns) & their number. So a step points into the rows, compressed or not, on the heap or off it,
+ * instead of copying the other nodes, & one index serves every combination of the types of steps (see Selection).
+ * The label of each token is made once, & the tokens are numbered in the order of their labels,
+ * so the steps that stay on a node are put in lexicographic order by sorting ints. Walking reads the index, without making strings or lists.
+ * A step is a long: its kind in the high int, & its predicate (or its run, if it goes to other nodes) in the low int.
+ * @author rparundekar
+ */
+class StepTable {
+	// SLF4J Logger bound to Log4J
+	private static final Logger logger=LoggerFactory.getLogger(StepTable.class);
+
+	// The kinds of tokens, for each predicate
+	private static final int HAS_ATTRIBUTE=0;
+	private static final int HAS_RELATIONSHIP=1;
+	private static final int HAS_INCOMING_RELATIONSHIP=2;
+	private static final int RELATIONSHIP_STEP=3;
+	private static final int INCOMING_RELATIONSHIP_STEP=4;
+	private static final int KINDS=5;
+
+	/**
+	 * The types of steps walked: the ones allowed, & the relationships walked
+	 */
+	static class Selection{
+		private final boolean hasAttribute;
+		private final boolean hasRelationship;
+		private final boolean hasIncomingRelationship;
+		private final boolean relationshipStep;
+		// The relationships that can be walked, or null if all of them can
+		private final boolean[] walkable;
+
+		/**
+		 * @param graph The graph
+		 * @param allowedTypes The allowed type of steps
+		 * @param walkRelationships True if the steps to other nodes are allowed
+		 * @param binner The binner for the relationships, or null to walk all the relationships
+		 */
+		Selection(CsrGraph graph, List<StepType> allowedTypes, boolean walkRelationships, RelationshipLoadChecker binner){
+			hasAttribute=allowedTypes.contains(StepType.HAS_ATTRIBUTE);
+			hasRelationship=allowedTypes.contains(StepType.HAS_RELATIONSHIP);
+			hasIncomingRelationship=allowedTypes.contains(StepType.HAS_INCOMING_RELATIONSHIP);
+			relationshipStep=allowedTypes.contains(StepType.RELATIONSHIP_STEP) && walkRelationships;
+			if(binner==null){
+				walkable=null;
+			}else{
+				walkable=new boolean[graph.getPredicateCount()];
+				for(int predicate=0;predicate<walkable.length;predicate++)
+					walkable[predicate]=binner.canBin(graph.getPredicate(predicate));
+			}
+		}
+	}
+
+	/**
+	 * The runs of the rows of relationships: the runs of each node, & the predicate, position & number of other nodes of each run
+	 */
+	private static class Runs{
+		private final CsrGraph.Rows rows;
+		private final IntArray offsets;
+		private final IntArray predicates;
+		private final IntArray positions;
+		private final IntArray counts;
+
+		private Runs(CsrGraph.Rows rows, int nodeCount){
+			this.rows=rows;
+			// First count the runs, then read them
+			offsets=allocate(rows, nodeCount+1);
+			int total=0;
+			int most=0;
+			for(int node=0;node<nodeCount;node++){
+				int count=rows.predicateCount(node);
+				most=Math.max(most, count);
+				total+=count;
+				offsets.set(node+1, total);
+			}
+			predicates=allocate(rows, total);
+			positions=allocate(rows, total);
+			counts=allocate(rows, total);
+			int[] nodePredicates=new int[most];
+			int[] nodePositions=new int[most];
+			int[] nodeCounts=new int[most];
+			for(int node=0;node<nodeCount;node++){
+				int first=offsets.get(node);
+				int size=rows.readRuns(node, nodePredicates, nodePositions, nodeCounts);
+				for(int i=0;i<size;i++){
+					predicates.set(first+i, nodePredicates[i]);
+					positions.set(first+i, nodePositions[i]);
+					counts.set(first+i, nodeCounts[i]);
+				}
+			}
+		}
+
+		/**
+		 * The index is as big as the runs, so it is where the rows are
+		 */
+		private static IntArray allocate(CsrGraph.Rows rows, int length){
+			return rows.isOffHeap()?OffHeapIntArray.allocate(length):IntArray.onHeap(length);
+		}
+
+		private int first(int node){
+			return offsets.get(node);
+		}
+
+		private int end(int node){
+			return offsets.get(node+1);
+		}
+
+		private boolean isWalkable(Selection selection, int run){
+			return selection.walkable==null || selection.walkable[predicates.get(run)];
+		}
+
+		/**
+		 * @return The number of runs of the node that can be walked
+		 */
+		private int walkableCount(Selection selection, int node){
+			if(selection.walkable==null)
+				return end(node)-first(node);
+			int count=0;
+			for(int run=first(node);run<end(node);run++)
+				if(isWalkable(selection, run))
+					count++;
+			return count;
+		}
+
+		/**
+		 * @return The run of the node that can be walked at an index
+		 */
+		private int walkable(Selection selection, int node, int index){
+			if(selection.walkable==null)
+				return first(node)+index;
+			for(int run=first(node);;run++)
+				if(isWalkable(selection, run) && index--==0)
+					return run;
+		}
+
+		/**
+		 * @return True if the run is to only one other node, the start
+		 */
+		private boolean isBackToStart(int run, int node, int start){
+			return counts.get(run)==1 && rows.target(node, positions.get(run), 1, 0)==start;
+		}
+	}
+
+	private final CsrGraph graph;
+	// The number of the token of each kind & predicate, & the label of each token
+	private final int[] tokens;
+	private final String[] labels;
+	private final Runs outgoing;
+	private final Runs incoming;
+
+	/**
+	 * Build the index of the steps
+	 * @param graph The graph
+	 */
+	StepTable(CsrGraph graph){
+		long start=System.currentTimeMillis();
+		this.graph=graph;
+		int predicateCount=graph.getPredicateCount();
+		tokens=tokens(graph, predicateCount);
+		labels=labels(graph, predicateCount, tokens);
+		outgoing=new Runs(graph.getOutgoingRows(), graph.getNodeCount());
+		incoming=new Runs(graph.getIncomingRows(), graph.getNodeCount());
+		logger.info("Step table of {} outgoing & {} incoming runs built in {} ms.", outgoing.predicates.length(), incoming.predicates.length(),
+				System.currentTimeMillis()-start);
+	}
+
+	/**
+	 * Number the tokens of each kind & predicate in the order of their labels. Tokens with the same label get the same number.
+	 */
+	private static int[] tokens(CsrGraph graph, int predicateCount){
+		Integer[] order=new Integer[KINDS*predicateCount];
+		String[] allLabels=new String[order.length];
+		for(int i=0;i<order.length;i++){
+			order[i]=i;
+			allLabels[i]=label(graph, i/predicateCount, i%predicateCount);
+		}
+		Arrays.sort(order, Comparator.comparing(i -> allLabels[i]));
+		int[] tokens=new int[order.length];
+		int token=-1;
+		for(int i=0;i<order.length;i++){
+			if(i==0 || !allLabels[order[i]].equals(allLabels[order[i-1]]))
+				token++;
+			tokens[order[i]]=token;
+		}
+		return tokens;
+	}
+
+	private static String[] labels(CsrGraph graph, int predicateCount, int[] tokens){
+		int tokenCount=0;
+		for(int token:tokens)
+			tokenCount=Math.max(tokenCount, token+1);
+		String[] labels=new String[tokenCount];
+		for(int i=0;i<tokens.length;i++)
+			labels[tokens[i]]=label(graph, i/predicateCount, i%predicateCount);
+		return labels;
+	}
+
+	private static String label(CsrGraph graph, int kind, int predicate){
+		String name=graph.getPredicate(predicate);
+		switch(kind){
+		case HAS_ATTRIBUTE:
+			return "has_" + name + ",";
+		case HAS_RELATIONSHIP:
+			return "hasRel_" + name + ",";
+		case HAS_INCOMING_RELATIONSHIP:
+			return "hasInRel_" + name + ",";
+		case RELATIONSHIP_STEP:
+			return name + "->";
+		default:
+			return name + "<-";
+		}
+	}
+
+	/**
+	 * @param token The token
+	 * @return The label of the token
+	 */
+	String getLabel(int token){
+		return labels[token];
+	}
+
+	/**
+	 * Pick a step from a node uniformly, among the steps that don't go back to the start.
+	 * The steps of a node are in the order: its attributes, its relationships, its incoming relationships
+	 * & the relationships walked, out & then in.
+	 * @param selection The types of steps walked
+	 * @param node The node
+	 * @param start The node the walk started on
+	 * @param random The random number generator
+	 * @return The step, or -1 if there are no steps
+	 */
+	long pickStep(Selection selection, int node, int start, SplittableRandom random){
+		int stays=0;
+		if(selection.hasAttribute)
+			stays+=graph.getAttributeRows().size(node);
+		if(selection.hasRelationship)
+			stays+=outgoing.end(node)-outgoing.first(node);
+		if(selection.hasIncomingRelationship)
+			stays+=incoming.end(node)-incoming.first(node);
+		int outgoingMoves=selection.relationshipStep?outgoing.walkableCount(selection, node):0;
+		int incomingMoves=selection.relationshipStep?incoming.walkableCount(selection, node):0;
+		int count=stays+outgoingMoves+incomingMoves;
+		if(count==0)
+			return -1;
+		boolean checked=false;
+		// Pick again when a step goes back to the start, so the other steps are equally likely
+		while(true){
+			int index=random.nextInt(count);
+			if(index<stays)
+				return stay(selection, node, index);
+			index-=stays;
+			Runs runs=index<outgoingMoves?outgoing:incoming;
+			int run=runs.walkable(selection, node, index<outgoingMoves?index:index-outgoingMoves);
+			if(!runs.isBackToStart(run, node, start))
+				return step(runs==outgoing?RELATIONSHIP_STEP:INCOMING_RELATIONSHIP_STEP, run);
+			// Make sure one of the steps doesn't go back to the start
+			if(!checked && stays==0 && !canLeave(selection, outgoing, node, start) && !canLeave(selection, incoming, node, start))
+				return -1;
+			checked=true;
+		}
+	}
+
+	/**
+	 * @return The step that stays on the node at an index
+	 */
+	private long stay(Selection selection, int node, int index){
+		if(selection.hasAttribute){
+			CsrGraph.Rows attributes=graph.getAttributeRows();
+			int size=attributes.size(node);
+			if(index<size)
+				return step(HAS_ATTRIBUTE, attributes.predicate(node, index));
+			index-=size;
+		}
+		if(selection.hasRelationship){
+			int size=outgoing.end(node)-outgoing.first(node);
+			if(index<size)
+				return step(HAS_RELATIONSHIP, outgoing.predicates.get(outgoing.first(node)+index));
+			index-=size;
+		}
+		return step(HAS_INCOMING_RELATIONSHIP, incoming.predicates.get(incoming.first(node)+index));
+	}
+
+	/**
+	 * @return True if a run walked from the node doesn't go back to the start
+	 */
+	private static boolean canLeave(Selection selection, Runs runs, int node, int start){
+		for(int run=runs.first(node);run<runs.end(node);run++)
+			if(runs.isWalkable(selection, run) && !runs.isBackToStart(run, node, start))
+				return true;
+		return false;
+	}
+
+	private static long step(int kind, int value){
+		return ((long)kind<<32) | (value & 0xFFFFFFFFL);
+	}
+
+	private static int kind(long step){
+		return (int)(step>>>32);
+	}
+
+	/**
+	 * @param step The step
+	 * @return The token of the step
+	 */
+	int getToken(long step){
+		int kind=kind(step);
+		int value=(int)step;
+		int predicate;
+		if(kind==RELATIONSHIP_STEP)
+			predicate=outgoing.predicates.get(value);
+		else if(kind==INCOMING_RELATIONSHIP_STEP)
+			predicate=incoming.predicates.get(value);
+		else
+			predicate=value;
+		return tokens[kind*graph.getPredicateCount() + predicate];
+	}
+
+	/**
+	 * @param step The step
+	 * @return True if the step goes to another node
+	 */
+	boolean isMove(long step){
+		return kind(step)>=RELATIONSHIP_STEP;
+	}
+
+	/**
+	 * Pick the other node of a step uniformly, except the start
+	 * @param step The step, to other nodes
+	 * @param node The node the step is from
+	 * @param start The node the walk started on
+	 * @param random The random number generator
+	 * @return The other node
+	 */
+	int pickTarget(long step, int node, int start, SplittableRandom random){
+		Runs runs=kind(step)==RELATIONSHIP_STEP?outgoing:incoming;
+		int run=(int)step;
+		int position=runs.positions.get(run);
+		int count=runs.counts.get(run);
+		// A step to only one other node doesn't go to the start (see pickStep). The other nodes of a run are different,
+		// so picking again when the start is picked ends soon.
+		while(true){
+			int target=runs.rows.target(node, position, count, count==1?0:random.nextInt(count));
+			if(target!=start || count==1)
+				return target;
+		}
+	}
+
+	/**
+	 * Get the first other node of a step, except the start
+	 * @param step The step, to other nodes
+	 * @param node The node the step is from
+	 * @param start The node the walk started on
+	 * @return The other node
+	 */
+	int firstTarget(long step, int node, int start){
+		Runs runs=kind(step)==RELATIONSHIP_STEP?outgoing:incoming;
+		int run=(int)step;
+		int position=runs.positions.get(run);
+		int count=runs.counts.get(run);
+		// A step to only one other node doesn't go to the start (see pickStep), & the other nodes of a run are different
+		int target=runs.rows.target(node, position, count, 0);
+		return target==start && count>1?runs.rows.target(node, position, count, 1):target;
+	}
+}